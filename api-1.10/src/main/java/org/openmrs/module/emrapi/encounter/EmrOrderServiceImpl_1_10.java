@@ -42,8 +42,7 @@ public class EmrOrderServiceImpl_1_10 implements EmrOrderService {
     @Override
     public void save(List<EncounterTransaction.DrugOrder> drugOrders, Encounter encounter) {
         encounter.setOrders(new LinkedHashSet<Order>(encounter.getOrders()));
-        for (EncounterTransaction.DrugOrder drugOrder : drugOrders) {
-            DrugOrder omrsDrugOrder = openMRSDrugOrderMapper.map(drugOrder, encounter);
+        for (DrugOrder omrsDrugOrder : openMRSDrugOrderMapper.map(drugOrders, encounter)) {
             encounter.addOrder(omrsDrugOrder);
         }
         encounterService.saveEncounter(encounter);
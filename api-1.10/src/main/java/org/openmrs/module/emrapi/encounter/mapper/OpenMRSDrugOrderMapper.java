@@ -28,6 +28,14 @@ import org.openmrs.api.context.Context;
 import org.openmrs.module.emrapi.encounter.domain.EncounterTransaction;
 import org.openmrs.module.emrapi.encounter.service.OrderMetadataService;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 /**
  * OpenMRSDrugOrderMapper.
  * Maps EncounterTransaction DrugOrder to OpenMRS DrugOrders.
@@ -41,6 +49,15 @@ public class OpenMRSDrugOrderMapper {
     private DosingInstructionsMapper dosingInstructionsMapper;
     private OrderMetadataService orderMetadataService;
     public static final Order.Urgency DEFAULT_URGENCY = Order.Urgency.ROUTINE;
+    private static final int MAX_CACHED_DRUG_NAMES = 2000;
+
+    private final ConcurrentMap<String, Class<? extends DosingInstructions>> dosingTypes = new ConcurrentHashMap<String, Class<? extends DosingInstructions>>();
+    private final Map<String, Integer> drugIdsByName = Collections.synchronizedMap(new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > MAX_CACHED_DRUG_NAMES;
+        }
+    });
 
     public OpenMRSDrugOrderMapper(OrderService orderService, ConceptService conceptService,
                                   DosingInstructionsMapper dosingInstructionsMapper, OrderMetadataService orderMetadataService) {
@@ -50,11 +67,28 @@ public class OpenMRSDrugOrderMapper {
         this.orderMetadataService = orderMetadataService;
     }
 
+    /**
+     * Maps all the drug orders of an encounter, looking up each distinct drug, care setting and piece of order metadata
+     * only once
+     */
+    public List<DrugOrder> map(List<EncounterTransaction.DrugOrder> drugOrders, Encounter encounter) {
+        DrugOrderResolutionContext context = newResolutionContext();
+        List<DrugOrder> openMRSDrugOrders = new ArrayList<DrugOrder>(drugOrders.size());
+        for (EncounterTransaction.DrugOrder drugOrder : drugOrders) {
+            openMRSDrugOrders.add(map(drugOrder, encounter, context));
+        }
+        return openMRSDrugOrders;
+    }
+
     public DrugOrder map(EncounterTransaction.DrugOrder drugOrder, Encounter encounter) {
+        return map(drugOrder, encounter, newResolutionContext());
+    }
+
+    public DrugOrder map(EncounterTransaction.DrugOrder drugOrder, Encounter encounter, DrugOrderResolutionContext context) {
         DrugOrder openMRSDrugOrder = createDrugOrder(drugOrder);
-        openMRSDrugOrder.setCareSetting(getCareSettingFrom(drugOrder, openMRSDrugOrder));
+        openMRSDrugOrder.setCareSetting(getCareSettingFrom(drugOrder, openMRSDrugOrder, context));
 
-        Drug drug = getDrugFrom(drugOrder, openMRSDrugOrder);
+        Drug drug = getDrugFrom(drugOrder, openMRSDrugOrder, context);
 
         if (drug == null) {
             throw new APIException("No such drug : " + drugOrder.getDrug().getName());
@@ -66,24 +100,37 @@ public class OpenMRSDrugOrderMapper {
         openMRSDrugOrder.setScheduledDate(drugOrder.getScheduledDate());
         openMRSDrugOrder.setUrgency(drugOrder.getScheduledDate() != null ? Order.Urgency.ON_SCHEDULED_DATE : DEFAULT_URGENCY);
         openMRSDrugOrder.setDuration(drugOrder.getDuration());
-        openMRSDrugOrder.setDurationUnits(orderMetadataService.getDurationUnitsConceptByName(drugOrder.getDurationUnits()));
+        openMRSDrugOrder.setDurationUnits(context.getDurationUnitsByName(drugOrder.getDurationUnits()));
         openMRSDrugOrder.setAutoExpireDate(drugOrder.getAutoExpireDate());
 
-        try {
-            if (drugOrder.getDosingInstructionType() != null) {
-                openMRSDrugOrder.setDosingType((Class<? extends DosingInstructions>) Context.loadClass(drugOrder.getDosingInstructionType()));
-            }
-        } catch (ClassNotFoundException e) {
-            throw new APIException("Class not found for : DosingInstructionType " + drugOrder.getDosingInstructionType(), e);
+        if (drugOrder.getDosingInstructionType() != null) {
+            openMRSDrugOrder.setDosingType(getDosingType(drugOrder.getDosingInstructionType()));
         }
 
-        dosingInstructionsMapper.map(drugOrder.getDosingInstructions(), openMRSDrugOrder);
+        dosingInstructionsMapper.map(drugOrder.getDosingInstructions(), openMRSDrugOrder, context);
         openMRSDrugOrder.setInstructions(drugOrder.getInstructions());
         Provider provider = encounter.getEncounterProviders().iterator().next().getProvider();
         openMRSDrugOrder.setOrderer(provider);
         return openMRSDrugOrder;
     }
 
+    public DrugOrderResolutionContext newResolutionContext() {
+        return new DrugOrderResolutionContext(conceptService, orderService, orderMetadataService, drugIdsByName);
+    }
+
+    private Class<? extends DosingInstructions> getDosingType(String dosingInstructionType) {
+        Class<? extends DosingInstructions> dosingType = dosingTypes.get(dosingInstructionType);
+        if (dosingType == null) {
+            try {
+                dosingType = (Class<? extends DosingInstructions>) Context.loadClass(dosingInstructionType);
+            } catch (ClassNotFoundException e) {
+                throw new APIException("Class not found for : DosingInstructionType " + dosingInstructionType, e);
+            }
+            dosingTypes.put(dosingInstructionType, dosingType);
+        }
+        return dosingType;
+    }
+
     private boolean isNewDrugOrder(EncounterTransaction.DrugOrder drugOrder) {
         return StringUtils.isBlank(drugOrder.getPreviousOrderUuid());
     }
@@ -102,21 +149,21 @@ public class OpenMRSDrugOrderMapper {
         }
     }
 
-    private CareSetting getCareSettingFrom(EncounterTransaction.DrugOrder drugOrder, DrugOrder openMRSDrugOrder) {
+    private CareSetting getCareSettingFrom(EncounterTransaction.DrugOrder drugOrder, DrugOrder openMRSDrugOrder, DrugOrderResolutionContext context) {
         if (!isNewDrugOrder(drugOrder)) {
             return openMRSDrugOrder.getCareSetting();
         }
-        return orderService.getCareSettingByName(drugOrder.getCareSetting());
+        return context.getCareSettingByName(drugOrder.getCareSetting());
     }
 
-    private Drug getDrugFrom(EncounterTransaction.DrugOrder drugOrder, DrugOrder openMRSDrugOrder) {
+    private Drug getDrugFrom(EncounterTransaction.DrugOrder drugOrder, DrugOrder openMRSDrugOrder, DrugOrderResolutionContext context) {
         if (!isNewDrugOrder(drugOrder)) {
             return openMRSDrugOrder.getDrug();
         }
         EncounterTransaction.Drug drug = drugOrder.getDrug();
         if (drug.getUuid() == null || drug.getUuid().isEmpty()) {
-            return conceptService.getDrug(drug.getName());
+            return context.getDrugByName(drug.getName());
         }
-        return conceptService.getDrugByUuid(drug.getUuid());
+        return context.getDrugByUuid(drug.getUuid());
     }
 }
\ No newline at end of file
@@ -0,0 +1,30 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.emrapi.db;
+
+import org.openmrs.Encounter;
+
+public interface EmrOrderDAO {
+
+    /**
+     * Loads the orders of a saved encounter into the current session, together with everything needed to map them to
+     * an encounter transaction: the drug, frequency and dose, route, quantity and duration units of drug orders, and
+     * the names, class and datatype of every concept the orders refer to. Uses a fixed number of queries however many
+     * orders the encounter has.
+     *
+     * @param encounter
+     */
+    void loadOrdersForMapping(Encounter encounter);
+
+}
@@ -0,0 +1,110 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.emrapi.db;
+
+import org.hibernate.Query;
+import org.hibernate.SessionFactory;
+import org.openmrs.Concept;
+import org.openmrs.Drug;
+import org.openmrs.DrugOrder;
+import org.openmrs.Encounter;
+import org.openmrs.Order;
+import org.openmrs.api.db.hibernate.HibernateUtil;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class HibernateEmrOrderDAO implements EmrOrderDAO {
+
+    // keeps "in" lists well below the limits of any database
+    private static final int MAX_IDS_PER_QUERY = 1000;
+
+    private SessionFactory sessionFactory;
+
+    public void setSessionFactory(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    @Override
+    public void loadOrdersForMapping(Encounter encounter) {
+        // one polymorphic query for orders of every type, and one to fetch the associations only drug orders have
+        Query query = sessionFactory.getCurrentSession().createQuery("select o from Order o " +
+                "left join fetch o.concept left join fetch o.orderType left join fetch o.careSetting " +
+                "where o.encounter = :encounter");
+        query.setParameter("encounter", encounter);
+        List<Order> orders = new ArrayList<Order>();
+        for (Object order : query.list()) {
+            orders.add(HibernateUtil.getRealObjectFromProxy((Order) order));
+        }
+
+        for (Order order : orders) {
+            if (order instanceof DrugOrder) {
+                loadDrugOrderDetails(encounter);
+                break;
+            }
+        }
+
+        Set<Integer> conceptIds = new HashSet<Integer>();
+        for (Order order : orders) {
+            addConceptId(conceptIds, order.getConcept());
+            if (order instanceof DrugOrder) {
+                DrugOrder drugOrder = (DrugOrder) order;
+                Drug drug = drugOrder.getDrug();
+                if (drug != null) {
+                    addConceptId(conceptIds, drug.getConcept());
+                    addConceptId(conceptIds, drug.getDosageForm());
+                }
+                if (drugOrder.getFrequency() != null) {
+                    addConceptId(conceptIds, drugOrder.getFrequency().getConcept());
+                }
+                addConceptId(conceptIds, drugOrder.getDoseUnits());
+                addConceptId(conceptIds, drugOrder.getRoute());
+                addConceptId(conceptIds, drugOrder.getQuantityUnits());
+                addConceptId(conceptIds, drugOrder.getDurationUnits());
+            }
+        }
+        loadConcepts(conceptIds);
+    }
+
+    private void loadDrugOrderDetails(Encounter encounter) {
+        Query query = sessionFactory.getCurrentSession().createQuery("select o from DrugOrder o " +
+                "left join fetch o.drug d left join fetch d.dosageForm " +
+                "left join fetch o.frequency f left join fetch f.concept " +
+                "left join fetch o.doseUnits left join fetch o.route " +
+                "left join fetch o.quantityUnits left join fetch o.durationUnits " +
+                "where o.encounter = :encounter");
+        query.setParameter("encounter", encounter);
+        query.list();
+    }
+
+    private void loadConcepts(Set<Integer> conceptIds) {
+        List<Integer> ids = new ArrayList<Integer>(conceptIds);
+        for (int i = 0; i < ids.size(); i += MAX_IDS_PER_QUERY) {
+            Query query = sessionFactory.getCurrentSession().createQuery("select distinct c from Concept c " +
+                    "left join fetch c.names left join fetch c.conceptClass left join fetch c.datatype " +
+                    "where c.conceptId in (:conceptIds)");
+            query.setParameterList("conceptIds", ids.subList(i, Math.min(ids.size(), i + MAX_IDS_PER_QUERY)));
+            query.list();
+        }
+    }
+
+    private void addConceptId(Set<Integer> conceptIds, Concept concept) {
+        if (concept != null && concept.getConceptId() != null) {
+            conceptIds.add(concept.getConceptId());
+        }
+    }
+
+}
@@ -13,7 +13,6 @@
  */
 package org.openmrs.module.emrapi.encounter.mapper;
 
-import org.openmrs.Concept;
 import org.openmrs.DrugOrder;
 import org.openmrs.api.ConceptService;
 import org.openmrs.module.emrapi.encounter.domain.EncounterTransaction;
@@ -29,20 +28,25 @@ public class DosingInstructionsMapper {
     }
 
     public DrugOrder map(EncounterTransaction.DosingInstructions dosingInstructions, DrugOrder drugOrder) {
+        // dosing instructions don't refer to care settings, so the context doesn't need an order service
+        return map(dosingInstructions, drugOrder, new DrugOrderResolutionContext(conceptService, null, orderMetadataService, null));
+    }
+
+    /**
+     * Like {@link #map(EncounterTransaction.DosingInstructions, DrugOrder)}, but resolves concepts and frequencies
+     * through the given context
+     */
+    public DrugOrder map(EncounterTransaction.DosingInstructions dosingInstructions, DrugOrder drugOrder, DrugOrderResolutionContext context) {
         drugOrder.setDose(dosingInstructions.getDose());
-        drugOrder.setDoseUnits(conceptByName(dosingInstructions.getDoseUnits()));
+        drugOrder.setDoseUnits(context.getConceptByName(dosingInstructions.getDoseUnits()));
         drugOrder.setDosingInstructions(dosingInstructions.getAdministrationInstructions());
-        drugOrder.setRoute(conceptByName(dosingInstructions.getRoute()));
+        drugOrder.setRoute(context.getConceptByName(dosingInstructions.getRoute()));
         drugOrder.setAsNeeded(dosingInstructions.getAsNeeded());
-        drugOrder.setFrequency(orderMetadataService.getOrderFrequencyByName(dosingInstructions.getFrequency(), false));
+        drugOrder.setFrequency(context.getOrderFrequencyByName(dosingInstructions.getFrequency()));
         drugOrder.setQuantity(Double.valueOf(dosingInstructions.getQuantity()));
-        drugOrder.setQuantityUnits(conceptByName(dosingInstructions.getQuantityUnits()));
+        drugOrder.setQuantityUnits(context.getConceptByName(dosingInstructions.getQuantityUnits()));
         Integer numberOfRefills = dosingInstructions.getNumberOfRefills();
         drugOrder.setNumRefills(numberOfRefills == null? 0: numberOfRefills);
         return drugOrder;
     }
-
-    private Concept conceptByName(String name) {
-        return conceptService.getConceptByName(name);
-    }
 }
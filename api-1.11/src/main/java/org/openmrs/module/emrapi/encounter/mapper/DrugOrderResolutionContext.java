@@ -0,0 +1,125 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.emrapi.encounter.mapper;
+
+import org.openmrs.CareSetting;
+import org.openmrs.Concept;
+import org.openmrs.Drug;
+import org.openmrs.OrderFrequency;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.OrderService;
+import org.openmrs.module.emrapi.encounter.service.OrderMetadataService;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resolves the drugs, care settings, concepts and order frequencies referred to by the drug orders of one request, so
+ * that each distinct name or uuid is only looked up once however many orders refer to it.
+ * <p/>
+ * Holds on to persistent objects, so it must not outlive the request (or the Hibernate session) it was created for, and
+ * is not thread safe.
+ */
+public class DrugOrderResolutionContext {
+
+    private final ConceptService conceptService;
+    private final OrderService orderService;
+    private final OrderMetadataService orderMetadataService;
+    private final Map<String, Integer> drugIdsByName;
+
+    private final Map<String, Drug> drugsByUuid = new HashMap<String, Drug>();
+    private final Map<String, Drug> drugsByName = new HashMap<String, Drug>();
+    private final Map<String, CareSetting> careSettingsByName = new HashMap<String, CareSetting>();
+    private final Map<String, Concept> durationUnitsByName = new HashMap<String, Concept>();
+    private final Map<String, Concept> conceptsByName = new HashMap<String, Concept>();
+    private final Map<String, OrderFrequency> orderFrequenciesByName = new HashMap<String, OrderFrequency>();
+
+    /**
+     * @param drugIdsByName a cache of drug ids by normalized name shared between requests (it must be thread safe), or
+     *                      null to resolve drugs by name from scratch in every request
+     */
+    public DrugOrderResolutionContext(ConceptService conceptService, OrderService orderService,
+                                      OrderMetadataService orderMetadataService, Map<String, Integer> drugIdsByName) {
+        this.conceptService = conceptService;
+        this.orderService = orderService;
+        this.orderMetadataService = orderMetadataService;
+        this.drugIdsByName = drugIdsByName;
+    }
+
+    public Drug getDrugByUuid(String uuid) {
+        if (!drugsByUuid.containsKey(uuid)) {
+            drugsByUuid.put(uuid, conceptService.getDrugByUuid(uuid));
+        }
+        return drugsByUuid.get(uuid);
+    }
+
+    public Drug getDrugByName(String name) {
+        String key = normalize(name);
+        if (!drugsByName.containsKey(key)) {
+            drugsByName.put(key, resolveDrugByName(name, key));
+        }
+        return drugsByName.get(key);
+    }
+
+    public CareSetting getCareSettingByName(String name) {
+        if (!careSettingsByName.containsKey(name)) {
+            careSettingsByName.put(name, orderService.getCareSettingByName(name));
+        }
+        return careSettingsByName.get(name);
+    }
+
+    public Concept getDurationUnitsByName(String name) {
+        if (!durationUnitsByName.containsKey(name)) {
+            durationUnitsByName.put(name, orderMetadataService.getDurationUnitsConceptByName(name));
+        }
+        return durationUnitsByName.get(name);
+    }
+
+    public Concept getConceptByName(String name) {
+        if (!conceptsByName.containsKey(name)) {
+            conceptsByName.put(name, conceptService.getConceptByName(name));
+        }
+        return conceptsByName.get(name);
+    }
+
+    public OrderFrequency getOrderFrequencyByName(String name) {
+        if (!orderFrequenciesByName.containsKey(name)) {
+            orderFrequenciesByName.put(name, orderMetadataService.getOrderFrequencyByName(name, false));
+        }
+        return orderFrequenciesByName.get(name);
+    }
+
+    private Drug resolveDrugByName(String name, String key) {
+        if (drugIdsByName != null && key != null) {
+            Integer drugId = drugIdsByName.get(key);
+            if (drugId != null) {
+                Drug drug = conceptService.getDrug(drugId);
+                // the drug may have been renamed or deleted since it was cached
+                if (drug != null && key.equals(normalize(drug.getName()))) {
+                    return drug;
+                }
+                drugIdsByName.remove(key);
+            }
+        }
+        Drug drug = conceptService.getDrug(name);
+        if (drugIdsByName != null && key != null && drug != null && drug.getDrugId() != null) {
+            drugIdsByName.put(key, drug.getDrugId());
+        }
+        return drug;
+    }
+
+    static String normalize(String name) {
+        return name == null ? null : name.trim().toLowerCase();
+    }
+}
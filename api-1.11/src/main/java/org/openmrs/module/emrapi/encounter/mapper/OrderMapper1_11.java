@@ -26,17 +26,60 @@ import org.openmrs.Order;
 import org.openmrs.TestOrder;
 import org.openmrs.annotation.OpenmrsProfile;
 import org.openmrs.api.db.hibernate.HibernateUtil;
+import org.openmrs.module.emrapi.db.EmrOrderDAO;
 import org.openmrs.module.emrapi.encounter.ConceptMapper;
 import org.openmrs.module.emrapi.encounter.OrderMapper;
+import org.openmrs.module.emrapi.encounter.SinglePassOrderMapper;
 import org.openmrs.module.emrapi.encounter.domain.EncounterTransaction;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 @Component(value = "orderMapper")
 @OpenmrsProfile(openmrsVersion = "[1.11.* - 1.12.*]")
-public class OrderMapper1_11 implements OrderMapper {
+public class OrderMapper1_11 implements OrderMapper, SinglePassOrderMapper {
 
     private final ConceptMapper conceptMapper = new ConceptMapper();
 
+    private EmrOrderDAO emrOrderDAO;
+
+    @Autowired(required = false)
+    public void setEmrOrderDAO(EmrOrderDAO emrOrderDAO) {
+        this.emrOrderDAO = emrOrderDAO;
+    }
+
+    @Override
+    public void update(EncounterTransaction encounterTransaction, Encounter encounter) {
+        List<EncounterTransaction.DrugOrder> drugOrders = new ArrayList<EncounterTransaction.DrugOrder>();
+        List<EncounterTransaction.TestOrder> testOrders = new ArrayList<EncounterTransaction.TestOrder>();
+        for (Order order : getOrders(encounter)) {
+            if (DrugOrder.class.equals(order.getClass())) {
+                drugOrders.add(mapDrugOrder((DrugOrder) order));
+            } else if (TestOrder.class.equals(order.getClass())) {
+                testOrders.add(mapTestOrder((TestOrder) order));
+            }
+        }
+        sortByOrderNumber(drugOrders);
+        encounterTransaction.setDrugOrders(drugOrders);
+        encounterTransaction.setTestOrders(testOrders);
+    }
+
+    /**
+     * @return the encounter's orders, unproxied, and (for a saved encounter) with what mapping them needs already loaded
+     */
+    private List<Order> getOrders(Encounter encounter) {
+        if (encounter.getOrders().isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (emrOrderDAO != null && encounter.getId() != null) {
+            emrOrderDAO.loadOrdersForMapping(encounter);
+        }
+        List<Order> orders = new ArrayList<Order>(encounter.getOrders().size());
+        for (Order order : encounter.getOrders()) {
+            orders.add(HibernateUtil.getRealObjectFromProxy(order));
+        }
+        return orders;
+    }
+
     @Override
     public List<EncounterTransaction.DrugOrder> mapDrugOrders(Encounter encounter) {
 
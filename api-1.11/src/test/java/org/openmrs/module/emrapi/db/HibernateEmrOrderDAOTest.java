@@ -0,0 +1,57 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.emrapi.db;
+
+import org.hibernate.Hibernate;
+import org.junit.Test;
+import org.openmrs.DrugOrder;
+import org.openmrs.Encounter;
+import org.openmrs.Order;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.db.hibernate.HibernateUtil;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class HibernateEmrOrderDAOTest extends BaseModuleContextSensitiveTest {
+
+    @Autowired
+    private EmrOrderDAO emrOrderDAO;
+
+    @Test
+    public void loadOrdersForMapping_shouldLoadTheEncountersOrdersWithTheirDetails() throws Exception {
+        Encounter encounter = Context.getOrderService().getOrder(1).getEncounter();
+        assertNotNull(encounter);
+        Integer encounterId = encounter.getEncounterId();
+        Context.flushSession();
+        Context.clearSession();
+
+        encounter = Context.getEncounterService().getEncounter(encounterId);
+        emrOrderDAO.loadOrdersForMapping(encounter);
+
+        assertFalse(encounter.getOrders().isEmpty());
+        for (Order order : encounter.getOrders()) {
+            order = HibernateUtil.getRealObjectFromProxy(order);
+            assertTrue(Hibernate.isInitialized(order.getConcept()));
+            assertTrue(Hibernate.isInitialized(order.getConcept().getNames()));
+            if (order instanceof DrugOrder && ((DrugOrder) order).getDrug() != null) {
+                assertTrue(Hibernate.isInitialized(((DrugOrder) order).getDrug()));
+            }
+        }
+    }
+
+}
@@ -60,8 +60,7 @@ public class EmrOrderServiceImpl_1_11Test {
         DrugOrder mappedDrugOrder1 = new DrugOrder();
         DrugOrder mappedDrugOrder2 = new DrugOrder();
         Encounter encounter = new Encounter();
-        when(openMRSDrugOrderMapper.map(drugOrder1, encounter)).thenReturn(mappedDrugOrder1);
-        when(openMRSDrugOrderMapper.map(drugOrder2, encounter)).thenReturn(mappedDrugOrder2);
+        when(openMRSDrugOrderMapper.map(Arrays.asList(drugOrder1, drugOrder2), encounter)).thenReturn(Arrays.asList(mappedDrugOrder1, mappedDrugOrder2));
 
         emrOrderService.save(Arrays.asList(drugOrder1, drugOrder2), encounter);
 
@@ -86,8 +85,7 @@ public class EmrOrderServiceImpl_1_11Test {
         Encounter encounter = new Encounter();
         encounter.addOrder(existingDrugOrder1);
         encounter.addOrder(existingDrugOrder2);
-        when(openMRSDrugOrderMapper.map(drugOrder3, encounter)).thenReturn(mappedDrugOrder3);
-        when(openMRSDrugOrderMapper.map(drugOrder4, encounter)).thenReturn(mappedDrugOrder4);
+        when(openMRSDrugOrderMapper.map(Arrays.asList(drugOrder3, drugOrder4), encounter)).thenReturn(Arrays.asList(mappedDrugOrder3, mappedDrugOrder4));
 
         emrOrderService.save(Arrays.asList(drugOrder3, drugOrder4), encounter);
 
@@ -21,6 +21,7 @@ import org.junit.runner.RunWith;
 import org.openmrs.CareSetting;
 import org.openmrs.Concept;
 import org.openmrs.ConceptMap;
+import org.openmrs.ConceptDatatype;
 import org.openmrs.ConceptMapType;
 import org.openmrs.ConceptName;
 import org.openmrs.ConceptReferenceTerm;
@@ -34,6 +35,7 @@ import org.openmrs.OrderType;
 import org.openmrs.Patient;
 import org.openmrs.Encounter;
 import org.openmrs.SimpleDosingInstructions;
+import org.openmrs.TestOrder;
 import org.openmrs.module.emrapi.encounter.domain.EncounterTransaction;
 import org.openmrs.util.LocaleUtility;
 import org.powermock.core.classloader.annotations.PrepareForTest;
@@ -135,6 +137,29 @@ public class DrugOrderMapper1_11Test {
         assertEquals("ORD-350", sortedDrugOrders.get(2).getOrderNumber());
     }
 
+    @Test
+    public void shouldPartitionDrugAndTestOrdersInOnePass() throws NoSuchFieldException, IllegalAccessException {
+        DrugOrder drugOrder100 = drugOrder(CareSetting.CareSettingType.OUTPATIENT, 3, "3-0-2", 5, "before meals", "boil in water", null, "ORD-100");
+        DrugOrder drugOrder201 = drugOrder(CareSetting.CareSettingType.OUTPATIENT, 3, "3-0-2", 5, "before meals", "boil in water", null, "ORD-201");
+        Concept cbc = concept("CBC");
+        ConceptDatatype datatype = new ConceptDatatype();
+        datatype.setName("N/A");
+        cbc.setDatatype(datatype);
+        TestOrder testOrder = new TestOrder();
+        testOrder.setConcept(cbc);
+
+        Encounter encounter = new Encounter();
+        encounter.setOrders(new HashSet<Order>(Arrays.asList(drugOrder201, testOrder, drugOrder100)));
+        EncounterTransaction encounterTransaction = new EncounterTransaction();
+        drugOrderMapper110.update(encounterTransaction, encounter);
+
+        assertEquals(2, encounterTransaction.getDrugOrders().size());
+        assertEquals("ORD-100", encounterTransaction.getDrugOrders().get(0).getOrderNumber());
+        assertEquals("ORD-201", encounterTransaction.getDrugOrders().get(1).getOrderNumber());
+        assertEquals(1, encounterTransaction.getTestOrders().size());
+        assertEquals("CBC", encounterTransaction.getTestOrders().get(0).getConcept().getName());
+    }
+
     private DrugOrder drugOrder(CareSetting.CareSettingType careSettingType, int daysToStartAfter, String dosingInstructions,
                                 int duration, String instructions, String commentToFulfiller, String previousOrderUuid, String orderNumber) throws NoSuchFieldException, IllegalAccessException {
         DrugOrder order = new DrugOrder();
@@ -19,14 +19,17 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.MockitoAnnotations.initMocks;
 import static org.powermock.api.mockito.PowerMockito.when;
 
 import java.text.ParseException;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.UUID;
 
 import org.apache.commons.lang3.time.DateUtils;
@@ -90,7 +93,7 @@ public class OpenMRSDrugOrderMapper1_11Test {
         CareSetting outPatientCareSetting = new CareSetting(OUT_PATIENT_CARE_SETTING, OUT_PATIENT_CARE_SETTING, CareSetting.CareSettingType.OUTPATIENT);
         when(orderService.getCareSettingByName(OUT_PATIENT_CARE_SETTING)).thenReturn(outPatientCareSetting);
 
-        when(dosingInstructionsMapper.map(any(EncounterTransaction.DosingInstructions.class), any(DrugOrder.class))).thenAnswer(argumentAt(1));
+        when(dosingInstructionsMapper.map(any(EncounterTransaction.DosingInstructions.class), any(DrugOrder.class), any(DrugOrderResolutionContext.class))).thenAnswer(argumentAt(1));
 
         encounter = new Encounter();
         HashSet<EncounterProvider> encounterProviders = new HashSet<EncounterProvider>();
@@ -120,7 +123,7 @@ public class OpenMRSDrugOrderMapper1_11Test {
         assertThat(openMrsDrugOrder.getDuration(), is(equalTo(drugOrder.getDuration())));
         assertThat(openMrsDrugOrder.getDurationUnits(), is(equalTo(DAY_DURATION_CONCEPT)));
         assertThat(openMrsDrugOrder.getAutoExpireDate(), is(equalTo(autoExpireDate)));
-        verify(dosingInstructionsMapper).map(any(EncounterTransaction.DosingInstructions.class), any(DrugOrder.class));
+        verify(dosingInstructionsMapper).map(any(EncounterTransaction.DosingInstructions.class), any(DrugOrder.class), any(DrugOrderResolutionContext.class));
     }
 
     @Test
@@ -142,7 +145,7 @@ public class OpenMRSDrugOrderMapper1_11Test {
         assertThat(revisedOpenMrsDrugOrder.getEncounter(), is(equalTo(encounter)));
         assertThat(revisedOpenMrsDrugOrder.getDuration(), is(equalTo(drugOrder.getDuration())));
         assertThat(revisedOpenMrsDrugOrder.getDurationUnits(), is(equalTo(DAY_DURATION_CONCEPT)));
-        verify(dosingInstructionsMapper, times(2)).map(any(EncounterTransaction.DosingInstructions.class), any(DrugOrder.class));
+        verify(dosingInstructionsMapper, times(2)).map(any(EncounterTransaction.DosingInstructions.class), any(DrugOrder.class), any(DrugOrderResolutionContext.class));
     }
 
     @Test
@@ -182,7 +185,40 @@ public class OpenMRSDrugOrderMapper1_11Test {
         assertThat(revisedOpenMrsDrugOrder.getEncounter(), is(equalTo(encounter)));
         assertThat(revisedOpenMrsDrugOrder.getDuration(), is(equalTo(drugOrder.getDuration())));
         assertThat(revisedOpenMrsDrugOrder.getDurationUnits(), is(equalTo(DAY_DURATION_CONCEPT)));
-        verify(dosingInstructionsMapper, times(2)).map(any(EncounterTransaction.DosingInstructions.class), any(DrugOrder.class));
+        verify(dosingInstructionsMapper, times(2)).map(any(EncounterTransaction.DosingInstructions.class), any(DrugOrder.class), any(DrugOrderResolutionContext.class));
+    }
+
+    @Test
+    public void shouldLookUpSharedDrugsAndMetadataOncePerEncounter() {
+        EncounterTransaction.DrugOrder drugOrder1 = new DrugOrderBuilder().withDrugUuid(DRUG_UUID).withDurationUnits(DAY_DURATION_UNIT).build();
+        EncounterTransaction.DrugOrder drugOrder2 = new DrugOrderBuilder().withDrugUuid(DRUG_UUID).withDurationUnits(DAY_DURATION_UNIT).build();
+
+        List<DrugOrder> openMrsDrugOrders = openMRSDrugOrderMapper.map(Arrays.asList(drugOrder1, drugOrder2), encounter);
+
+        assertThat(openMrsDrugOrders.size(), is(2));
+        assertThat(openMrsDrugOrders.get(1).getDrug().getUuid(), is(equalTo(DRUG_UUID)));
+        assertThat(openMrsDrugOrders.get(1).getDurationUnits(), is(equalTo(DAY_DURATION_CONCEPT)));
+        verify(conceptService, times(1)).getDrugByUuid(DRUG_UUID);
+        verify(orderService, times(1)).getCareSettingByName(OUT_PATIENT_CARE_SETTING);
+        verify(orderMetadataService, times(1)).getDurationUnitsConceptByName(DAY_DURATION_UNIT);
+        verify(dosingInstructionsMapper, times(2)).map(any(EncounterTransaction.DosingInstructions.class), any(DrugOrder.class), any(DrugOrderResolutionContext.class));
+    }
+
+    @Test
+    public void shouldRememberDrugsResolvedByNameAcrossRequests() {
+        Drug drug = new Drug(5);
+        drug.setName("Paracetamol 500mg");
+        when(conceptService.getDrug("Paracetamol 500mg")).thenReturn(drug);
+        when(conceptService.getDrug(Integer.valueOf(5))).thenReturn(drug);
+
+        EncounterTransaction.DrugOrder drugOrder = new DrugOrderBuilder().withDrugUuid(null).withDurationUnits(DAY_DURATION_UNIT).build();
+        drugOrder.getDrug().setName("Paracetamol 500mg");
+        assertThat(openMRSDrugOrderMapper.map(drugOrder, encounter).getDrug(), is(drug));
+
+        drugOrder.getDrug().setName(" paracetamol 500MG ");
+        assertThat(openMRSDrugOrderMapper.map(drugOrder, encounter).getDrug(), is(drug));
+        verify(conceptService, times(1)).getDrug("Paracetamol 500mg");
+        verify(conceptService, never()).getDrug(" paracetamol 500MG ");
     }
 
     private Answer<DrugOrder> argumentAt(final int arg) {
@@ -16,13 +16,19 @@ package org.openmrs.module.emrapi;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.openmrs.Concept;
 import org.openmrs.ConceptSource;
 import org.openmrs.GlobalProperty;
+import org.openmrs.Location;
+import org.openmrs.LocationTag;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
 import org.openmrs.Person;
 import org.openmrs.PersonName;
 import org.openmrs.Privilege;
 import org.openmrs.Provider;
 import org.openmrs.Role;
+import org.openmrs.Visit;
 import org.openmrs.api.AdministrationService;
 import org.openmrs.api.ConceptService;
 import org.openmrs.api.PersonService;
@@ -37,11 +43,27 @@ import org.openmrs.module.DaemonTokenAware;
 import org.openmrs.module.ModuleActivator;
 import org.openmrs.module.ModuleException;
 import org.openmrs.module.emrapi.account.AccountService;
+import org.openmrs.module.emrapi.account.RoleCatalogInvalidationListener;
+import org.openmrs.module.emrapi.adt.AdtService;
 import org.openmrs.module.emrapi.adt.EmrApiVisitAssignmentHandler;
+import org.openmrs.module.emrapi.adt.LocationHierarchyInvalidationListener;
+import org.openmrs.module.emrapi.adt.OpenVisitCacheInvalidationListener;
+import org.openmrs.module.emrapi.diagnosis.DiagnosisMetadataInvalidationListener;
+import org.openmrs.module.emrapi.disposition.DispositionCacheInvalidationListener;
+import org.openmrs.module.emrapi.disposition.DispositionService;
 import org.openmrs.module.emrapi.event.PatientViewedEventListener;
+import org.openmrs.module.emrapi.merge.PatientMergeJobQueue;
+import org.openmrs.module.emrapi.patient.EmrPatientService;
+import org.openmrs.module.emrapi.patient.OpenVisitRosterListener;
+import org.openmrs.module.emrapi.patient.PatientSearchIndexListener;
+import org.openmrs.module.emrapi.patient.ReconcileOpenVisitRosterTask;
+import org.openmrs.scheduler.SchedulerException;
+import org.openmrs.scheduler.SchedulerService;
+import org.openmrs.scheduler.TaskDefinition;
 import org.openmrs.util.OpenmrsConstants;
 
 import java.io.File;
+import java.util.Date;
 
 /**
  * This class contains the logic that is run every time this module is either started or stopped.
@@ -50,7 +72,23 @@ public class EmrApiActivator extends BaseModuleActivator implements DaemonTokenA
 
     protected final Log log = LogFactory.getLog(getClass());
 
-    private EventListener eventListener;
+    private PatientViewedEventListener eventListener;
+
+    private EventListener dispositionCacheInvalidationListener;
+
+    private EventListener diagnosisMetadataInvalidationListener;
+
+    private EventListener locationHierarchyInvalidationListener;
+
+    private EventListener roleCatalogInvalidationListener;
+
+    private PatientSearchIndexListener patientSearchIndexListener;
+
+    private OpenVisitRosterListener openVisitRosterListener;
+
+    private OpenVisitCacheInvalidationListener openVisitCacheInvalidationListener;
+
+    private PatientMergeJobQueue patientMergeJobQueue;
 
     private DaemonToken daemonToken;
 
@@ -103,12 +141,73 @@ public class EmrApiActivator extends BaseModuleActivator implements DaemonTokenA
         createGlobalProperties(administrationService);
         createUnknownProvider(administrationService, providerService, personService);
         createConceptSource(conceptService);
-        eventListener = new PatientViewedEventListener(daemonToken);
+        Context.getService(EmrPatientService.class).migrateLastViewedPatientsProperties();
+        eventListener = Context.getRegisteredComponent("patientViewedEventListener", PatientViewedEventListener.class);
+        eventListener.setDaemonToken(daemonToken);
         Event.subscribe(EmrApiConstants.EVENT_TOPIC_NAME_PATIENT_VIEWED, eventListener);
 
+        dispositionCacheInvalidationListener = new DispositionCacheInvalidationListener(
+                Context.getRegisteredComponent("dispositionService", DispositionService.class));
+        Event.subscribe(Concept.class, null, dispositionCacheInvalidationListener);
+
+        diagnosisMetadataInvalidationListener = new DiagnosisMetadataInvalidationListener(
+                Context.getRegisteredComponent("emrApiProperties", EmrApiProperties.class));
+        Event.subscribe(Concept.class, null, diagnosisMetadataInvalidationListener);
+
+        locationHierarchyInvalidationListener = new LocationHierarchyInvalidationListener(Context.getService(AdtService.class));
+        Event.subscribe(Location.class, null, locationHierarchyInvalidationListener);
+        Event.subscribe(LocationTag.class, null, locationHierarchyInvalidationListener);
+
+        roleCatalogInvalidationListener = new RoleCatalogInvalidationListener(Context.getService(AccountService.class));
+        Event.subscribe(Role.class, null, roleCatalogInvalidationListener);
+        Event.subscribe(Privilege.class, null, roleCatalogInvalidationListener);
+
+        patientSearchIndexListener = new PatientSearchIndexListener(daemonToken);
+        Event.subscribe(Patient.class, null, patientSearchIndexListener);
+        Event.subscribe(PatientIdentifier.class, null, patientSearchIndexListener);
+        Event.subscribe(PersonName.class, null, patientSearchIndexListener);
+        patientSearchIndexListener.rebuildInBackground();
+
+        openVisitRosterListener = new OpenVisitRosterListener(daemonToken);
+        Event.subscribe(Visit.class, null, openVisitRosterListener);
+        openVisitRosterListener.rebuildInBackground();
+        scheduleOpenVisitRosterReconciliation();
+
+        openVisitCacheInvalidationListener = new OpenVisitCacheInvalidationListener(daemonToken);
+        Event.subscribe(Visit.class, null, openVisitCacheInvalidationListener);
+
+        patientMergeJobQueue = Context.getRegisteredComponent("patientMergeJobQueue", PatientMergeJobQueue.class);
+        patientMergeJobQueue.setDaemonToken(daemonToken);
+
         createPersonImageFolder();
     }
 
+    /**
+     * Registers (the first time the module starts) and schedules the task that periodically reloads the open visit
+     * roster, fixing up anything its listener missed
+     */
+    private void scheduleOpenVisitRosterReconciliation() {
+        SchedulerService schedulerService = Context.getSchedulerService();
+        TaskDefinition task = schedulerService.getTaskByName(EmrApiConstants.TASK_NAME_RECONCILE_OPEN_VISIT_ROSTER);
+        if (task == null) {
+            task = new TaskDefinition();
+            task.setName(EmrApiConstants.TASK_NAME_RECONCILE_OPEN_VISIT_ROSTER);
+            task.setDescription("Reloads the roster of checked-in patients from the database");
+            task.setTaskClass(ReconcileOpenVisitRosterTask.class.getName());
+            task.setStartTime(new Date());
+            task.setRepeatInterval(EmrApiConstants.RECONCILE_OPEN_VISIT_ROSTER_INTERVAL_SECONDS);
+            task.setStartOnStartup(true);
+            schedulerService.saveTask(task);
+        }
+        if (!task.getStarted()) {
+            try {
+                schedulerService.scheduleTask(task);
+            } catch (SchedulerException e) {
+                log.error("Could not schedule " + task.getName(), e);
+            }
+        }
+    }
+
     private void createPersonImageFolder() {
         EmrApiProperties emrProperties = Context.getRegisteredComponents(EmrApiProperties.class).get(0);
         File personImageDirectory = emrProperties.getPersonImageDirectory();
@@ -193,6 +292,48 @@ public class EmrApiActivator extends BaseModuleActivator implements DaemonTokenA
     public void stopped() {
         if (eventListener != null){
             Event.unsubscribe(EmrApiConstants.EVENT_TOPIC_NAME_PATIENT_VIEWED, eventListener);
+            eventListener.shutdown();
+            eventListener.setDaemonToken(null);
+        }
+        if (dispositionCacheInvalidationListener != null) {
+            Event.unsubscribe(Concept.class, null, dispositionCacheInvalidationListener);
+        }
+        if (diagnosisMetadataInvalidationListener != null) {
+            Event.unsubscribe(Concept.class, null, diagnosisMetadataInvalidationListener);
+        }
+        if (locationHierarchyInvalidationListener != null) {
+            Event.unsubscribe(Location.class, null, locationHierarchyInvalidationListener);
+            Event.unsubscribe(LocationTag.class, null, locationHierarchyInvalidationListener);
+        }
+        if (roleCatalogInvalidationListener != null) {
+            Event.unsubscribe(Role.class, null, roleCatalogInvalidationListener);
+            Event.unsubscribe(Privilege.class, null, roleCatalogInvalidationListener);
+        }
+        if (patientSearchIndexListener != null) {
+            Event.unsubscribe(Patient.class, null, patientSearchIndexListener);
+            Event.unsubscribe(PatientIdentifier.class, null, patientSearchIndexListener);
+            Event.unsubscribe(PersonName.class, null, patientSearchIndexListener);
+            patientSearchIndexListener.shutdown();
+        }
+        if (openVisitRosterListener != null) {
+            Event.unsubscribe(Visit.class, null, openVisitRosterListener);
+            openVisitRosterListener.shutdown();
+        }
+        TaskDefinition reconcileTask = Context.getSchedulerService().getTaskByName(
+                EmrApiConstants.TASK_NAME_RECONCILE_OPEN_VISIT_ROSTER);
+        if (reconcileTask != null && reconcileTask.getStarted()) {
+            try {
+                Context.getSchedulerService().shutdownTask(reconcileTask);
+            } catch (SchedulerException e) {
+                log.error("Could not stop " + reconcileTask.getName(), e);
+            }
+        }
+        if (openVisitCacheInvalidationListener != null) {
+            Event.unsubscribe(Visit.class, null, openVisitCacheInvalidationListener);
+            openVisitCacheInvalidationListener.shutdown();
+        }
+        if (patientMergeJobQueue != null) {
+            patientMergeJobQueue.setDaemonToken(null);
         }
     }
 
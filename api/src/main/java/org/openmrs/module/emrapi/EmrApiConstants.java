@@ -159,6 +159,10 @@ public class EmrApiConstants {
 
     public static final int DEFAULT_VISIT_EXPIRE_HOURS = 12;
 
+    public static final String TASK_NAME_RECONCILE_OPEN_VISIT_ROSTER = "EMR API - Reconcile Open Visit Roster";
+
+    public static final long RECONCILE_OPEN_VISIT_ROSTER_INTERVAL_SECONDS = 10 * 60;
+
     /*public static final String CONCEPT_CODE_DISPOSITION = "Disposition";
 
     public static final String CONCEPTDISPOSITION_ANSWER_ADMIT = "Admit";
@@ -39,6 +39,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Properties (some constant, some configured via GPs) for this module.
@@ -46,6 +47,11 @@ import java.util.List;
 @Component("emrApiProperties")
 public class EmrApiProperties extends ModuleProperties {
 
+	private volatile DiagnosisMetadata diagnosisMetadata;
+
+	// bumped on invalidation, so that metadata built from concepts read before then is not kept
+	private final AtomicInteger diagnosisMetadataGeneration = new AtomicInteger();
+
     public Location getUnknownLocation() {
 		return getLocationByGlobalProperty(EmrApiConstants.GP_UNKNOWN_LOCATION);
 	}
@@ -172,8 +178,31 @@ public class EmrApiProperties extends ModuleProperties {
 		return getPatientIdentifierTypesByGlobalProperty(EmrApiConstants.GP_EXTRA_PATIENT_IDENTIFIER_TYPES, false);
 	}
 
+	/**
+	 * @return the diagnosis metadata, built once and kept until {@link #invalidateDiagnosisMetadata()}
+	 */
 	public DiagnosisMetadata getDiagnosisMetadata() {
-		return new DiagnosisMetadata(conceptService, getEmrApiConceptSource());
+		DiagnosisMetadata metadata = diagnosisMetadata;
+		if (metadata == null) {
+			int generation = diagnosisMetadataGeneration.get();
+			metadata = new DiagnosisMetadata(conceptService, getEmrApiConceptSource());
+			synchronized (diagnosisMetadataGeneration) {
+				if (generation == diagnosisMetadataGeneration.get()) {
+					diagnosisMetadata = metadata;
+				}
+			}
+		}
+		return metadata;
+	}
+
+	/**
+	 * Discards the cached diagnosis metadata, e.g. after a concept has changed
+	 */
+	public void invalidateDiagnosisMetadata() {
+		synchronized (diagnosisMetadataGeneration) {
+			diagnosisMetadataGeneration.incrementAndGet();
+			diagnosisMetadata = null;
+		}
 	}
 
 	public List<ConceptSource> getConceptSourcesForDiagnosisSearch() {
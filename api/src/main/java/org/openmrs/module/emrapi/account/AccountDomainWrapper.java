@@ -112,6 +112,24 @@ public class AccountDomainWrapper implements DomainWrapper {
         }
     }
 
+    /**
+     * @return a new wrapper that shares this one's services, for an account whose user and provider have already been
+     * fetched, so it needs neither autowiring nor further queries
+     */
+    AccountDomainWrapper newAccountDomainWrapper(Person person, User user, Provider provider) {
+        AccountDomainWrapper account = new AccountDomainWrapper();
+        account.accountService = accountService;
+        account.userService = userService;
+        account.personService = personService;
+        account.providerService = providerService;
+        account.providerManagementService = providerManagementService;
+        account.providerIdentifierGenerator = providerIdentifierGenerator;
+        account.person = person;
+        account.user = user;
+        account.provider = provider;
+        return account;
+    }
+
     public Person getPerson() {
         return person;
     }
@@ -14,6 +14,23 @@ public interface AccountService {
      */
     List<AccountDomainWrapper> getAllAccounts();
 
+    /**
+     * Gets a page of the same accounts as {@link #getAllAccounts()}, ordered by person id. Users, providers and their
+     * roles are fetched in bulk, so this is much cheaper than {@link #getAllAccounts()} for large numbers of accounts.
+     *
+     * @param start index of the first account to return, or null to start at the beginning
+     * @param length maximum number of accounts to return, or null for all of them
+     * @return
+     * @should return a page of accounts ordered by person id
+     * @should return the same accounts as getAllAccounts
+     */
+    List<AccountDomainWrapper> getAccounts(Integer start, Integer length);
+
+    /**
+     * @return the total number of accounts that {@link #getAccounts(Integer, Integer)} pages through
+     */
+    int getAccountCount();
+
     /**
      * Save the account details to the database
      *
@@ -70,4 +87,11 @@ public interface AccountService {
      */
     List<Privilege> getApplicationPrivileges();
 
+    /**
+     * Discards the cached snapshot of roles and privileges that backs {@link #getAllCapabilities()},
+     * {@link #getAllPrivilegeLevels()}, {@link #getApiPrivileges()} and {@link #getApplicationPrivileges()}, so that it
+     * will be rebuilt on next use. This is called automatically when roles or privileges are saved.
+     */
+    void invalidateRoleCatalog();
+
 }
@@ -12,14 +12,18 @@ import org.openmrs.api.UserService;
 import org.openmrs.api.impl.BaseOpenmrsService;
 import org.openmrs.module.emrapi.EmrApiConstants;
 import org.openmrs.module.emrapi.EmrApiProperties;
+import org.openmrs.module.emrapi.db.AccountDAO;
 import org.openmrs.module.emrapi.domainwrapper.DomainWrapperFactory;
 import org.openmrs.module.providermanagement.api.ProviderManagementService;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Transactional
 public class AccountServiceImpl extends BaseOpenmrsService implements AccountService {
@@ -36,6 +40,13 @@ public class AccountServiceImpl extends BaseOpenmrsService implements AccountSer
 
     private EmrApiProperties emrApiProperties;
 
+    private AccountDAO accountDAO;
+
+    private volatile RoleCatalog roleCatalog;
+
+    // bumped on invalidation, so that a catalog built from data read before then is not kept
+    private final AtomicInteger roleCatalogGeneration = new AtomicInteger();
+
     /**
      * @param userService the userService to set
      */
@@ -72,6 +83,10 @@ public class AccountServiceImpl extends BaseOpenmrsService implements AccountSer
         this.emrApiProperties = emrApiProperties;
     }
 
+    public void setAccountDAO(AccountDAO accountDAO) {
+        this.accountDAO = accountDAO;
+    }
+
     /**
      * @see org.openmrs.module.emrapi.account.AccountService#getAllAccounts()
      */
@@ -115,6 +130,98 @@ public class AccountServiceImpl extends BaseOpenmrsService implements AccountSer
         return accounts;
     }
 
+    /**
+     * @see org.openmrs.module.emrapi.account.AccountService#getAccounts(Integer, Integer)
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public List<AccountDomainWrapper> getAccounts(Integer start, Integer length) {
+        List<Integer> personIds = getAccountPersonIds();
+        int from = start == null ? 0 : Math.min(Math.max(start, 0), personIds.size());
+        int to = length == null ? personIds.size() : Math.min(personIds.size(), from + Math.max(length, 0));
+        personIds = personIds.subList(from, to);
+        if (personIds.isEmpty()) {
+            return new ArrayList<AccountDomainWrapper>();
+        }
+
+        Map<Integer, List<User>> usersByPerson = new HashMap<Integer, List<User>>();
+        for (User user : accountDAO.getUsers(personIds, EmrApiConstants.DAEMON_USER_UUID)) {
+            getOrCreate(usersByPerson, user.getPerson().getPersonId()).add(user);
+        }
+        Map<Integer, List<org.openmrs.module.providermanagement.Provider>> providersByPerson =
+                new HashMap<Integer, List<org.openmrs.module.providermanagement.Provider>>();
+        for (org.openmrs.module.providermanagement.Provider provider : accountDAO.getProviders(personIds)) {
+            getOrCreate(providersByPerson, provider.getPerson().getPersonId()).add(provider);
+        }
+        Map<Integer, Person> persons = new HashMap<Integer, Person>();
+        for (Person person : accountDAO.getPersons(personIds)) {
+            persons.put(person.getPersonId(), person);
+        }
+
+        // autowire a single wrapper, and share its services with the rest
+        AccountDomainWrapper prototype = domainWrapperFactory.newAccountDomainWrapper();
+        List<AccountDomainWrapper> accounts = new ArrayList<AccountDomainWrapper>(personIds.size());
+        for (Integer personId : personIds) {
+            accounts.add(prototype.newAccountDomainWrapper(persons.get(personId),
+                    selectUser(personId, usersByPerson.get(personId)), selectProvider(providersByPerson.get(personId))));
+        }
+        return accounts;
+    }
+
+    /**
+     * @see org.openmrs.module.emrapi.account.AccountService#getAccountCount()
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public int getAccountCount() {
+        return getAccountPersonIds().size();
+    }
+
+    private List<Integer> getAccountPersonIds() {
+        Provider unknownProvider = emrApiProperties.getUnknownProvider();
+        return accountDAO.getAccountPersonIds(EmrApiConstants.DAEMON_USER_UUID,
+                unknownProvider == null ? null : unknownProvider.getProviderId());
+    }
+
+    // same rules as AccountDomainWrapper#initializeWithPerson: prefer the non-retired user
+    private User selectUser(Integer personId, List<User> users) {
+        if (users == null) {
+            return null;
+        }
+        List<User> candidates = new ArrayList<User>();
+        for (User user : users) {
+            if (!user.isRetired()) {
+                candidates.add(user);
+            }
+        }
+        if (candidates.isEmpty()) {
+            candidates = users;
+        }
+        if (candidates.size() > 1) {
+            throw new APIException("Found multiple users associated to the person with id: " + personId);
+        }
+        return candidates.get(0);
+    }
+
+    private org.openmrs.module.providermanagement.Provider selectProvider(List<org.openmrs.module.providermanagement.Provider> providers) {
+        if (providers == null) {
+            return null;
+        }
+        if (providers.size() > 1) {
+            throw new APIException("Multiple provider/provider roles per person not supported");
+        }
+        return providers.get(0);
+    }
+
+    private <T> List<T> getOrCreate(Map<Integer, List<T>> map, Integer key) {
+        List<T> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<T>();
+            map.put(key, list);
+        }
+        return list;
+    }
+
     /**
      * @see org.openmrs.module.emrapi.account.AccountService#saveAccount(org.openmrs.module.emrapi.account.AccountDomainWrapper)
      */
@@ -148,12 +255,7 @@ public class AccountServiceImpl extends BaseOpenmrsService implements AccountSer
     @Override
     @Transactional(readOnly = true)
     public List<Role> getAllCapabilities() {
-        List<Role> capabilities = new ArrayList<Role>();
-        for (Role candidate : userService.getAllRoles()) {
-            if (candidate.getName().startsWith(EmrApiConstants.ROLE_PREFIX_CAPABILITY))
-                capabilities.add(candidate);
-        }
-        return capabilities;
+        return getRoles(getRoleCatalog().getCapabilities());
     }
 
     /**
@@ -162,40 +264,73 @@ public class AccountServiceImpl extends BaseOpenmrsService implements AccountSer
     @Override
     @Transactional(readOnly = true)
     public List<Role> getAllPrivilegeLevels() {
-        List<Role> privilegeLevels = new ArrayList<Role>();
-        for (Role candidate : userService.getAllRoles()) {
-            if (candidate.getName().startsWith(EmrApiConstants.ROLE_PREFIX_PRIVILEGE_LEVEL))
-                privilegeLevels.add(candidate);
-        }
-        return privilegeLevels;
+        return getRoles(getRoleCatalog().getPrivilegeLevels());
     }
 
     @Override
+    @Transactional(readOnly = true)
     public List<Privilege> getApiPrivileges() {
-        List<Privilege> privileges = new ArrayList<Privilege>();
-        for (Privilege candidate : userService.getAllPrivileges()) {
-            if (!isApplicationPrivilege(candidate)) {
-                privileges.add(candidate);
-            }
-        }
-        return privileges;
+        return getPrivileges(getRoleCatalog().getApiPrivileges());
     }
 
     @Override
+    @Transactional(readOnly = true)
     public List<Privilege> getApplicationPrivileges() {
+        return getPrivileges(getRoleCatalog().getApplicationPrivileges());
+    }
+
+    @Override
+    public void invalidateRoleCatalog() {
+        synchronized (roleCatalogGeneration) {
+            roleCatalogGeneration.incrementAndGet();
+            roleCatalog = null;
+        }
+    }
+
+    /**
+     * Looks roles up in the current session, by their primary key; one deleted since the catalog was built is skipped
+     */
+    private List<Role> getRoles(Set<String> names) {
+        List<Role> roles = new ArrayList<Role>();
+        for (String name : names) {
+            Role role = userService.getRole(name);
+            if (role != null) {
+                roles.add(role);
+            }
+        }
+        return roles;
+    }
+
+    /**
+     * Looks privileges up in the current session, by their primary key; one deleted since the catalog was built is
+     * skipped
+     */
+    private List<Privilege> getPrivileges(Set<String> names) {
         List<Privilege> privileges = new ArrayList<Privilege>();
-        for (Privilege candidate : userService.getAllPrivileges()) {
-            if (isApplicationPrivilege(candidate)) {
-                privileges.add(candidate);
+        for (String name : names) {
+            Privilege privilege = userService.getPrivilege(name);
+            if (privilege != null) {
+                privileges.add(privilege);
             }
         }
         return privileges;
     }
 
-    private boolean isApplicationPrivilege(Privilege privilege) {
-        return privilege.getPrivilege().startsWith(EmrApiConstants.PRIVILEGE_PREFIX_APP)
-                || privilege.getPrivilege().startsWith(EmrApiConstants.PRIVILEGE_PREFIX_TASK);
+    /**
+     * @return the current snapshot of role and privilege names, building it if necessary
+     */
+    private RoleCatalog getRoleCatalog() {
+        RoleCatalog catalog = roleCatalog;
+        if (catalog == null) {
+            int generation = roleCatalogGeneration.get();
+            catalog = RoleCatalog.build(userService.getAllRoles(), userService.getAllPrivileges());
+            synchronized (roleCatalogGeneration) {
+                if (generation == roleCatalogGeneration.get()) {
+                    roleCatalog = catalog;
+                }
+            }
+        }
+        return catalog;
     }
 
-
 }
@@ -0,0 +1,83 @@
+package org.openmrs.module.emrapi.account;
+
+import org.openmrs.Privilege;
+import org.openmrs.Role;
+import org.openmrs.module.emrapi.EmrApiConstants;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * An immutable snapshot of the names of all roles and privileges, partitioned by the naming conventions in
+ * {@link EmrApiConstants}: roles into capabilities and privilege levels, privileges into API and application ones.
+ * Only names are kept, since Hibernate entities can't be shared between sessions; callers look the roles and
+ * privileges up by name.
+ */
+public class RoleCatalog {
+
+    private final Set<String> capabilities;
+
+    private final Set<String> privilegeLevels;
+
+    private final Set<String> apiPrivileges;
+
+    private final Set<String> applicationPrivileges;
+
+    private RoleCatalog(Set<String> capabilities, Set<String> privilegeLevels, Set<String> apiPrivileges,
+                        Set<String> applicationPrivileges) {
+        this.capabilities = Collections.unmodifiableSet(capabilities);
+        this.privilegeLevels = Collections.unmodifiableSet(privilegeLevels);
+        this.apiPrivileges = Collections.unmodifiableSet(apiPrivileges);
+        this.applicationPrivileges = Collections.unmodifiableSet(applicationPrivileges);
+    }
+
+    public static RoleCatalog build(Collection<Role> roles, Collection<Privilege> privileges) {
+        Set<String> capabilities = new LinkedHashSet<String>();
+        Set<String> privilegeLevels = new LinkedHashSet<String>();
+        for (Role candidate : roles) {
+            if (candidate.getName().startsWith(EmrApiConstants.ROLE_PREFIX_CAPABILITY)) {
+                capabilities.add(candidate.getRole());
+            } else if (candidate.getName().startsWith(EmrApiConstants.ROLE_PREFIX_PRIVILEGE_LEVEL)) {
+                privilegeLevels.add(candidate.getRole());
+            }
+        }
+
+        Set<String> apiPrivileges = new LinkedHashSet<String>();
+        Set<String> applicationPrivileges = new LinkedHashSet<String>();
+        for (Privilege candidate : privileges) {
+            if (isApplicationPrivilege(candidate)) {
+                applicationPrivileges.add(candidate.getPrivilege());
+            } else {
+                apiPrivileges.add(candidate.getPrivilege());
+            }
+        }
+        return new RoleCatalog(capabilities, privilegeLevels, apiPrivileges, applicationPrivileges);
+    }
+
+    /**
+     * By convention, privileges starting with "App:" or "Task:" are Application-level
+     */
+    public static boolean isApplicationPrivilege(Privilege privilege) {
+        return privilege.getPrivilege().startsWith(EmrApiConstants.PRIVILEGE_PREFIX_APP)
+                || privilege.getPrivilege().startsWith(EmrApiConstants.PRIVILEGE_PREFIX_TASK);
+    }
+
+    public Set<String> getCapabilities() {
+        return capabilities;
+    }
+
+    public Set<String> getPrivilegeLevels() {
+        return privilegeLevels;
+    }
+
+    public Set<String> getApiPrivileges() {
+        return apiPrivileges;
+    }
+
+    public Set<String> getApplicationPrivileges() {
+        return applicationPrivileges;
+    }
+
+}
@@ -0,0 +1,27 @@
+package org.openmrs.module.emrapi.account;
+
+import org.openmrs.event.EventListener;
+
+import javax.jms.Message;
+
+/**
+ * Listens for role and privilege events, and discards the account service's snapshot of them
+ */
+public class RoleCatalogInvalidationListener implements EventListener {
+
+    private AccountService accountService;
+
+    public RoleCatalogInvalidationListener(AccountService accountService) {
+        this.accountService = accountService;
+    }
+
+    /**
+     * @see EventListener#onMessage(javax.jms.Message)
+     * @param message
+     */
+    @Override
+    public void onMessage(Message message) {
+        accountService.invalidateRoleCatalog();
+    }
+
+}
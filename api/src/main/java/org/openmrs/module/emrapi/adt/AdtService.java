@@ -21,10 +21,13 @@ import org.openmrs.Order;
 import org.openmrs.Patient;
 import org.openmrs.Provider;
 import org.openmrs.Visit;
+import org.openmrs.annotation.Authorized;
 import org.openmrs.api.OpenmrsService;
 import org.openmrs.module.emrapi.adt.exception.ExistingVisitDuringTimePeriodException;
 import org.openmrs.module.emrapi.merge.PatientMergeAction;
+import org.openmrs.module.emrapi.merge.PatientMergeJob;
 import org.openmrs.module.emrapi.visit.VisitDomainWrapper;
+import org.openmrs.util.PrivilegeConstants;
 
 import java.util.Date;
 import java.util.List;
@@ -92,6 +95,16 @@ public interface AdtService extends OpenmrsService {
      */
     Visit ensureVisit(Patient patient, Date visitTime, Location department);
 
+    /**
+     * Does what {@link #ensureVisit(org.openmrs.Patient, java.util.Date, org.openmrs.Location)} does for each request,
+     * in order (so a visit created for one request may be used for later ones), but looks up the candidate visits of
+     * all the requests' patients at once.
+     *
+     * @param requests
+     * @return the visit for each request, in the same order
+     */
+    List<Visit> ensureVisits(List<EnsureVisitRequest> requests);
+
     /**
      * Creates a "check-in" encounter for the given patient, at the location where, and adds it to the active visit.
      * (This method calls ensureActiveVisit.)
@@ -131,6 +144,28 @@ public interface AdtService extends OpenmrsService {
      */
     boolean isSuitableVisit(Visit visit, Location location, Date when);
 
+    /**
+     * Finds one of the patient's visits that have not ended which is suitable (see
+     * {@link #isSuitableVisit(org.openmrs.Visit, org.openmrs.Location, java.util.Date)}) for an encounter at location
+     * and when. The patient's open visits are cached for a short while, by patient and visit location.
+     *
+     * @param patient
+     * @param location
+     * @param when
+     * @return a suitable open visit, or null if there is none (though a visit that has ended after when may still be
+     * suitable)
+     */
+    Visit getSuitableOpenVisit(Patient patient, Location location, Date when);
+
+    /**
+     * Discards the cached open visits used by
+     * {@link #getSuitableOpenVisit(org.openmrs.Patient, org.openmrs.Location, java.util.Date)}. This is called
+     * automatically when visits are saved, closed or voided.
+     *
+     * @param patient the patient whose visits changed, or null to discard the open visits of all patients
+     */
+    void invalidateOpenVisits(Patient patient);
+
     /**
      * Gets all currently-active visits at the given location or any of its children
      *
@@ -185,6 +220,40 @@ public interface AdtService extends OpenmrsService {
      */
     void mergePatients(Patient preferred, Patient notPreferred);
 
+    /**
+     * Merges patients like {@link #mergePatients(org.openmrs.Patient, org.openmrs.Patient)}, but in the background, as
+     * the current user.
+     * Overlapping visits are merged a few at a time, each batch in its own transaction, and the rest of the merge
+     * happens in one last transaction.
+     *
+     * @param preferred
+     * @param notPreferred
+     * @return the queued merge, whose status and progress can be followed via {@link #getPatientMergeJob(String)}
+     * @throws IllegalArgumentException if the merge would not be allowed by mergePatients
+     */
+    @Authorized(PrivilegeConstants.MERGE_PATIENTS)
+    PatientMergeJob submitPatientMerge(Patient preferred, Patient notPreferred);
+
+    /**
+     * @param uuid
+     * @return the merge submitted via {@link #submitPatientMerge(org.openmrs.Patient, org.openmrs.Patient)}, or null if
+     * there wasn't one recently
+     */
+    PatientMergeJob getPatientMergeJob(String uuid);
+
+    /**
+     * Does part of the visit merging that {@link #mergePatients(org.openmrs.Patient, org.openmrs.Patient)} does, merging
+     * at most maxMerges visits into ones that they overlap. Calling this until it merges fewer than maxMerges visits
+     * leaves no visits for mergePatients to merge.
+     *
+     * @param preferred
+     * @param notPreferred
+     * @param maxMerges
+     * @return the number of visits merged
+     */
+    @Authorized(PrivilegeConstants.MERGE_PATIENTS)
+    int mergeOverlappingVisits(Patient preferred, Patient notPreferred, int maxMerges);
+
     /**
      * Allows another module to add a patient merge action to the list of actions to be performed
      * when a patient is merged; (ideally, this would just happen via @Autowired, but because @Autowired
@@ -298,4 +367,11 @@ public interface AdtService extends OpenmrsService {
      */
     List<Location> getInpatientLocations();
 
+    /**
+     * Discards the cached snapshot of the location hierarchy (which is used for ancestry checks and to find visit
+     * locations), so that it will be rebuilt on next use. This is called automatically when locations or location
+     * tags are saved, both right away and once the saving transaction ends.
+     */
+    void invalidateLocationHierarchy();
+
 }
@@ -39,9 +39,12 @@ import org.openmrs.api.impl.BaseOpenmrsService;
 import org.openmrs.module.emrapi.EmrApiConstants;
 import org.openmrs.module.emrapi.EmrApiProperties;
 import org.openmrs.module.emrapi.adt.exception.ExistingVisitDuringTimePeriodException;
+import org.openmrs.module.emrapi.db.EmrVisitDAO;
 import org.openmrs.module.emrapi.disposition.Disposition;
 import org.openmrs.module.emrapi.domainwrapper.DomainWrapperFactory;
 import org.openmrs.module.emrapi.merge.PatientMergeAction;
+import org.openmrs.module.emrapi.merge.PatientMergeJob;
+import org.openmrs.module.emrapi.merge.PatientMergeJobQueue;
 import org.openmrs.module.emrapi.patient.PatientDomainWrapper;
 import org.openmrs.module.emrapi.visit.VisitDomainWrapper;
 import org.openmrs.serialization.SerializationException;
@@ -51,19 +54,37 @@ import org.slf4j.LoggerFactory;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
 
+    private static final int MAX_PATIENTS_PER_QUERY = 1000;
+
+    private static final Comparator<Visit> VISIT_START_ORDER = new Comparator<Visit>() {
+        @Override
+        public int compare(Visit left, Visit right) {
+            int result = OpenmrsUtil.compareWithNullAsEarliest(left.getStartDatetime(), right.getStartDatetime());
+            if (result == 0) {
+                result = OpenmrsUtil.compareWithNullAsGreatest(left.getVisitId(), right.getVisitId());
+            }
+            return result;
+        }
+    };
+
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     private EmrApiProperties emrApiProperties;
@@ -82,6 +103,20 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
 
     private List<PatientMergeAction> patientMergeActions;
 
+    private volatile LocationHierarchy locationHierarchy;
+
+    // incremented on every invalidation, so that a snapshot built concurrently with an invalidation is not kept
+    private final AtomicInteger locationHierarchyGeneration = new AtomicInteger();
+
+    private EmrVisitDAO emrVisitDAO;
+
+    private PatientMergeJobQueue patientMergeJobQueue;
+
+    private OpenVisitCache openVisitCache;
+
+    // the test patient attribute type is looked up by a fixed uuid, so its id never changes once found
+    private volatile Integer testPatientAttributeTypeId;
+
     public void setPatientService(PatientService patientService) {
         this.patientService = patientService;
     }
@@ -110,6 +145,18 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
         this.domainWrapperFactory = domainWrapperFactory;
     }
 
+    public void setEmrVisitDAO(EmrVisitDAO emrVisitDAO) {
+        this.emrVisitDAO = emrVisitDAO;
+    }
+
+    public void setOpenVisitCache(OpenVisitCache openVisitCache) {
+        this.openVisitCache = openVisitCache;
+    }
+
+    public void setPatientMergeJobQueue(PatientMergeJobQueue patientMergeJobQueue) {
+        this.patientMergeJobQueue = patientMergeJobQueue;
+    }
+
     public void setPatientMergeActions(List<PatientMergeAction> patientMergeActions) {
         this.patientMergeActions = patientMergeActions;
     }
@@ -258,6 +305,101 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
         return visit;
     }
 
+    @Transactional
+    @Override
+    public List<Visit> ensureVisits(List<EnsureVisitRequest> requests) {
+        List<Visit> visits = new ArrayList<Visit>(requests.size());
+        if (requests.isEmpty()) {
+            return visits;
+        }
+
+        Date now = new Date();
+        Date earliest = null;
+        Date latest = null;
+        Set<Patient> patients = new LinkedHashSet<Patient>();
+        for (EnsureVisitRequest request : requests) {
+            Date visitTime = request.getVisitTime() == null ? now : request.getVisitTime();
+            if (earliest == null || visitTime.before(earliest)) {
+                earliest = visitTime;
+            }
+            if (latest == null || visitTime.after(latest)) {
+                latest = visitTime;
+            }
+            patients.add(request.getPatient());
+        }
+
+        // visits of all the patients that started by the latest visit time and have not ended by the earliest one,
+        // i.e. every visit that could contain any of the visit times, each patient's sorted by start
+        Map<Patient, List<Visit>> candidatesByPatient = new HashMap<Patient, List<Visit>>();
+        List<Patient> patientList = new ArrayList<Patient>(patients);
+        for (int i = 0; i < patientList.size(); i += MAX_PATIENTS_PER_QUERY) {
+            List<Visit> found = visitService.getVisits(null, patientList.subList(i, Math.min(i + MAX_PATIENTS_PER_QUERY,
+                    patientList.size())), null, null, null, latest, earliest, null, null, true, false);
+            if (found != null) {
+                for (Visit visit : found) {
+                    getCandidates(candidatesByPatient, visit.getPatient()).add(visit);
+                }
+            }
+        }
+        for (List<Visit> candidates : candidatesByPatient.values()) {
+            Collections.sort(candidates, VISIT_START_ORDER);
+        }
+
+        for (EnsureVisitRequest request : requests) {
+            Date visitTime = request.getVisitTime() == null ? now : request.getVisitTime();
+            List<Visit> candidates = getCandidates(candidatesByPatient, request.getPatient());
+            Visit visit = findSuitableVisit(candidates, request.getLocation(), visitTime);
+            if (visit == null) {
+                visit = buildVisit(request.getPatient(), request.getLocation(), visitTime);
+                visitService.saveVisit(visit);
+                candidates.add(startIndexAfter(candidates, visitTime), visit);
+            }
+            visits.add(visit);
+        }
+        return visits;
+    }
+
+    private List<Visit> getCandidates(Map<Patient, List<Visit>> candidatesByPatient, Patient patient) {
+        List<Visit> candidates = candidatesByPatient.get(patient);
+        if (candidates == null) {
+            candidates = new ArrayList<Visit>();
+            candidatesByPatient.put(patient, candidates);
+        }
+        return candidates;
+    }
+
+    /**
+     * @param candidates visits sorted by {@link #VISIT_START_ORDER}
+     * @return the latest-starting of the candidates that is suitable, or null if none is
+     */
+    private Visit findSuitableVisit(List<Visit> candidates, Location location, Date visitTime) {
+        // visits starting after visitTime can't contain it
+        for (int i = startIndexAfter(candidates, visitTime) - 1; i >= 0; --i) {
+            if (isSuitableVisit(candidates.get(i), location, visitTime)) {
+                return candidates.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param candidates visits sorted by {@link #VISIT_START_ORDER}
+     * @return the index of the first candidate that starts after date (or the number of candidates if none does)
+     */
+    private int startIndexAfter(List<Visit> candidates, Date date) {
+        int low = 0;
+        int high = candidates.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (OpenmrsUtil.compareWithNullAsEarliest(candidates.get(middle).getStartDatetime(), date) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
     private Date guessVisitStopDatetime(Visit visit) {
         if (visit.getEncounters() == null || visit.getEncounters().size() == 0) {
             return visit.getStartDatetime();
@@ -388,12 +530,24 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
      */
     @Override
     public Location getLocationThatSupportsVisits(Location location) {
+        LocationHierarchy hierarchy = getLocationHierarchy();
+        if (hierarchy != null && hierarchy.contains(location)) {
+            Integer visitLocationId = hierarchy.getVisitLocationId(location);
+            if (visitLocationId == null) {
+                throw new IllegalArgumentException("Location does not support visits");
+            }
+            return visitLocationId.equals(location.getLocationId()) ? location : locationService.getLocation(visitLocationId);
+        }
+        return getLocationThatSupportsVisitsRecursively(location);
+    }
+
+    private Location getLocationThatSupportsVisitsRecursively(Location location) {
         if (location == null) {
             throw new IllegalArgumentException("Location does not support visits");
         } else if (location.hasTag(EmrApiConstants.LOCATION_TAG_SUPPORTS_VISITS)) {
             return location;
         } else {
-            return getLocationThatSupportsVisits(location.getParentLocation());
+            return getLocationThatSupportsVisitsRecursively(location.getParentLocation());
         }
     }
 
@@ -420,6 +574,52 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
         return isSameOrAncestor(visit.getLocation(), location);
     }
 
+    @Override
+    public Visit getSuitableOpenVisit(Patient patient, Location location, Date when) {
+        if (openVisitCache == null || patient == null || patient.getPatientId() == null || location == null) {
+            return null;
+        }
+        LocationHierarchy hierarchy = getLocationHierarchy();
+        if (hierarchy == null || !hierarchy.contains(location) || hierarchy.getVisitLocationId(location) == null) {
+            return null;
+        }
+        Integer visitLocationId = hierarchy.getVisitLocationId(location);
+
+        List<Integer> visitIds = openVisitCache.get(patient.getPatientId(), visitLocationId);
+        if (visitIds == null) {
+            int generation = openVisitCache.getGeneration();
+            Location visitLocation = getLocationThatSupportsVisits(location);
+            visitIds = new ArrayList<Integer>();
+            for (Visit visit : visitService.getVisits(null, Collections.singletonList(patient), null, null, null, null,
+                    null, null, null, false, false)) {
+                // keep the visits that could be suitable for any location under the visit location
+                Location where = visit.getLocation();
+                if (where == null || !hierarchy.contains(where) || hierarchy.isSameOrAncestor(where, visitLocation)
+                        || hierarchy.isSameOrAncestor(visitLocation, where)) {
+                    visitIds.add(visit.getVisitId());
+                }
+            }
+            openVisitCache.put(patient.getPatientId(), visitLocationId, visitIds, generation);
+        }
+
+        for (Integer visitId : visitIds) {
+            // the cached ids may be stale, so check the visit itself
+            Visit visit = visitService.getVisit(visitId);
+            if (visit != null && !visit.isVoided() && patient.equals(visit.getPatient())
+                    && isSuitableVisit(visit, location, when)) {
+                return visit;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void invalidateOpenVisits(Patient patient) {
+        if (openVisitCache != null) {
+            openVisitCache.invalidate(patient == null ? null : patient.getPatientId());
+        }
+    }
+
     /**
      * @param a
      * @param b
@@ -429,9 +629,40 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
         if (a == null || b == null) {
             return a == null && b == null;
         }
+        LocationHierarchy hierarchy = getLocationHierarchy();
+        if (hierarchy != null && hierarchy.contains(a) && hierarchy.contains(b)) {
+            return hierarchy.isSameOrAncestor(a, b);
+        }
         return a.equals(b) || isSameOrAncestor(a, b.getParentLocation());
     }
 
+    /**
+     * Locations that aren't part of the snapshot (e.g. not yet saved) must be handled by walking the location tree.
+     *
+     * @return the current snapshot of the location hierarchy, building it if necessary, or null if it cannot be built
+     */
+    private LocationHierarchy getLocationHierarchy() {
+        LocationHierarchy hierarchy = locationHierarchy;
+        if (hierarchy == null && locationService != null) {
+            int generation = locationHierarchyGeneration.get();
+            hierarchy = LocationHierarchy.build(locationService.getAllLocations(true));
+            synchronized (locationHierarchyGeneration) {
+                if (generation == locationHierarchyGeneration.get()) {
+                    locationHierarchy = hierarchy;
+                }
+            }
+        }
+        return hierarchy;
+    }
+
+    @Override
+    public void invalidateLocationHierarchy() {
+        synchronized (locationHierarchyGeneration) {
+            locationHierarchyGeneration.incrementAndGet();
+            locationHierarchy = null;
+        }
+    }
+
     /**
      * @see org.openmrs.module.emrapi.adt.AdtService#getActiveVisits(org.openmrs.Location)
      */
@@ -440,15 +671,9 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
         if (location == null) {
             throw new IllegalArgumentException("Location is required");
         }
-        Set<Location> locations = getChildLocationsRecursively(location, null);
-        List<Visit> candidates = visitService.getVisits(null, null, locations, null, null, null, null, null, null, false,
-                false);
-
         List<VisitDomainWrapper> active = new ArrayList<VisitDomainWrapper>();
-        for (Visit candidate : candidates) {
-            if (itBelongsToARealPatient(candidate)) {
-                active.add(wrap(candidate));
-            }
+        for (Visit candidate : getOpenVisitsOfRealPatients(getChildLocationsRecursively(location, null))) {
+            active.add(wrap(candidate));
         }
 
         return active;
@@ -460,15 +685,10 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
         if (visitLocation == null) {
             throw new IllegalArgumentException("Location is required");
         }
-        Set<Location> locations = getChildLocationsRecursively(visitLocation, null);
-        List<Visit> candidates = visitService.getVisits(null, null, locations, null, null, null, null, null, null, false,
-                false);
-
         List<VisitDomainWrapper> inpatientVisits = new ArrayList<VisitDomainWrapper>();
-        for (Visit candidate : candidates) {
+        for (Visit candidate : getOpenVisitsOfRealPatients(getChildLocationsRecursively(visitLocation, null))) {
             VisitDomainWrapper visitDomainWrapper = wrap(candidate);
-            if (itBelongsToARealPatient(candidate)
-                    && visitDomainWrapper.isAdmitted()) {
+            if (visitDomainWrapper.isAdmitted()) {
                 if(ward!=null){
                     Encounter latestAdtEncounter = visitDomainWrapper.getLatestAdtEncounter();
                     if(latestAdtEncounter!=null &&
@@ -484,6 +704,38 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
         return inpatientVisits;
     }
 
+    /**
+     * Test patients are excluded in the query itself when possible, otherwise (e.g. without a DAO) we fall back to
+     * checking each candidate visit's patient
+     *
+     * @param locations
+     * @return open visits at any of locations, excluding those of test patients
+     */
+    private List<Visit> getOpenVisitsOfRealPatients(Set<Location> locations) {
+        if (emrVisitDAO != null) {
+            return emrVisitDAO.getOpenVisitsOfRealPatients(locations, getTestPatientAttributeTypeId());
+        }
+
+        List<Visit> candidates = visitService.getVisits(null, null, locations, null, null, null, null, null, null, false,
+                false);
+        List<Visit> visits = new ArrayList<Visit>();
+        for (Visit candidate : candidates) {
+            if (itBelongsToARealPatient(candidate)) {
+                visits.add(candidate);
+            }
+        }
+        return visits;
+    }
+
+    private Integer getTestPatientAttributeTypeId() {
+        Integer id = testPatientAttributeTypeId;
+        if (id == null) {
+            id = emrApiProperties.getTestPatientPersonAttributeType().getPersonAttributeTypeId();
+            testPatientAttributeTypeId = id;
+        }
+        return id;
+    }
+
     private boolean itBelongsToARealPatient(Visit candidate) {
         Patient patient = candidate.getPatient();
         PatientDomainWrapper domainWrapper = new PatientDomainWrapper(patient, emrApiProperties, null, null, null, null);
@@ -522,6 +774,11 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
      * @return
      */
     private Set<Location> getChildLocationsRecursively(Location location, Set<Location> foundLocations) {
+        LocationHierarchy hierarchy = foundLocations == null ? getLocationHierarchy() : null;
+        if (hierarchy != null && hierarchy.contains(location)) {
+            return getSameOrDescendantLocations(hierarchy, location);
+        }
+
         if (foundLocations == null)
             foundLocations = new LinkedHashSet<Location>();
 
@@ -537,71 +794,226 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
         return foundLocations;
     }
 
+    private Set<Location> getSameOrDescendantLocations(LocationHierarchy hierarchy, Location location) {
+        Set<Integer> locationIds = hierarchy.getSameOrDescendantIds(location);
+        if (locationIds.size() == 1) {
+            return Collections.singleton(location);
+        }
+        // one query for just the subtree, rather than one per node of it, or loading every location
+        Map<Integer, Location> locationsById = new HashMap<Integer, Location>();
+        if (emrVisitDAO != null) {
+            for (Location candidate : emrVisitDAO.getLocations(locationIds)) {
+                locationsById.put(candidate.getLocationId(), candidate);
+            }
+        }
+        Set<Location> locations = new LinkedHashSet<Location>();
+        for (Integer locationId : locationIds) {
+            Location found = locationsById.get(locationId);
+            if (found == null) {
+                found = locationService.getLocation(locationId);
+            }
+            if (found != null) {
+                locations.add(found);
+            }
+        }
+        return locations;
+    }
+
     @Transactional
     @Override
     public void mergePatients(Patient preferred, Patient notPreferred) {
-        boolean preferredWasUnknown = domainWrapperFactory.newPatientDomainWrapper(preferred).isUnknownPatient();
-        boolean notPreferredWasUnknown = domainWrapperFactory.newPatientDomainWrapper(notPreferred).isUnknownPatient();
-        if (preferredWasUnknown && !notPreferredWasUnknown) {
+        boolean preferredWasUnknown = isUnknownPatient(preferred);
+        if (preferredWasUnknown && !isUnknownPatient(notPreferred)) {
             throw new IllegalArgumentException("Cannot merge a permanent record into an unknown one");
         }
 
         List<Visit> preferredVisits = visitService.getVisitsByPatient(preferred, true, false);
         List<Visit> notPreferredVisits = visitService.getVisitsByPatient(notPreferred, true, false);
+        mergeOverlappingVisits(preferredVisits, notPreferredVisits, Integer.MAX_VALUE);
 
-        // if the non-preferred patient has any visits that overlap with visits of the preferred patient, we need to merge them together
-        for (Visit losing : notPreferredVisits) {
-            if (!losing.isVoided()) {
-                for (Visit winning : preferredVisits) {
-                    if (!winning.isVoided() && visitsOverlap(losing, winning)) {
-                        mergeVisits(winning, losing);
-                        break;
+        if (patientMergeActions != null) {
+            for (PatientMergeAction patientMergeAction : patientMergeActions) {
+                patientMergeAction.beforeMergingPatients(preferred, notPreferred);
+            }
+        }
+
+        try {
+            patientService.mergePatients(preferred, notPreferred);
+            // if we merged an unknown record into a permanent one, remove the unknown flag; if we merged two unknown records, keep it
+            if (!preferredWasUnknown) {
+                removeAttributeOfUnknownPatient(preferred);
+            }
+        } catch (SerializationException e) {
+            throw new APIException("Unable to merge patients due to serialization error", e);
+        }
+
+        if (patientMergeActions != null) {
+            for (PatientMergeAction patientMergeAction : patientMergeActions) {
+                patientMergeAction.afterMergingPatients(preferred, notPreferred);
+            }
+        }
+
+    }
+
+    @Transactional(readOnly = true)
+    @Override
+    public PatientMergeJob submitPatientMerge(Patient preferred, Patient notPreferred) {
+        if (preferred.equals(notPreferred)) {
+            throw new IllegalArgumentException("Cannot merge a patient into itself");
+        }
+        if (isUnknownPatient(preferred) && !isUnknownPatient(notPreferred)) {
+            throw new IllegalArgumentException("Cannot merge a permanent record into an unknown one");
+        }
+        return patientMergeJobQueue.submit(preferred, notPreferred, Context.getAuthenticatedUser());
+    }
+
+    @Override
+    public PatientMergeJob getPatientMergeJob(String uuid) {
+        return patientMergeJobQueue.getJob(uuid);
+    }
+
+    @Transactional
+    @Override
+    public int mergeOverlappingVisits(Patient preferred, Patient notPreferred, int maxMerges) {
+        return mergeOverlappingVisits(visitService.getVisitsByPatient(preferred, true, false),
+                visitService.getVisitsByPatient(notPreferred, true, false), maxMerges);
+    }
+
+    private boolean isUnknownPatient(Patient patient) {
+        return domainWrapperFactory.newPatientDomainWrapper(patient).isUnknownPatient();
+    }
+
+    /**
+     * Merges every non-preferred visit that overlaps a preferred one into it, and then any preferred visits that have
+     * come to overlap each other as a result. Both steps sweep over the visits in order of start date, only comparing
+     * each visit against the visits that are still open at its start, rather than against every other visit.
+     * <p/>
+     * Stops after maxMerges merges; since merged visits are voided, running this again picks up where it stopped.
+     *
+     * @return the number of visits merged
+     */
+    private int mergeOverlappingVisits(List<Visit> preferredVisits, List<Visit> notPreferredVisits, int maxMerges) {
+        int merged = 0;
+        LocationRelations locationRelations = new LocationRelations();
+
+        // merge non-preferred visits into preferred ones (preferred visits sort first on the same start date)
+        final Set<Visit> preferred = Collections.newSetFromMap(new IdentityHashMap<Visit, Boolean>());
+        preferred.addAll(preferredVisits);
+        List<Visit> allVisits = new ArrayList<Visit>(preferredVisits);
+        allVisits.addAll(notPreferredVisits);
+        Collections.sort(allVisits, new Comparator<Visit>() {
+            @Override
+            public int compare(Visit left, Visit right) {
+                int result = OpenmrsUtil.compareWithNullAsEarliest(left.getStartDatetime(), right.getStartDatetime());
+                if (result == 0) {
+                    result = Boolean.valueOf(!preferred.contains(left)).compareTo(!preferred.contains(right));
+                }
+                return result;
+            }
+        });
+        List<Visit> openPreferred = new LinkedList<Visit>();
+        List<Visit> openNotPreferred = new LinkedList<Visit>();
+        for (Visit visit : allVisits) {
+            if (visit.isVoided()) {
+                continue;
+            }
+            closeVisitsEndingBefore(openPreferred, visit.getStartDatetime());
+            closeVisitsEndingBefore(openNotPreferred, visit.getStartDatetime());
+            if (preferred.contains(visit)) {
+                for (Iterator<Visit> i = openNotPreferred.iterator(); i.hasNext(); ) {
+                    Visit losing = i.next();
+                    if (locationRelations.related(losing.getLocation(), visit.getLocation())) {
+                        if (merged == maxMerges) {
+                            return merged;
+                        }
+                        mergeVisits(visit, losing);
+                        merged++;
+                        i.remove();
+                    }
+                }
+                openPreferred.add(visit);
+            } else {
+                Visit winning = findRelated(openPreferred, visit, locationRelations);
+                if (winning != null) {
+                    if (merged == maxMerges) {
+                        return merged;
                     }
+                    mergeVisits(winning, visit);
+                    merged++;
+                } else {
+                    openNotPreferred.add(visit);
                 }
             }
         }
 
         // merging in visits from the non-preferred patient (and extending visit durations) may have caused preferred-patient visits to overlap
-        Collections.sort(preferredVisits, new Comparator<Visit>() {
+        List<Visit> sortedPreferredVisits = new ArrayList<Visit>(preferredVisits);
+        Collections.sort(sortedPreferredVisits, new Comparator<Visit>() {
             @Override
             public int compare(Visit left, Visit right) {
                 return OpenmrsUtil.compareWithNullAsEarliest(left.getStartDatetime(), right.getStartDatetime());
             }
         });
-        for (int i = 0; i < preferredVisits.size(); ++i) {
-            Visit visit = preferredVisits.get(i);
-            if (!visit.isVoided()) {
-                for (int j = i + 1; j < preferredVisits.size(); ++j) {
-                    Visit candidate = preferredVisits.get(j);
-                    if (!candidate.isVoided() && visitsOverlap(visit, candidate)) {
-                        mergeVisits(visit, candidate);
-                    }
+        openPreferred.clear();
+        for (Visit visit : sortedPreferredVisits) {
+            if (visit.isVoided()) {
+                continue;
+            }
+            closeVisitsEndingBefore(openPreferred, visit.getStartDatetime());
+            Visit earlier = findRelated(openPreferred, visit, locationRelations);
+            if (earlier != null) {
+                if (merged == maxMerges) {
+                    return merged;
                 }
+                mergeVisits(earlier, visit);
+                merged++;
+            } else {
+                openPreferred.add(visit);
             }
         }
+        return merged;
+    }
 
-        if (patientMergeActions != null) {
-            for (PatientMergeAction patientMergeAction : patientMergeActions) {
-                patientMergeAction.beforeMergingPatients(preferred, notPreferred);
+    private void closeVisitsEndingBefore(List<Visit> openVisits, Date date) {
+        for (Iterator<Visit> i = openVisits.iterator(); i.hasNext(); ) {
+            if (OpenmrsUtil.compareWithNullAsLatest(i.next().getStopDatetime(), date) < 0) {
+                i.remove();
             }
         }
+    }
 
-        try {
-            patientService.mergePatients(preferred, notPreferred);
-            // if we merged an unknown record into a permanent one, remove the unknown flag; if we merged two unknown records, keep it
-            if (!preferredWasUnknown) {
-                removeAttributeOfUnknownPatient(preferred);
+    private Visit findRelated(List<Visit> openVisits, Visit visit, LocationRelations locationRelations) {
+        for (Visit candidate : openVisits) {
+            if (locationRelations.related(candidate.getLocation(), visit.getLocation())) {
+                return candidate;
             }
-        } catch (SerializationException e) {
-            throw new APIException("Unable to merge patients due to serialization error", e);
         }
+        return null;
+    }
 
-        if (patientMergeActions != null) {
-            for (PatientMergeAction patientMergeAction : patientMergeActions) {
-                patientMergeAction.afterMergingPatients(preferred, notPreferred);
+    /**
+     * Remembers whether pairs of locations are the same or one is an ancestor of the other (as in
+     * {@link #visitsOverlap(Visit, Visit)}), so that the hierarchy is consulted once per pair
+     */
+    private class LocationRelations {
+
+        private final Map<List<Integer>, Boolean> related = new HashMap<List<Integer>, Boolean>();
+
+        boolean related(Location a, Location b) {
+            if (a == null || b == null) {
+                return a == null && b == null;
+            }
+            if (a.getLocationId() == null || b.getLocationId() == null) {
+                return isSameOrAncestor(a, b) || isSameOrAncestor(b, a);
             }
+            List<Integer> key = Arrays.asList(a.getLocationId(), b.getLocationId());
+            Boolean result = related.get(key);
+            if (result == null) {
+                result = isSameOrAncestor(a, b) || isSameOrAncestor(b, a);
+                related.put(key, result);
+            }
+            return result;
         }
-
     }
 
     private void removeAttributeOfUnknownPatient(Patient preferred) {
@@ -664,7 +1076,9 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
         }
 
         // move encounters from losing into winning
-        if (nonPreferred.getEncounters() != null) {
+        if (emrVisitDAO != null && preferred.getVisitId() != null && nonPreferred.getVisitId() != null) {
+            emrVisitDAO.moveEncounters(nonPreferred, preferred, Context.getAuthenticatedUser());
+        } else if (nonPreferred.getEncounters() != null) {
             for (Encounter e : nonPreferred.getEncounters()) {
                 e.setPatient(preferred.getPatient());
                 preferred.addEncounter(e);
@@ -783,6 +1197,14 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
 
         List<VisitDomainWrapper> visitDomainWrappers = new ArrayList<VisitDomainWrapper>();
 
+        if (emrVisitDAO != null) {
+            for (Visit visit : emrVisitDAO.getVisitsDuring(patient, emrApiProperties.getAtFacilityVisitType(),
+                    Collections.singletonList(getLocationThatSupportsVisits(location)), startDatetime, endDatetime)) {
+                visitDomainWrappers.add(wrap(visit));
+            }
+            return visitDomainWrappers;
+        }
+
         for (Visit visit : visitService.getVisits(Collections.singletonList(emrApiProperties.getAtFacilityVisitType()),
                 Collections.singletonList(patient), Collections.singletonList(getLocationThatSupportsVisits(location)), null,
                 null, endDatetime, startDatetime, null, null, true, false)) {
@@ -795,6 +1217,10 @@ public class AdtServiceImpl extends BaseOpenmrsService implements AdtService {
     @Override
     @Transactional(readOnly = true)
     public boolean hasVisitDuring(Patient patient, Location location, Date startDatetime, Date stopDatetime) {
+        if (emrVisitDAO != null) {
+            return emrVisitDAO.hasVisitDuring(patient, emrApiProperties.getAtFacilityVisitType(),
+                    Collections.singletonList(getLocationThatSupportsVisits(location)), startDatetime, stopDatetime);
+        }
         List<VisitDomainWrapper> visits = getVisits(patient, location, startDatetime, stopDatetime);
         return visits == null || visits.size() == 0 ? false : true;
     }
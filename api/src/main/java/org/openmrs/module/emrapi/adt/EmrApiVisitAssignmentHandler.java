@@ -77,6 +77,13 @@ public class EmrApiVisitAssignmentHandler extends BaseEncounterVisitHandler impl
             when = new Date();
         }
 
+        // usually the encounter belongs to a visit that is still open
+        Visit openVisit = adtService.getSuitableOpenVisit(encounter.getPatient(), encounter.getLocation(), when);
+        if (openVisit != null) {
+            openVisit.addEncounter(encounter);
+            return;
+        }
+
         List<Patient> patient = Collections.singletonList(encounter.getPatient());
 
         // visits that have not ended by the encounter date.
@@ -0,0 +1,71 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.emrapi.adt;
+
+import org.openmrs.Location;
+import org.openmrs.Patient;
+
+import java.util.Date;
+
+/**
+ * A patient, time and location that {@link AdtService#ensureVisits(java.util.List)} should find (or create) a visit for
+ */
+public class EnsureVisitRequest {
+
+    private Patient patient;
+
+    private Date visitTime;
+
+    private Location location;
+
+    public EnsureVisitRequest() {
+    }
+
+    /**
+     * @param patient
+     * @param visitTime null means now
+     * @param location
+     */
+    public EnsureVisitRequest(Patient patient, Date visitTime, Location location) {
+        this.patient = patient;
+        this.visitTime = visitTime;
+        this.location = location;
+    }
+
+    public Patient getPatient() {
+        return patient;
+    }
+
+    public void setPatient(Patient patient) {
+        this.patient = patient;
+    }
+
+    public Date getVisitTime() {
+        return visitTime;
+    }
+
+    public void setVisitTime(Date visitTime) {
+        this.visitTime = visitTime;
+    }
+
+    public Location getLocation() {
+        return location;
+    }
+
+    public void setLocation(Location location) {
+        this.location = location;
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.emrapi.adt;
+
+import org.openmrs.Location;
+import org.openmrs.module.emrapi.EmrApiConstants;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of the location tree, so that ancestry checks don't need to walk (lazily-loaded) parent and child
+ * locations. Each location is identified by a dense index, with precomputed ancestor and descendant bitsets, and the
+ * nearest location (itself or an ancestor) that supports visits.
+ * <p/>
+ * Only location ids are kept, so a snapshot can safely outlive the Hibernate session it was built in.
+ */
+public class LocationHierarchy {
+
+    private static final int NONE = -1;
+
+    private final Map<Integer, Integer> indexesByLocationId;
+
+    private final int[] locationIds;
+
+    // for each index, the indexes of the location itself and all of its ancestors
+    private final BitSet[] sameOrAncestors;
+
+    // for each index, the indexes of the location itself and all of its descendants
+    private final BitSet[] sameOrDescendants;
+
+    // for each index, the index of the nearest same-or-ancestor location that supports visits, or NONE
+    private final int[] visitLocations;
+
+    /**
+     * Builds a snapshot of the given locations, which should include all ancestors of each of them (i.e. pass all
+     * locations, including retired ones)
+     *
+     * @param locations
+     * @return the snapshot
+     */
+    public static LocationHierarchy build(Collection<Location> locations) {
+        return new LocationHierarchy(locations);
+    }
+
+    private LocationHierarchy(Collection<Location> locations) {
+        int size = locations.size();
+        indexesByLocationId = new HashMap<Integer, Integer>(size * 2);
+        locationIds = new int[size];
+        sameOrAncestors = new BitSet[size];
+        sameOrDescendants = new BitSet[size];
+        visitLocations = new int[size];
+
+        int[] parents = new int[size];
+        boolean[] supportsVisits = new boolean[size];
+
+        int index = 0;
+        for (Location location : locations) {
+            indexesByLocationId.put(location.getLocationId(), index);
+            locationIds[index] = location.getLocationId();
+            supportsVisits[index] = location.hasTag(EmrApiConstants.LOCATION_TAG_SUPPORTS_VISITS);
+            ++index;
+        }
+
+        index = 0;
+        for (Location location : locations) {
+            Location parent = location.getParentLocation();
+            Integer parentIndex = parent == null ? null : indexesByLocationId.get(parent.getLocationId());
+            parents[index] = parentIndex == null ? NONE : parentIndex;
+            ++index;
+        }
+
+        for (int i = 0; i < size; ++i) {
+            sameOrDescendants[i] = new BitSet(size);
+        }
+        for (int i = 0; i < size; ++i) {
+            BitSet ancestors = new BitSet(size);
+            int visitLocation = NONE;
+            // walk up at most size steps, and stop early on a (corrupt) cycle
+            for (int current = i; current != NONE && !ancestors.get(current); current = parents[current]) {
+                ancestors.set(current);
+                sameOrDescendants[current].set(i);
+                if (visitLocation == NONE && supportsVisits[current]) {
+                    visitLocation = current;
+                }
+            }
+            sameOrAncestors[i] = ancestors;
+            visitLocations[i] = visitLocation;
+        }
+    }
+
+    /**
+     * @param location
+     * @return true if location is part of this snapshot (i.e. it was saved when this snapshot was built)
+     */
+    public boolean contains(Location location) {
+        return location != null && location.getLocationId() != null && indexesByLocationId.containsKey(location.getLocationId());
+    }
+
+    /**
+     * Both locations must be part of this snapshot
+     *
+     * @param a
+     * @param b
+     * @return true if a is the same location as b, or an ancestor of it
+     */
+    public boolean isSameOrAncestor(Location a, Location b) {
+        return sameOrAncestors[indexOf(b)].get(indexOf(a));
+    }
+
+    /**
+     * @param location a location that is part of this snapshot
+     * @return the id of location, or of its nearest ancestor, tagged as supporting visits; or null if there is none
+     */
+    public Integer getVisitLocationId(Location location) {
+        int visitLocation = visitLocations[indexOf(location)];
+        return visitLocation == NONE ? null : locationIds[visitLocation];
+    }
+
+    /**
+     * @param location a location that is part of this snapshot
+     * @return the ids of location and all its descendants
+     */
+    public Set<Integer> getSameOrDescendantIds(Location location) {
+        BitSet descendants = sameOrDescendants[indexOf(location)];
+        Set<Integer> ids = new LinkedHashSet<Integer>();
+        for (int i = descendants.nextSetBit(0); i >= 0; i = descendants.nextSetBit(i + 1)) {
+            ids.add(locationIds[i]);
+        }
+        return ids;
+    }
+
+    private int indexOf(Location location) {
+        Integer index = indexesByLocationId.get(location.getLocationId());
+        if (index == null) {
+            throw new IllegalArgumentException("Location " + location.getLocationId() + " is not part of this location hierarchy");
+        }
+        return index;
+    }
+
+}
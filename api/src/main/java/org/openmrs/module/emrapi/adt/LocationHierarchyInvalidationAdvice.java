@@ -0,0 +1,54 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.emrapi.adt;
+
+import org.openmrs.api.context.Context;
+import org.springframework.aop.AfterReturningAdvice;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.lang.reflect.Method;
+
+/**
+ * Advises LocationService, discarding the ADT service's snapshot of the location hierarchy as soon as a location or
+ * location tag is changed, so that the rest of the transaction doesn't use the old tree (the location events that
+ * also invalidate it only arrive after commit). It is discarded again once the transaction ends, since a snapshot
+ * rebuilt in the meantime may hold changes that were then rolled back.
+ */
+public class LocationHierarchyInvalidationAdvice implements AfterReturningAdvice {
+
+    @Override
+    public void afterReturning(Object returnValue, Method method, Object[] args, Object target) throws Throwable {
+        if (!isChange(method.getName())) {
+            return;
+        }
+        final AdtService adtService = Context.getService(AdtService.class);
+        adtService.invalidateLocationHierarchy();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    adtService.invalidateLocationHierarchy();
+                }
+            });
+        }
+    }
+
+    private boolean isChange(String methodName) {
+        return methodName.startsWith("save") || methodName.startsWith("retire") || methodName.startsWith("unretire")
+                || methodName.startsWith("purge");
+    }
+
+}
@@ -0,0 +1,39 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.emrapi.adt;
+
+import javax.jms.Message;
+
+import org.openmrs.event.EventListener;
+
+/**
+ * Listens for location and location tag events, and discards the ADT service's snapshot of the location hierarchy
+ */
+public class LocationHierarchyInvalidationListener implements EventListener {
+	
+	private AdtService adtService;
+	
+	public LocationHierarchyInvalidationListener(AdtService adtService) {
+		this.adtService = adtService;
+	}
+	
+	/**
+	 * @see EventListener#onMessage(javax.jms.Message)
+	 * @param message
+	 */
+	@Override
+	public void onMessage(Message message) {
+		adtService.invalidateLocationHierarchy();
+	}
+}
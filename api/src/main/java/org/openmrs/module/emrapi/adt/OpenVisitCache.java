@@ -0,0 +1,131 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.emrapi.adt;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Short-lived cache of the ids of each patient's unended visits that could hold encounters at locations under a given
+ * visit location, so that assigning encounters to visits doesn't query all of the patient's visits every time.
+ * <p/>
+ * Only ids are kept, and callers must check that the visits they load are still suitable, since entries may be up to
+ * timeToLiveMillis stale. A patient's entries are discarded whenever one of their visits is saved, closed or voided.
+ */
+public class OpenVisitCache {
+
+    private long timeToLiveMillis = 30000;
+
+    private int maxPatients = 10000;
+
+    // incremented on every invalidation, so that visits loaded concurrently with an invalidation are not kept
+    private final AtomicInteger generation = new AtomicInteger();
+
+    private final Map<Integer, Map<Integer, Entry>> entriesByPatient = Collections.synchronizedMap(
+            new LinkedHashMap<Integer, Map<Integer, Entry>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Map<Integer, Entry>> eldest) {
+                    return size() > maxPatients;
+                }
+            });
+
+    public void setTimeToLiveMillis(long timeToLiveMillis) {
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    public void setMaxPatients(int maxPatients) {
+        this.maxPatients = maxPatients;
+    }
+
+    /**
+     * @return the current generation, to pass to {@link #put(Integer, Integer, java.util.List, int)} once the visits
+     * have been loaded
+     */
+    public int getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @param patientId
+     * @param visitLocationId
+     * @return the cached visit ids, or null if there are none or they have expired
+     */
+    public List<Integer> get(Integer patientId, Integer visitLocationId) {
+        synchronized (entriesByPatient) {
+            Map<Integer, Entry> entries = entriesByPatient.get(patientId);
+            Entry entry = entries == null ? null : entries.get(visitLocationId);
+            if (entry == null) {
+                return null;
+            }
+            if (System.currentTimeMillis() - entry.loadedAt > timeToLiveMillis) {
+                entries.remove(visitLocationId);
+                return null;
+            }
+            return entry.visitIds;
+        }
+    }
+
+    /**
+     * Caches visit ids, unless the cache was invalidated since generation was read
+     *
+     * @param patientId
+     * @param visitLocationId
+     * @param visitIds
+     * @param generation the value of {@link #getGeneration()} from before the visits were loaded
+     */
+    public void put(Integer patientId, Integer visitLocationId, List<Integer> visitIds, int generation) {
+        synchronized (entriesByPatient) {
+            if (generation != this.generation.get()) {
+                return;
+            }
+            Map<Integer, Entry> entries = entriesByPatient.get(patientId);
+            if (entries == null) {
+                entries = new HashMap<Integer, Entry>();
+                entriesByPatient.put(patientId, entries);
+            }
+            entries.put(visitLocationId, new Entry(Collections.unmodifiableList(visitIds)));
+        }
+    }
+
+    /**
+     * @param patientId the patient whose visits changed, or null to discard everything
+     */
+    public void invalidate(Integer patientId) {
+        synchronized (entriesByPatient) {
+            generation.incrementAndGet();
+            if (patientId == null) {
+                entriesByPatient.clear();
+            } else {
+                entriesByPatient.remove(patientId);
+            }
+        }
+    }
+
+    private static class Entry {
+
+        private final List<Integer> visitIds;
+
+        private final long loadedAt = System.currentTimeMillis();
+
+        Entry(List<Integer> visitIds) {
+            this.visitIds = visitIds;
+        }
+    }
+
+}
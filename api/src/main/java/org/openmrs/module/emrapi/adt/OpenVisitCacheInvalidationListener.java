@@ -0,0 +1,84 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.emrapi.adt;
+
+import javax.jms.MapMessage;
+import javax.jms.Message;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Visit;
+import org.openmrs.api.context.Context;
+import org.openmrs.event.Event;
+import org.openmrs.event.EventListener;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.emrapi.utils.SerialDaemonExecutor;
+
+/**
+ * Listens for visit events (saving, closing and voiding visits), and discards the ADT service's cached open visits of
+ * the visit's patient
+ */
+public class OpenVisitCacheInvalidationListener implements EventListener {
+	
+	protected final Log log = LogFactory.getLog(getClass());
+	
+	// one worker, rather than a thread per event
+	private SerialDaemonExecutor executor;
+	
+	public OpenVisitCacheInvalidationListener(DaemonToken token) {
+		executor = new SerialDaemonExecutor(token);
+	}
+	
+	/**
+	 * @see EventListener#onMessage(javax.jms.Message)
+	 * @param message
+	 */
+	@Override
+	public void onMessage(final Message message) {
+		executor.execute(new Runnable() {
+			
+			@Override
+			public void run() {
+				try {
+					processMessage(message);
+				}
+				catch (Exception e) {
+					log.error("Failed to invalidate cached open visits", e);
+					Context.getService(AdtService.class).invalidateOpenVisits(null);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Discards the events that haven't been applied yet
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+	
+	public void processMessage(Message message) throws Exception {
+		MapMessage mapMessage = (MapMessage) message;
+		AdtService adtService = Context.getService(AdtService.class);
+		
+		if (Event.Action.PURGED.name().equals(mapMessage.getString("action"))) {
+			// we can no longer tell whose visit it was
+			adtService.invalidateOpenVisits(null);
+			return;
+		}
+		
+		Visit visit = Context.getVisitService().getVisitByUuid(mapMessage.getString("uuid"));
+		adtService.invalidateOpenVisits(visit == null ? null : visit.getPatient());
+	}
+}
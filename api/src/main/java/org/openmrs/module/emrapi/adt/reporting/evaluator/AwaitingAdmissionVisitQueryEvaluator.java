@@ -6,8 +6,6 @@ import org.openmrs.annotation.Handler;
 import org.openmrs.module.emrapi.EmrApiProperties;
 import org.openmrs.module.emrapi.adt.AdtService;
 import org.openmrs.module.emrapi.adt.reporting.query.AwaitingAdmissionVisitQuery;
-import org.openmrs.module.emrapi.adt.util.AdtUtil;
-import org.openmrs.module.emrapi.concept.EmrConceptService;
 import org.openmrs.module.emrapi.disposition.DispositionService;
 import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.evaluation.EvaluationException;
@@ -29,9 +27,6 @@ public class AwaitingAdmissionVisitQueryEvaluator implements VisitQueryEvaluator
     @Autowired
     DispositionService dispositionService;
 
-    @Autowired
-    EmrConceptService emrConceptService;
-
     @Autowired
     EmrApiProperties emrApiProperties;
 
@@ -57,7 +52,7 @@ public class AwaitingAdmissionVisitQueryEvaluator implements VisitQueryEvaluator
                 .innerJoin("visit.encounters", "dispoEncounter")
                 .innerJoin("dispoEncounter.obs", "dispo")
                 .whereEqual("dispo.concept", dispositionService.getDispositionDescriptor().getDispositionConcept())
-                .whereIn("dispo.valueCoded", AdtUtil.getAdmissionDispositionsConcepts(emrConceptService, dispositionService))
+                .whereIn("dispo.valueCoded.conceptId", dispositionService.getAdmissionDispositionConceptIds())
                 .whereEqual("dispo.voided", false)
                 .whereEqual("dispoEncounter.voided", false)
                 .whereEqual("visit.voided", false)
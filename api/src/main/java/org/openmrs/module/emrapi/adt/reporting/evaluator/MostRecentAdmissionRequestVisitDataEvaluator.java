@@ -1,17 +1,17 @@
 package org.openmrs.module.emrapi.adt.reporting.evaluator;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.openmrs.Encounter;
 import org.openmrs.EncounterProvider;
 import org.openmrs.Location;
 import org.openmrs.Obs;
 import org.openmrs.Provider;
 import org.openmrs.annotation.Handler;
-import org.openmrs.api.LocationService;
-import org.openmrs.api.context.Context;
+import org.openmrs.module.emrapi.EmrApiProperties;
 import org.openmrs.module.emrapi.adt.reporting.definition.MostRecentAdmissionRequestVisitDataDefinition;
-import org.openmrs.module.emrapi.adt.util.AdtUtil;
-import org.openmrs.module.emrapi.concept.EmrConceptService;
-import org.openmrs.module.emrapi.diagnosis.DiagnosisService;
+import org.openmrs.module.emrapi.diagnosis.Diagnosis;
+import org.openmrs.module.emrapi.diagnosis.DiagnosisMetadata;
 import org.openmrs.module.emrapi.disposition.DispositionDescriptor;
 import org.openmrs.module.emrapi.disposition.DispositionService;
 import org.openmrs.module.reporting.data.visit.EvaluatedVisitData;
@@ -23,10 +23,13 @@ import org.openmrs.module.reporting.evaluation.querybuilder.HqlQueryBuilder;
 import org.openmrs.module.reporting.evaluation.service.EvaluationService;
 import org.springframework.beans.factory.annotation.Autowired;
 
-import java.util.Date;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Evaluates a MostRecentAdmissionRequestVisitDataDefinition to produce a VisitData
@@ -34,17 +37,13 @@ import java.util.Map;
 @Handler(supports=MostRecentAdmissionRequestVisitDataDefinition.class, order=50)
 public class MostRecentAdmissionRequestVisitDataEvaluator implements VisitDataEvaluator {
 
-    @Autowired
-    private LocationService locationService;
+    private final Log log = LogFactory.getLog(getClass());
 
     @Autowired
     private DispositionService dispositionService;
 
     @Autowired
-    private DiagnosisService diagnosisService;
-
-    @Autowired
-    private EmrConceptService emrConceptService;
+    private EmrApiProperties emrApiProperties;
 
     @Autowired
     private EvaluationService evaluationService;
@@ -54,80 +53,233 @@ public class MostRecentAdmissionRequestVisitDataEvaluator implements VisitDataEv
 
         EvaluatedVisitData data = new EvaluatedVisitData(visitDataDefinition, evaluationContext);
 
+        DispositionDescriptor dispositionDescriptor = dispositionService.getDispositionDescriptor();
+        Set<Integer> admissionDispositionConceptIds = dispositionService.getAdmissionDispositionConceptIds();
+        if (admissionDispositionConceptIds.isEmpty()) {
+            return data;
+        }
+
         HqlQueryBuilder query = new HqlQueryBuilder();
 
-        query.select("encounter.visit.id, encounter").from(Encounter.class, "encounter")
+        // if there are multiple admission requests on the visit, we only want the most recent one; the location is
+        // left joined, so that encounters without one aren't dropped, and is loaded along with the admission locations
+        query.select("encounter.visit.id, encounter.encounterId, encounter.encounterDatetime, fromLocation.locationId")
+                .from(Encounter.class, "encounter")
                 .innerJoin("encounter.obs", "dispo")
-                .whereEqual("dispo.concept", dispositionService.getDispositionDescriptor().getDispositionConcept())
-                .whereIn("dispo.valueCoded", AdtUtil.getAdmissionDispositionsConcepts(emrConceptService, dispositionService))
+                .leftOuterJoin("encounter.location", "fromLocation")
+                .whereEqual("dispo.concept", dispositionDescriptor.getDispositionConcept())
+                .whereIn("dispo.valueCoded.conceptId", admissionDispositionConceptIds)
                 .whereEqual("dispo.voided", false)
                 .whereEqual("encounter.voided", false)
-                .whereVisitIn("encounter.visit.id", evaluationContext);
-
+                .where("encounter.encounterDatetime = (select max(otherEncounter.encounterDatetime) "
+                        + "from Obs as otherDispo inner join otherDispo.encounter as otherEncounter "
+                        + "where otherEncounter.visit = encounter.visit "
+                        + "and otherEncounter.voided = false "
+                        + "and otherDispo.voided = false "
+                        + "and otherDispo.concept = :dispositionConcept "
+                        + "and otherDispo.valueCoded.conceptId in (:admissionDispositionConceptIds))")
+                .whereVisitIn("encounter.visit.id", evaluationContext)
+                .withValue("dispositionConcept", dispositionDescriptor.getDispositionConcept())
+                .withValue("admissionDispositionConceptIds", admissionDispositionConceptIds);
 
         List<Object[]> result = evaluationService.evaluateToList(query, evaluationContext);
 
+        // should two admission requests on a visit share the same datetime, the last one wins
+        Map<Integer, Integer> encounterIdsByVisitId = new HashMap<Integer, Integer>();
+        Map<Integer, Integer> fromLocationIdsByVisitId = new HashMap<Integer, Integer>();
+
         for (Object[] row : result) {
 
             Integer visitId = (Integer) row[0];
-            Encounter encounter = (Encounter) row[1];
-
-            // if there are multiple admission requests on the visit, we only want the most recent one
-            if (data.getData().containsKey(visitId)) {
-                Map<String,Object> resultRow = (Map<String,Object>) data.getData().get(visitId);
-
-                if (encounter.getEncounterDatetime().before((Date) resultRow.get("datetime"))) {
-                    continue;
-                }
-            }
+            Integer encounterId = (Integer) row[1];
 
             Map<String,Object> resultRow = new HashMap<String, Object>();
 
-            resultRow.put("fromLocation", encounter.getLocation());
-            resultRow.put("toLocation", getToLocation(encounter, dispositionService, locationService));
-            resultRow.put("datetime", encounter.getEncounterDatetime());
-            resultRow.put("provider", getProvider(encounter));
-            resultRow.put("diagnoses", diagnosisService.getPrimaryDiagnoses(encounter));
+            resultRow.put("fromLocation", null);
+            resultRow.put("toLocation", null);
+            resultRow.put("datetime", row[2]);
+            resultRow.put("provider", null);
+            resultRow.put("diagnoses", new ArrayList<Diagnosis>());
 
             data.getData().put(visitId, resultRow);
+            encounterIdsByVisitId.put(visitId, encounterId);
+            fromLocationIdsByVisitId.put(visitId, (Integer) row[3]);
+        }
+
+        Map<Integer, Integer> visitIdsByEncounterId = new HashMap<Integer, Integer>();
+        for (Map.Entry<Integer, Integer> entry : encounterIdsByVisitId.entrySet()) {
+            visitIdsByEncounterId.put(entry.getValue(), entry.getKey());
+        }
+
+        if (visitIdsByEncounterId.isEmpty()) {
+            return data;
         }
 
+        Map<Integer, Integer> toLocationIds = getToLocationIds(visitIdsByEncounterId.keySet(), dispositionDescriptor, evaluationContext);
+
+        // both the from and to locations are loaded in one query
+        Set<Integer> locationIds = new HashSet<Integer>(toLocationIds.values());
+        locationIds.addAll(fromLocationIdsByVisitId.values());
+        locationIds.remove(null);
+        Map<Integer, Location> locations = getLocations(locationIds, evaluationContext);
+
+        for (Map.Entry<Integer, Integer> entry : fromLocationIdsByVisitId.entrySet()) {
+            if (entry.getValue() != null) {
+                ((Map<String, Object>) data.getData().get(entry.getKey())).put("fromLocation", locations.get(entry.getValue()));
+            }
+        }
+
+        for (Map.Entry<Integer, Integer> entry : toLocationIds.entrySet()) {
+            getResultRow(data, visitIdsByEncounterId, entry.getKey()).put("toLocation", locations.get(entry.getValue()));
+        }
+
+        for (Map.Entry<Integer, Provider> entry : getProviders(visitIdsByEncounterId.keySet(), evaluationContext).entrySet()) {
+            getResultRow(data, visitIdsByEncounterId, entry.getKey()).put("provider", entry.getValue());
+        }
+
+        for (Map.Entry<Integer, List<Diagnosis>> entry : getPrimaryDiagnoses(visitIdsByEncounterId.keySet(), evaluationContext).entrySet()) {
+            getResultRow(data, visitIdsByEncounterId, entry.getKey()).put("diagnoses", entry.getValue());
+        }
 
         return data;
 
     }
 
+    private Map<String, Object> getResultRow(EvaluatedVisitData data, Map<Integer, Integer> visitIdsByEncounterId, Integer encounterId) {
+        return (Map<String, Object>) data.getData().get(visitIdsByEncounterId.get(encounterId));
+    }
 
-    private Provider getProvider(Encounter encounter) {
+    private Map<Integer, Provider> getProviders(Set<Integer> encounterIds, EvaluationContext evaluationContext) throws EvaluationException {
 
         // TODO: right now this just returns the first (non-voided) provider on an encounter
         // TODO: need to fix
 
-        for (EncounterProvider encounterProvider : encounter.getEncounterProviders()) {
-            if (!encounterProvider.isVoided()) {
-                return encounterProvider.getProvider();
+        HqlQueryBuilder query = new HqlQueryBuilder();
+        query.select("encounterProvider.encounter.encounterId, encounterProvider.provider")
+                .from(EncounterProvider.class, "encounterProvider")
+                .whereIn("encounterProvider.encounter.encounterId", encounterIds)
+                .whereEqual("encounterProvider.voided", false)
+                .orderAsc("encounterProvider.encounterProviderId");
+
+        Map<Integer, Provider> providers = new HashMap<Integer, Provider>();
+        for (Object[] row : evaluationService.evaluateToList(query, evaluationContext)) {
+            Integer encounterId = (Integer) row[0];
+            if (!providers.containsKey(encounterId)) {
+                providers.put(encounterId, (Provider) row[1]);
             }
         }
-
-        return null;
-
+        return providers;
     }
 
-    private Location getToLocation(Encounter encounter, DispositionService dispositionService, LocationService locationService) {
+    private Map<Integer, Integer> getToLocationIds(Set<Integer> encounterIds, DispositionDescriptor dispositionDescriptor,
+                                                   EvaluationContext evaluationContext) throws EvaluationException {
 
         // TODO: the assumption here is that there is only one disposition request per encounter
         // TODO and that the disposition is on the top level
 
-        DispositionDescriptor dispositionDescriptor = dispositionService.getDispositionDescriptor();
+        Map<Integer, Integer> locationIdsByEncounterId = new HashMap<Integer, Integer>();
+        if (dispositionDescriptor.getAdmissionLocationConcept() == null) {
+            return locationIdsByEncounterId;
+        }
 
-        for (Obs obs : encounter.getObsAtTopLevel(false)) {
-            if (dispositionDescriptor.isDisposition(obs)) {
-                return dispositionDescriptor.getAdmissionLocation(obs, locationService);
-            }
+        HqlQueryBuilder query = new HqlQueryBuilder();
+        query.select("admissionLocation.encounter.encounterId, admissionLocation.valueText")
+                .from(Obs.class, "admissionLocation")
+                .innerJoin("admissionLocation.obsGroup", "dispoGroup")
+                .whereIn("admissionLocation.encounter.encounterId", encounterIds)
+                .whereEqual("admissionLocation.concept", dispositionDescriptor.getAdmissionLocationConcept())
+                .whereEqual("admissionLocation.voided", false)
+                .whereEqual("dispoGroup.concept", dispositionDescriptor.getDispositionSetConcept())
+                .whereNull("dispoGroup.obsGroup");
+
+        for (Object[] row : evaluationService.evaluateToList(query, evaluationContext)) {
+            locationIdsByEncounterId.put((Integer) row[0], Integer.valueOf((String) row[1]));
+        }
+        return locationIdsByEncounterId;
+    }
 
+    private Map<Integer, Location> getLocations(Set<Integer> locationIds, EvaluationContext evaluationContext) throws EvaluationException {
+
+        Map<Integer, Location> locations = new HashMap<Integer, Location>();
+        if (locationIds.isEmpty()) {
+            return locations;
         }
 
-        return null;
+        HqlQueryBuilder locationQuery = new HqlQueryBuilder();
+        locationQuery.select("location.locationId, location")
+                .from(Location.class, "location")
+                .whereIn("location.locationId", locationIds);
+
+        for (Object[] row : evaluationService.evaluateToList(locationQuery, evaluationContext)) {
+            locations.put((Integer) row[0], (Location) row[1]);
+        }
+        return locations;
+    }
+
+    private Map<Integer, List<Diagnosis>> getPrimaryDiagnoses(Set<Integer> encounterIds, EvaluationContext evaluationContext) throws EvaluationException {
+
+        DiagnosisMetadata diagnosisMetadata = emrApiProperties.getDiagnosisMetadata();
+
+        // top-level diagnosis obs groups with a primary diagnosis order
+        HqlQueryBuilder groupQuery = new HqlQueryBuilder();
+        groupQuery.select("diagnosisGroup.encounter.encounterId, diagnosisGroup")
+                .from(Obs.class, "diagnosisGroup")
+                .innerJoin("diagnosisGroup.groupMembers", "diagnosisOrder")
+                .whereIn("diagnosisGroup.encounter.encounterId", encounterIds)
+                .whereEqual("diagnosisGroup.concept", diagnosisMetadata.getDiagnosisSetConcept())
+                .whereEqual("diagnosisGroup.voided", false)
+                .whereNull("diagnosisGroup.obsGroup")
+                .whereEqual("diagnosisOrder.concept", diagnosisMetadata.getDiagnosisOrderConcept())
+                .whereEqual("diagnosisOrder.valueCoded", diagnosisMetadata.getConceptFor(Diagnosis.Order.PRIMARY))
+                .whereEqual("diagnosisOrder.voided", false)
+                .orderAsc("diagnosisGroup.obsId");
+
+        Map<Integer, Integer> encounterIdsByGroupId = new LinkedHashMap<Integer, Integer>();
+        Map<Integer, Obs> groupsById = new HashMap<Integer, Obs>();
+        for (Object[] row : evaluationService.evaluateToList(groupQuery, evaluationContext)) {
+            Obs diagnosisGroup = (Obs) row[1];
+            encounterIdsByGroupId.put(diagnosisGroup.getObsId(), (Integer) row[0]);
+            groupsById.put(diagnosisGroup.getObsId(), diagnosisGroup);
+        }
+
+        Map<Integer, List<Diagnosis>> diagnoses = new HashMap<Integer, List<Diagnosis>>();
+        if (encounterIdsByGroupId.isEmpty()) {
+            return diagnoses;
+        }
+
+        // all of their members at once, rather than initializing each group's members collection
+        HqlQueryBuilder memberQuery = new HqlQueryBuilder();
+        memberQuery.select("member.obsGroup.obsId, member")
+                .from(Obs.class, "member")
+                .whereIn("member.obsGroup.obsId", encounterIdsByGroupId.keySet())
+                .whereEqual("member.voided", false);
+
+        Map<Integer, List<Obs>> membersByGroupId = new HashMap<Integer, List<Obs>>();
+        for (Object[] row : evaluationService.evaluateToList(memberQuery, evaluationContext)) {
+            Integer groupId = (Integer) row[0];
+            List<Obs> members = membersByGroupId.get(groupId);
+            if (members == null) {
+                members = new ArrayList<Obs>();
+                membersByGroupId.put(groupId, members);
+            }
+            members.add((Obs) row[1]);
+        }
+
+        for (Map.Entry<Integer, Integer> entry : encounterIdsByGroupId.entrySet()) {
+            Obs diagnosisGroup = groupsById.get(entry.getKey());
+            try {
+                Diagnosis diagnosis = diagnosisMetadata.toDiagnosis(diagnosisGroup, membersByGroupId.get(entry.getKey()));
+                List<Diagnosis> encounterDiagnoses = diagnoses.get(entry.getValue());
+                if (encounterDiagnoses == null) {
+                    encounterDiagnoses = new ArrayList<Diagnosis>();
+                    diagnoses.put(entry.getValue(), encounterDiagnoses);
+                }
+                encounterDiagnoses.add(diagnosis);
+            } catch (Exception ex) {
+                log.warn("malformed diagnosis obs group with obsId " + diagnosisGroup.getObsId(), ex);
+            }
+        }
+        return diagnoses;
     }
 
 }
@@ -0,0 +1,38 @@
+package org.openmrs.module.emrapi.db;
+
+import org.openmrs.Person;
+import org.openmrs.User;
+import org.openmrs.module.providermanagement.Provider;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Bulk queries for listing accounts, i.e. people with a user and/or a provider
+ */
+public interface AccountDAO {
+
+    /**
+     * @param excludeUserUuid uuid of a user whose person shouldn't count as having an account (e.g. the daemon user)
+     * @param excludeProviderId id of a provider whose person shouldn't count as having an account (e.g. the unknown
+     *                          provider), or null
+     * @return ids of all non-voided people with a user or a provider, in ascending order
+     */
+    List<Integer> getAccountPersonIds(String excludeUserUuid, Integer excludeProviderId);
+
+    /**
+     * @return the given people, with their names
+     */
+    List<Person> getPersons(Collection<Integer> personIds);
+
+    /**
+     * @return all users (including retired ones) of the given people, with their roles and properties
+     */
+    List<User> getUsers(Collection<Integer> personIds, String excludeUserUuid);
+
+    /**
+     * @return all non-retired providers of the given people, with their provider roles
+     */
+    List<Provider> getProviders(Collection<Integer> personIds);
+
+}
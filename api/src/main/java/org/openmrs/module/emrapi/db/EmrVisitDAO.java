@@ -0,0 +1,73 @@
+package org.openmrs.module.emrapi.db;
+
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.User;
+import org.openmrs.Visit;
+import org.openmrs.VisitType;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Visit queries beyond what are provided by the OpenMRS Core
+ */
+public interface EmrVisitDAO {
+
+    /**
+     * Returns all open, non-voided visits at any of the given locations, excluding visits of test patients, i.e.
+     * patients with a non-voided person attribute of the given type whose value is "true"
+     *
+     * @param locations the visit locations
+     * @param testPatientAttributeTypeId the id of the test patient person attribute type
+     * @return the open visits of real patients, most recent first
+     */
+    List<Visit> getOpenVisitsOfRealPatients(Collection<Location> locations, Integer testPatientAttributeTypeId);
+
+    /**
+     * Moves all encounters of one saved visit to another, along with their obs and orders if the visits belong to
+     * different patients, using bulk updates rather than saving each encounter. Pending changes are flushed first, the
+     * moved encounters, obs and orders are evicted from the session, and both visits are reloaded afterwards.
+     * <p/>
+     * Bulk updates bypass Hibernate interceptors, so neither save handlers nor the event module see these changes: no
+     * UPDATED events are published for the moved encounters, obs or orders. The visits themselves are saved (or voided)
+     * as usual by the caller, so subscribers to visit events do hear about the merge.
+     *
+     * @param from the visit to take the encounters from
+     * @param to the visit to move them to
+     * @param changedBy the user recorded as having changed the encounters
+     * @return the number of encounters moved
+     */
+    int moveEncounters(Visit from, Visit to, User changedBy);
+
+    /**
+     * Returns the non-voided visits of a patient at any of the given locations that overlap the given range, i.e. that
+     * started by its end and had not ended by its start
+     *
+     * @param patient
+     * @param visitType the type of the visits, or null for any type
+     * @param locations the visit locations
+     * @param startDatetime the start of the range, or null for no lower bound
+     * @param stopDatetime the end of the range, or null for no upper bound
+     * @return the visits, most recent first
+     */
+    List<Visit> getVisitsDuring(Patient patient, VisitType visitType, Collection<Location> locations, Date startDatetime,
+                                Date stopDatetime);
+
+    /**
+     * Like {@link #getVisitsDuring(Patient, VisitType, Collection, Date, Date)}, but only checks whether there are any
+     * such visits, without loading them
+     */
+    boolean hasVisitDuring(Patient patient, VisitType visitType, Collection<Location> locations, Date startDatetime,
+                           Date stopDatetime);
+
+    /**
+     * Loads locations (retired or not) in one query, e.g. a subtree of the location hierarchy
+     *
+     * @param locationIds
+     * @return the locations with the given ids, in no particular order
+     */
+    List<Location> getLocations(Collection<Integer> locationIds);
+
+}
@@ -0,0 +1,103 @@
+package org.openmrs.module.emrapi.db;
+
+import org.hibernate.Query;
+import org.hibernate.SessionFactory;
+import org.openmrs.Person;
+import org.openmrs.User;
+import org.openmrs.module.providermanagement.Provider;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+public class HibernateAccountDAO implements AccountDAO {
+
+    // keeps "in" lists well below the limits of any database
+    private static final int MAX_IDS_PER_QUERY = 1000;
+
+    private SessionFactory sessionFactory;
+
+    public void setSessionFactory(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    @Override
+    public List<Integer> getAccountPersonIds(String excludeUserUuid, Integer excludeProviderId) {
+        TreeSet<Integer> personIds = new TreeSet<Integer>();
+
+        Query userQuery = sessionFactory.getCurrentSession().createQuery("select distinct user.person.personId " +
+                "from User user " +
+                "where user.person.personVoided = false " +
+                "and user.uuid <> :excludeUserUuid");
+        userQuery.setString("excludeUserUuid", excludeUserUuid);
+        personIds.addAll((List<Integer>) userQuery.list());
+
+        Query providerQuery = sessionFactory.getCurrentSession().createQuery("select distinct provider.person.personId " +
+                "from org.openmrs.Provider provider " +
+                "where provider.person.personVoided = false " +
+                (excludeProviderId == null ? "" : "and provider.providerId <> :excludeProviderId"));
+        if (excludeProviderId != null) {
+            providerQuery.setInteger("excludeProviderId", excludeProviderId);
+        }
+        personIds.addAll((List<Integer>) providerQuery.list());
+
+        return new ArrayList<Integer>(personIds);
+    }
+
+    @Override
+    public List<Person> getPersons(Collection<Integer> personIds) {
+        List<Person> persons = new ArrayList<Person>();
+        for (List<Integer> chunk : chunk(personIds)) {
+            Query query = sessionFactory.getCurrentSession().createQuery("select distinct person from Person person " +
+                    "left join fetch person.names " +
+                    "where person.personId in (:personIds)");
+            query.setParameterList("personIds", chunk);
+            persons.addAll((List<Person>) query.list());
+        }
+        return persons;
+    }
+
+    @Override
+    public List<User> getUsers(Collection<Integer> personIds, String excludeUserUuid) {
+        List<User> users = new ArrayList<User>();
+        for (List<Integer> chunk : chunk(personIds)) {
+            Query query = sessionFactory.getCurrentSession().createQuery("select distinct user from User user " +
+                    "left join fetch user.roles " +
+                    "left join fetch user.userProperties " +
+                    "where user.person.personId in (:personIds) " +
+                    "and user.uuid <> :excludeUserUuid " +
+                    "order by user.userId");
+            query.setParameterList("personIds", chunk);
+            query.setString("excludeUserUuid", excludeUserUuid);
+            users.addAll((List<User>) query.list());
+        }
+        return users;
+    }
+
+    @Override
+    public List<Provider> getProviders(Collection<Integer> personIds) {
+        List<Provider> providers = new ArrayList<Provider>();
+        for (List<Integer> chunk : chunk(personIds)) {
+            Query query = sessionFactory.getCurrentSession().createQuery("select provider " +
+                    "from org.openmrs.module.providermanagement.Provider provider " +
+                    "left join fetch provider.providerRole " +
+                    "where provider.person.personId in (:personIds) " +
+                    "and provider.retired = false " +
+                    "order by provider.providerId");
+            query.setParameterList("personIds", chunk);
+            providers.addAll((List<Provider>) query.list());
+        }
+        return providers;
+    }
+
+    private List<List<Integer>> chunk(Collection<Integer> ids) {
+        List<List<Integer>> chunks = new ArrayList<List<Integer>>();
+        List<Integer> all = new ArrayList<Integer>(ids);
+        for (int i = 0; i < all.size(); i += MAX_IDS_PER_QUERY) {
+            chunks.add(all.subList(i, Math.min(all.size(), i + MAX_IDS_PER_QUERY)));
+        }
+        return chunks;
+    }
+
+}
@@ -0,0 +1,179 @@
+package org.openmrs.module.emrapi.db;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.openmrs.Encounter;
+import org.openmrs.Location;
+import org.openmrs.Obs;
+import org.openmrs.Order;
+import org.openmrs.Patient;
+import org.openmrs.User;
+import org.openmrs.Visit;
+import org.openmrs.VisitType;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+public class HibernateEmrVisitDAO implements EmrVisitDAO {
+
+    private SessionFactory sessionFactory;
+
+    public void setSessionFactory(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    @Override
+    public List<Visit> getOpenVisitsOfRealPatients(Collection<Location> locations, Integer testPatientAttributeTypeId) {
+        if (locations.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        // anti-join on person_attribute, so we neither wrap each patient nor load all of their attributes
+        Query query = sessionFactory.getCurrentSession().createQuery("select visit from Visit visit " +
+                "where visit.voided = false " +
+                "and visit.stopDatetime is null " +
+                "and visit.location in (:locations) " +
+                "and not exists (select attribute.personAttributeId from PersonAttribute attribute " +
+                "   where attribute.person.personId = visit.patient.patientId " +
+                "   and attribute.attributeType.personAttributeTypeId = :testPatientAttributeTypeId " +
+                "   and attribute.voided = false " +
+                "   and attribute.value = 'true') " +
+                "order by visit.startDatetime desc, visit.visitId desc");
+        query.setParameterList("locations", locations);
+        query.setInteger("testPatientAttributeTypeId", testPatientAttributeTypeId);
+
+        return (List<Visit>) query.list();
+    }
+
+    @Override
+    public int moveEncounters(Visit from, Visit to, User changedBy) {
+        Session session = sessionFactory.getCurrentSession();
+        session.flush();
+
+        List<Integer> encounterIds = session.createQuery("select e.encounterId from Encounter e where e.visit = :from")
+                .setParameter("from", from).list();
+        if (encounterIds.isEmpty()) {
+            return 0;
+        }
+
+        Query query = session.createQuery("update Encounter set visit = :to, patient = :patient, " +
+                "changedBy = :changedBy, dateChanged = :dateChanged where encounterId in (:encounterIds)");
+        query.setParameter("to", to);
+        query.setParameter("patient", to.getPatient());
+        query.setParameter("changedBy", changedBy);
+        query.setTimestamp("dateChanged", new Date());
+        query.setParameterList("encounterIds", encounterIds);
+        int moved = query.executeUpdate();
+
+        // the session may still hold the moved encounters (and their obs and orders) as they were before the update
+        evict(session, Encounter.class, encounterIds);
+
+        if (!to.getPatient().equals(from.getPatient())) {
+            List<Integer> obsIds = session.createQuery("select o.obsId from Obs o " +
+                    "where o.encounter.encounterId in (:encounterIds)")
+                    .setParameterList("encounterIds", encounterIds).list();
+            if (!obsIds.isEmpty()) {
+                query = session.createQuery("update Obs set person = :person where obsId in (:obsIds)");
+                query.setParameter("person", to.getPatient());
+                query.setParameterList("obsIds", obsIds);
+                query.executeUpdate();
+                evict(session, Obs.class, obsIds);
+            }
+
+            List<Integer> orderIds = session.createQuery("select o.orderId from Order o " +
+                    "where o.encounter.encounterId in (:encounterIds)")
+                    .setParameterList("encounterIds", encounterIds).list();
+            if (!orderIds.isEmpty()) {
+                query = session.createQuery("update Order set patient = :patient where orderId in (:orderIds)");
+                query.setParameter("patient", to.getPatient());
+                query.setParameterList("orderIds", orderIds);
+                query.executeUpdate();
+                evict(session, Order.class, orderIds);
+            }
+        }
+
+        session.refresh(from);
+        session.refresh(to);
+        return moved;
+    }
+
+    /**
+     * Evicts the instances with the given ids, if the session holds them. Loading an id that the session doesn't hold
+     * only creates an uninitialized proxy, so this doesn't query anything.
+     */
+    private void evict(Session session, Class<?> entityClass, List<Integer> ids) {
+        for (Integer id : ids) {
+            session.evict(session.load(entityClass, id));
+        }
+    }
+
+    @Override
+    public List<Visit> getVisitsDuring(Patient patient, VisitType visitType, Collection<Location> locations,
+                                       Date startDatetime, Date stopDatetime) {
+        if (locations.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Query query = createVisitsDuringQuery("select visit from Visit visit", patient, visitType, locations,
+                startDatetime, stopDatetime, "order by visit.startDatetime desc, visit.visitId desc");
+        return (List<Visit>) query.list();
+    }
+
+    @Override
+    public boolean hasVisitDuring(Patient patient, VisitType visitType, Collection<Location> locations,
+                                  Date startDatetime, Date stopDatetime) {
+        if (locations.isEmpty()) {
+            return false;
+        }
+        // only ask for the first matching id, so the database can stop at the first match
+        Query query = createVisitsDuringQuery("select visit.visitId from Visit visit", patient, visitType, locations,
+                startDatetime, stopDatetime, "");
+        query.setMaxResults(1);
+        return query.uniqueResult() != null;
+    }
+
+    @Override
+    public List<Location> getLocations(Collection<Integer> locationIds) {
+        if (locationIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return (List<Location>) sessionFactory.getCurrentSession()
+                .createQuery("from Location location where location.locationId in (:locationIds)")
+                .setParameterList("locationIds", locationIds).list();
+    }
+
+    private Query createVisitsDuringQuery(String select, Patient patient, VisitType visitType,
+                                          Collection<Location> locations, Date startDatetime, Date stopDatetime,
+                                          String orderBy) {
+        StringBuilder hql = new StringBuilder(select).append(" where visit.voided = false " +
+                "and visit.patient = :patient " +
+                "and visit.location in (:locations) ");
+        if (visitType != null) {
+            hql.append("and visit.visitType = :visitType ");
+        }
+        if (stopDatetime != null) {
+            hql.append("and visit.startDatetime <= :stopDatetime ");
+        }
+        if (startDatetime != null) {
+            hql.append("and (visit.stopDatetime is null or visit.stopDatetime >= :startDatetime) ");
+        }
+        hql.append(orderBy);
+
+        Query query = sessionFactory.getCurrentSession().createQuery(hql.toString());
+        query.setParameter("patient", patient);
+        query.setParameterList("locations", locations);
+        if (visitType != null) {
+            query.setParameter("visitType", visitType);
+        }
+        if (stopDatetime != null) {
+            query.setTimestamp("stopDatetime", stopDatetime);
+        }
+        if (startDatetime != null) {
+            query.setTimestamp("startDatetime", startDatetime);
+        }
+        return query;
+    }
+
+}
@@ -26,8 +26,18 @@ import org.openmrs.module.emrapi.EmrApiConstants;
 import org.openmrs.module.emrapi.diagnosis.CodedOrFreeTextAnswer;
 import org.openmrs.util.OpenmrsUtil;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 public abstract class ConceptSetDescriptor {
 
+    /**
+     * Answers of coded question concepts, indexed by their code in the EMR API concept source, keyed by question
+     */
+    private final Map<Concept, AnswerCodes> answerCodesByQuestion = new ConcurrentHashMap<Concept, AnswerCodes>();
+
     /**
      * @param conceptService
      * @param conceptSourceName
@@ -66,7 +76,19 @@ public abstract class ConceptSetDescriptor {
     }
 
     protected Obs findMember(Obs obsGroup, Concept concept) {
-        for (Obs candidate : obsGroup.getGroupMembers(false)) {
+        return findMember(obsGroup.getGroupMembers(false), concept);
+    }
+
+    /**
+     * @param groupMembers (non-voided) members of an obs group, e.g. fetched in bulk for many obs groups
+     * @param concept
+     * @return the member with the given concept, or null
+     */
+    protected Obs findMember(Collection<Obs> groupMembers, Concept concept) {
+        if (groupMembers == null) {
+            return null;
+        }
+        for (Obs candidate : groupMembers) {
             if (candidate.getConcept().equals(concept)) {
                 return candidate;
             }
@@ -157,24 +179,102 @@ public abstract class ConceptSetDescriptor {
     }
 
     protected Concept findAnswer(Concept concept, String codeForAnswer) {
-        for (ConceptAnswer conceptAnswer : concept.getAnswers()) {
-            Concept answerConcept = conceptAnswer.getAnswerConcept();
-            if (answerConcept != null) {
-                if (hasConceptMapping(answerConcept, EmrApiConstants.EMR_CONCEPT_SOURCE_NAME, codeForAnswer)) {
-                    return answerConcept;
-                }
-            }
+        Concept answerConcept = getAnswerCodes(concept).getAnswer(codeForAnswer);
+        if (answerConcept == null) {
+            throw new IllegalStateException("Cannot find answer mapped with " + EmrApiConstants.EMR_CONCEPT_SOURCE_NAME + ":" + codeForAnswer + " in the concept " + concept.getName());
+        }
+        return answerConcept;
+    }
+
+    /**
+     * @param question
+     * @param answer
+     * @return the code in the EMR API concept source of the given answer to question, or null if answer is not an
+     * answer of question with such a mapping
+     */
+    protected String findAnswerCode(Concept question, Concept answer) {
+        if (question == null || answer == null) {
+            return null;
+        }
+        return getAnswerCodes(question).getCode(answer);
+    }
+
+    /**
+     * Builds the answer lookups of the given coded question now, rather than on its first lookup, e.g. because the
+     * descriptor will outlive the session its concepts were loaded in
+     *
+     * @param question
+     */
+    protected void indexAnswers(Concept question) {
+        if (question != null) {
+            answerCodesByQuestion.put(question, new AnswerCodes(question, EmrApiConstants.EMR_CONCEPT_SOURCE_NAME));
+        }
+    }
+
+    /**
+     * Discards any precomputed answer lookups, e.g. after a question concept has been replaced
+     */
+    protected void clearAnswerIndex() {
+        answerCodesByQuestion.clear();
+    }
+
+    /**
+     * The code-to-answer (and answer-to-code) lookups of a coded question are built on its first lookup, so that
+     * {@link #findAnswer(Concept, String)} and {@link #findAnswerCode(Concept, Concept)} don't need to walk its answers
+     * and their mappings each time, and descriptors that are never asked about a question never index it (unless it is indexed up front by
+     * {@link #indexAnswers(Concept)}).
+     *
+     * @param question
+     * @return the answer lookups of question
+     */
+    private AnswerCodes getAnswerCodes(Concept question) {
+        AnswerCodes answerCodes = answerCodesByQuestion.get(question);
+        if (answerCodes == null) {
+            answerCodes = new AnswerCodes(question, EmrApiConstants.EMR_CONCEPT_SOURCE_NAME);
+            answerCodesByQuestion.put(question, answerCodes);
         }
-        throw new IllegalStateException("Cannot find answer mapped with " + EmrApiConstants.EMR_CONCEPT_SOURCE_NAME + ":" + codeForAnswer + " in the concept " + concept.getName());
+        return answerCodes;
     }
 
-    private boolean hasConceptMapping(Concept concept, String sourceName, String codeToLookFor) {
-        for (ConceptMap conceptMap : concept.getConceptMappings()) {
-            ConceptReferenceTerm conceptReferenceTerm = conceptMap.getConceptReferenceTerm();
-            if (sourceName.equals(conceptReferenceTerm.getConceptSource().getName()) && codeToLookFor.equals(conceptReferenceTerm.getCode())) {
-                return true;
+    /**
+     * Bidirectional lookup between the answers of a coded question and their codes in a concept source
+     */
+    private static class AnswerCodes {
+
+        private final Map<String, Concept> answersByCode = new HashMap<String, Concept>();
+
+        private final Map<Concept, String> codesByAnswer = new HashMap<Concept, String>();
+
+        AnswerCodes(Concept question, String sourceName) {
+            for (ConceptAnswer conceptAnswer : question.getAnswers()) {
+                Concept answerConcept = conceptAnswer.getAnswerConcept();
+                if (answerConcept == null) {
+                    continue;
+                }
+                for (ConceptMap conceptMap : answerConcept.getConceptMappings()) {
+                    ConceptReferenceTerm conceptReferenceTerm = conceptMap.getConceptReferenceTerm();
+                    if (sourceName.equals(conceptReferenceTerm.getConceptSource().getName())) {
+                        String code = conceptReferenceTerm.getCode();
+                        // like the linear search this replaces, the first answer with a given code wins
+                        if (!answersByCode.containsKey(code)) {
+                            answersByCode.put(code, answerConcept);
+                        }
+                        if (!codesByAnswer.containsKey(answerConcept)) {
+                            codesByAnswer.put(answerConcept, code);
+                        }
+                    }
+                }
             }
         }
-        return false;
+
+        Concept getAnswer(String code) {
+            return answersByCode.get(code);
+        }
+
+        String getCode(Concept answer) {
+            return codesByAnswer.get(answer);
+        }
+
     }
+
 }
@@ -24,6 +24,8 @@ import org.openmrs.module.emrapi.EmrApiConstants;
 import org.openmrs.module.emrapi.descriptor.ConceptSetDescriptor;
 import org.openmrs.module.emrapi.descriptor.ConceptSetDescriptorField;
 
+import java.util.Collection;
+
 /**
  * Metadata describing how a diagnosis is represented as an Obs group.
  */
@@ -44,6 +46,9 @@ public class DiagnosisMetadata extends ConceptSetDescriptor {
                 ConceptSetDescriptorField.required("diagnosisOrderConcept", EmrApiConstants.CONCEPT_CODE_DIAGNOSIS_ORDER),
                 ConceptSetDescriptorField.required("diagnosisCertaintyConcept", EmrApiConstants.CONCEPT_CODE_DIAGNOSIS_CERTAINTY));
         this.emrConceptSource = emrConceptSource;
+        // instances are cached beyond the session that loaded these concepts, so their answers must be loaded now
+        indexAnswers(diagnosisOrderConcept);
+        indexAnswers(diagnosisCertaintyConcept);
     }
 
     /**
@@ -86,10 +91,12 @@ public class DiagnosisMetadata extends ConceptSetDescriptor {
 
     public void setDiagnosisOrderConcept(Concept diagnosisOrderConcept) {
         this.diagnosisOrderConcept = diagnosisOrderConcept;
+        clearAnswerIndex();
     }
 
     public void setDiagnosisCertaintyConcept(Concept diagnosisCertaintyConcept) {
         this.diagnosisCertaintyConcept = diagnosisCertaintyConcept;
+        clearAnswerIndex();
     }
 
     public void setEmrConceptSource(ConceptSource emrConceptSource) {
@@ -138,13 +145,28 @@ public class DiagnosisMetadata extends ConceptSetDescriptor {
         if (!isDiagnosis(obsGroup)) {
             throw new IllegalArgumentException("Not an obs group for a diagnosis: " + obsGroup);
         }
+        return toDiagnosis(obsGroup, obsGroup.getGroupMembers(false));
+    }
 
-        Obs orderObs = findMember(obsGroup, diagnosisOrderConcept);
-        Obs certaintyObs = findMember(obsGroup, diagnosisCertaintyConcept);
-        Obs codedObs = findMember(obsGroup, codedDiagnosisConcept);
+    /**
+     * Like {@link #toDiagnosis(Obs)}, but takes the non-voided members of the obs group instead of loading them from
+     * it, for callers that have fetched the members of many diagnosis obs groups at once.
+     *
+     * @param obsGroup a diagnosis obs group
+     * @param groupMembers the non-voided members of obsGroup
+     * @return the diagnosis
+     */
+    public Diagnosis toDiagnosis(Obs obsGroup, Collection<Obs> groupMembers) {
+        if (!isDiagnosis(obsGroup)) {
+            throw new IllegalArgumentException("Not an obs group for a diagnosis: " + obsGroup);
+        }
+
+        Obs orderObs = findMember(groupMembers, diagnosisOrderConcept);
+        Obs certaintyObs = findMember(groupMembers, diagnosisCertaintyConcept);
+        Obs codedObs = findMember(groupMembers, codedDiagnosisConcept);
         Obs nonCodedObs = null;
         if (codedObs == null) {
-            nonCodedObs = findMember(obsGroup, nonCodedDiagnosisConcept);
+            nonCodedObs = findMember(groupMembers, nonCodedDiagnosisConcept);
         }
         if (codedObs == null && nonCodedObs == null) {
             throw new IllegalArgumentException("Obs group doesn't contain a coded or non-coded diagnosis: " + obsGroup);
@@ -170,7 +192,7 @@ public class DiagnosisMetadata extends ConceptSetDescriptor {
     }
 
     private Diagnosis.Order getDiagnosisOrderFrom(Obs obs) {
-        String mapping = findMapping(obs.getValueCoded());
+        String mapping = findMapping(diagnosisOrderConcept, obs.getValueCoded());
         return Diagnosis.Order.parseConceptReferenceCode(mapping);
 
     }
@@ -183,11 +205,16 @@ public class DiagnosisMetadata extends ConceptSetDescriptor {
     }
 
     private Diagnosis.Certainty getDiagnosisCertaintyFrom(Obs certaintyObs) {
-        String mapping = findMapping(certaintyObs.getValueCoded());
+        String mapping = findMapping(diagnosisCertaintyConcept, certaintyObs.getValueCoded());
         return Diagnosis.Certainty.parseConceptReferenceCode(mapping);
     }
 
-    private String findMapping(Concept concept) {
+    private String findMapping(Concept question, Concept concept) {
+        String code = findAnswerCode(question, concept);
+        if (code != null) {
+            return code;
+        }
+        // the obs may have an answer that is no longer (or was never) configured on the question
         for (ConceptMap conceptMap : concept.getConceptMappings()) {
             ConceptReferenceTerm conceptReferenceTerm = conceptMap.getConceptReferenceTerm();
             if (conceptReferenceTerm.getConceptSource().equals(emrConceptSource)) {
@@ -0,0 +1,41 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.emrapi.diagnosis;
+
+import javax.jms.Message;
+
+import org.openmrs.event.EventListener;
+import org.openmrs.module.emrapi.EmrApiProperties;
+
+/**
+ * Listens for concept events, and discards the cached diagnosis metadata, whose concepts (or their answers and
+ * mappings) may have changed
+ */
+public class DiagnosisMetadataInvalidationListener implements EventListener {
+	
+	private EmrApiProperties emrApiProperties;
+	
+	public DiagnosisMetadataInvalidationListener(EmrApiProperties emrApiProperties) {
+		this.emrApiProperties = emrApiProperties;
+	}
+	
+	/**
+	 * @see EventListener#onMessage(javax.jms.Message)
+	 * @param message
+	 */
+	@Override
+	public void onMessage(Message message) {
+		emrApiProperties.invalidateDiagnosisMetadata();
+	}
+}
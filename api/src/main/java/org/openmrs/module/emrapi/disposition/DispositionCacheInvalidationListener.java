@@ -0,0 +1,40 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.emrapi.disposition;
+
+import javax.jms.Message;
+
+import org.openmrs.event.EventListener;
+
+/**
+ * Listens for concept events, and discards whatever the disposition service has cached about the concepts referenced
+ * by the disposition config
+ */
+public class DispositionCacheInvalidationListener implements EventListener {
+	
+	private DispositionService dispositionService;
+	
+	public DispositionCacheInvalidationListener(DispositionService dispositionService) {
+		this.dispositionService = dispositionService;
+	}
+	
+	/**
+	 * @see EventListener#onMessage(javax.jms.Message)
+	 * @param message
+	 */
+	@Override
+	public void onMessage(Message message) {
+		dispositionService.invalidateCaches();
+	}
+}
@@ -5,6 +5,7 @@ import org.openmrs.module.emrapi.visit.VisitDomainWrapper;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Set;
 
 public interface DispositionService {
 
@@ -79,4 +80,18 @@ public interface DispositionService {
     Disposition getDispositionFromObsGroup(Obs obsGroup);
 
 
+    /**
+     * Gets the ids of the concepts of all dispositions of type {@link DispositionType#ADMIT}. The result is cached
+     * until the disposition config or concepts change (see {@link #invalidateCaches()}), so this is suitable for
+     * queries that are evaluated frequently.
+     *
+     * @return an unmodifiable set of concept ids
+     */
+    Set<Integer> getAdmissionDispositionConceptIds();
+
+    /**
+     * Discards anything cached from the disposition config, e.g. after a concept referenced by it has changed
+     */
+    void invalidateCaches();
+
 }
@@ -2,6 +2,7 @@ package org.openmrs.module.emrapi.disposition;
 
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.type.TypeReference;
+import org.openmrs.Concept;
 import org.openmrs.Obs;
 import org.openmrs.api.ConceptService;
 import org.openmrs.api.impl.BaseOpenmrsService;
@@ -14,7 +15,11 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DispositionServiceImpl extends BaseOpenmrsService implements DispositionService  {
 
@@ -29,6 +34,11 @@ public class DispositionServiceImpl extends BaseOpenmrsService implements Dispos
     // TODO inject this in some better way than using a setter to override?
     private String dispositionConfig = "dispositionConfig.json";
 
+    private volatile Set<Integer> admissionDispositionConceptIds;
+
+    // bumped on invalidation, so that ids computed from a config read before then are not kept
+    private final AtomicInteger admissionDispositionConceptIdsGeneration = new AtomicInteger();
+
     public DispositionServiceImpl(ConceptService conceptService, EmrConceptService emrConceptService) {
         this.conceptService = conceptService;
         this.emrConceptService = emrConceptService;
@@ -122,6 +132,38 @@ public class DispositionServiceImpl extends BaseOpenmrsService implements Dispos
     @Override
     public void setDispositionConfig(String dispositionConfig) {
         this.dispositionConfig = dispositionConfig;
+        invalidateCaches();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Set<Integer> getAdmissionDispositionConceptIds() {
+        Set<Integer> conceptIds = admissionDispositionConceptIds;
+        if (conceptIds == null) {
+            int generation = admissionDispositionConceptIdsGeneration.get();
+            conceptIds = new HashSet<Integer>();
+            for (Disposition disposition : getDispositionsByType(DispositionType.ADMIT)) {
+                Concept concept = emrConceptService.getConcept(disposition.getConceptCode());
+                if (concept != null) {
+                    conceptIds.add(concept.getConceptId());
+                }
+            }
+            conceptIds = Collections.unmodifiableSet(conceptIds);
+            synchronized (admissionDispositionConceptIdsGeneration) {
+                if (generation == admissionDispositionConceptIdsGeneration.get()) {
+                    admissionDispositionConceptIds = conceptIds;
+                }
+            }
+        }
+        return conceptIds;
+    }
+
+    @Override
+    public void invalidateCaches() {
+        synchronized (admissionDispositionConceptIdsGeneration) {
+            admissionDispositionConceptIdsGeneration.incrementAndGet();
+            admissionDispositionConceptIds = null;
+        }
     }
 
     private List<Disposition> getDispositionsFrom(String configFile)  {
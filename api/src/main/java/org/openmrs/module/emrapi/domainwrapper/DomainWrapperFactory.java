@@ -4,22 +4,73 @@ import org.openmrs.Encounter;
 import org.openmrs.Patient;
 import org.openmrs.Person;
 import org.openmrs.Visit;
+import org.openmrs.api.EncounterService;
+import org.openmrs.api.PersonService;
+import org.openmrs.api.ProviderService;
+import org.openmrs.api.UserService;
+import org.openmrs.api.VisitService;
+import org.openmrs.module.emrapi.EmrApiProperties;
 import org.openmrs.module.emrapi.account.AccountDomainWrapper;
+import org.openmrs.module.emrapi.account.AccountService;
+import org.openmrs.module.emrapi.account.ProviderIdentifierGenerator;
+import org.openmrs.module.emrapi.adt.AdtService;
+import org.openmrs.module.emrapi.diagnosis.DiagnosisService;
+import org.openmrs.module.emrapi.disposition.DispositionService;
 import org.openmrs.module.emrapi.encounter.EncounterDomainWrapper;
 import org.openmrs.module.emrapi.patient.PatientDomainWrapper;
 import org.openmrs.module.emrapi.visit.VisitDomainWrapper;
+import org.openmrs.module.providermanagement.api.ProviderManagementService;
+import org.openmrs.module.reporting.query.visit.service.VisitQueryService;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.stereotype.Component;
 
+import java.util.Map;
+
+/**
+ * Creates domain wrappers with their dependencies injected.
+ * <p/>
+ * By default, each wrapper type's dependencies are looked up once (by the same bean names and types as its
+ * {@link Autowired} fields), and handed to new wrappers through their setters. This avoids reflective injection for
+ * every wrapper, e.g. when wrapping long lists of visits. Set {@link #setAutowireEveryWrapper(boolean)} to autowire
+ * each wrapper individually instead.
+ */
 @Component
 public class DomainWrapperFactory implements ApplicationContextAware {
 
     private ApplicationContext applicationContext;
 
+    private boolean autowireEveryWrapper = false;
+
+    private volatile PatientDependencies patientDependencies;
+
+    private volatile VisitDependencies visitDependencies;
+
+    private volatile AccountDependencies accountDependencies;
+
+    public void setAutowireEveryWrapper(boolean autowireEveryWrapper) {
+        this.autowireEveryWrapper = autowireEveryWrapper;
+    }
+
     public PatientDomainWrapper newPatientDomainWrapper() {
         PatientDomainWrapper patientDomainWrapper = new PatientDomainWrapper();
-        return (PatientDomainWrapper) autowire(patientDomainWrapper);
+        if (autowireEveryWrapper) {
+            return (PatientDomainWrapper) autowire(patientDomainWrapper);
+        }
+
+        PatientDependencies dependencies = patientDependencies;
+        if (dependencies == null) {
+            dependencies = new PatientDependencies();
+            patientDependencies = dependencies;
+        }
+        patientDomainWrapper.setEmrApiProperties(dependencies.emrApiProperties);
+        patientDomainWrapper.setAdtService(dependencies.adtService);
+        patientDomainWrapper.setVisitService(dependencies.visitService);
+        patientDomainWrapper.setEncounterService(dependencies.encounterService);
+        patientDomainWrapper.setDiagnosisService(dependencies.diagnosisService);
+        patientDomainWrapper.setVisitQueryService(dependencies.visitQueryService);
+        return patientDomainWrapper;
     }
 
     public PatientDomainWrapper newPatientDomainWrapper(Patient patient) {
@@ -30,7 +81,19 @@ public class DomainWrapperFactory implements ApplicationContextAware {
 
     public VisitDomainWrapper newVisitDomainWrapper() {
         VisitDomainWrapper visitDomainWrapper = new VisitDomainWrapper();
-        return (VisitDomainWrapper) autowire(visitDomainWrapper);
+        if (autowireEveryWrapper) {
+            return (VisitDomainWrapper) autowire(visitDomainWrapper);
+        }
+
+        VisitDependencies dependencies = visitDependencies;
+        if (dependencies == null) {
+            dependencies = new VisitDependencies();
+            visitDependencies = dependencies;
+        }
+        visitDomainWrapper.setEmrApiProperties(dependencies.emrApiProperties);
+        visitDomainWrapper.setDispositionService(dependencies.dispositionService);
+        visitDomainWrapper.setVisitQueryService(dependencies.visitQueryService);
+        return visitDomainWrapper;
     }
 
     public VisitDomainWrapper newVisitDomainWrapper(Visit visit) {
@@ -41,7 +104,22 @@ public class DomainWrapperFactory implements ApplicationContextAware {
 
     public AccountDomainWrapper newAccountDomainWrapper() {
         AccountDomainWrapper accountDomainWrapper = new AccountDomainWrapper();
-        return (AccountDomainWrapper) autowire(accountDomainWrapper);
+        if (autowireEveryWrapper) {
+            return (AccountDomainWrapper) autowire(accountDomainWrapper);
+        }
+
+        AccountDependencies dependencies = accountDependencies;
+        if (dependencies == null) {
+            dependencies = new AccountDependencies();
+            accountDependencies = dependencies;
+        }
+        accountDomainWrapper.setAccountService(dependencies.accountService);
+        accountDomainWrapper.setUserService(dependencies.userService);
+        accountDomainWrapper.setPersonService(dependencies.personService);
+        accountDomainWrapper.setProviderService(dependencies.providerService);
+        accountDomainWrapper.setProviderManagementService(dependencies.providerManagementService);
+        accountDomainWrapper.setProviderIdentifierGenerator(dependencies.providerIdentifierGenerator);
+        return accountDomainWrapper;
     }
 
     public AccountDomainWrapper newAccountDomainWrapper(Person person) {
@@ -52,7 +130,8 @@ public class DomainWrapperFactory implements ApplicationContextAware {
 
     public EncounterDomainWrapper newEncounterDomainWrapper() {
         EncounterDomainWrapper encounterDomainWrapper = new EncounterDomainWrapper();
-        return (EncounterDomainWrapper) autowire(encounterDomainWrapper);
+        // it has no dependencies to hand over
+        return autowireEveryWrapper ? (EncounterDomainWrapper) autowire(encounterDomainWrapper) : encounterDomainWrapper;
     }
 
     public EncounterDomainWrapper newEncounterDomainWrapper(Encounter encounter) {
@@ -69,6 +148,68 @@ public class DomainWrapperFactory implements ApplicationContextAware {
     @Override
     public void setApplicationContext(ApplicationContext applicationContext) {
         this.applicationContext = applicationContext;
+        patientDependencies = null;
+        visitDependencies = null;
+        accountDependencies = null;
+    }
+
+    private <T> T getBean(String name, Class<T> type) {
+        return applicationContext.getBean(name, type);
+    }
+
+    // like @Autowired(required = ...) without a qualifier
+    private <T> T getBean(Class<T> type, boolean required) {
+        Map<String, T> beans = applicationContext.getBeansOfType(type);
+        if (beans.size() == 1) {
+            return beans.values().iterator().next();
+        }
+        if (beans.isEmpty() && !required) {
+            return null;
+        }
+        throw new IllegalStateException("Expected a single bean of type " + type.getName() + ", but found " + beans.keySet());
+    }
+
+    private class PatientDependencies {
+
+        private final EmrApiProperties emrApiProperties = getBean("emrApiProperties", EmrApiProperties.class);
+
+        private final AdtService adtService = getBean("adtService", AdtService.class);
+
+        private final VisitService visitService = getBean("visitService", VisitService.class);
+
+        private final EncounterService encounterService = getBean("encounterService", EncounterService.class);
+
+        private final DiagnosisService diagnosisService = getBean("diagnosisService", DiagnosisService.class);
+
+        private final VisitQueryService visitQueryService = getBean(VisitQueryService.class, true);
+
+    }
+
+    private class VisitDependencies {
+
+        private final EmrApiProperties emrApiProperties = getBean("emrApiProperties", EmrApiProperties.class);
+
+        private final DispositionService dispositionService = getBean("dispositionService", DispositionService.class);
+
+        private final VisitQueryService visitQueryService = getBean(VisitQueryService.class, true);
+
+    }
+
+    private class AccountDependencies {
+
+        private final AccountService accountService = getBean("accountService", AccountService.class);
+
+        private final UserService userService = getBean("userService", UserService.class);
+
+        private final PersonService personService = getBean("personService", PersonService.class);
+
+        private final ProviderService providerService = getBean("providerService", ProviderService.class);
+
+        private final ProviderManagementService providerManagementService = getBean("providerManagementService",
+                ProviderManagementService.class);
+
+        private final ProviderIdentifierGenerator providerIdentifierGenerator = getBean(ProviderIdentifierGenerator.class, false);
+
     }
 
 }
@@ -53,7 +53,9 @@ public class EncounterTransactionMapper {
         encounterProviderMapper.update(encounterTransaction, encounter.getEncounterProviders());
         encounterObservationsMapper.update(encounterTransaction, getSortedTopLevelObservations(encounter, includeAll));
 
-        if (orderMapper != null) {
+        if (orderMapper instanceof SinglePassOrderMapper) {
+            ((SinglePassOrderMapper) orderMapper).update(encounterTransaction, encounter);
+        } else if (orderMapper != null) {
             encounterTransaction.setDrugOrders(orderMapper.mapDrugOrders(encounter));
             encounterTransaction.setTestOrders(orderMapper.mapTestOrders(encounter));
         }
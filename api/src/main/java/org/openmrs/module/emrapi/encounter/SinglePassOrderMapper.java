@@ -0,0 +1,17 @@
+package org.openmrs.module.emrapi.encounter;
+
+import org.openmrs.Encounter;
+import org.openmrs.module.emrapi.encounter.domain.EncounterTransaction;
+
+/**
+ * Optionally implemented by an {@link OrderMapper} that can map all of an encounter's orders in one go.
+ * {@link EncounterTransactionMapper} uses this when available, and otherwise calls
+ * {@link OrderMapper#mapDrugOrders(Encounter)} and {@link OrderMapper#mapTestOrders(Encounter)}.
+ */
+public interface SinglePassOrderMapper {
+
+    /**
+     * Sets the drug orders and test orders of encounterTransaction, going over the encounter's orders only once
+     */
+    void update(EncounterTransaction encounterTransaction, Encounter encounter);
+}
@@ -15,38 +15,100 @@ package org.openmrs.module.emrapi.event;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.jms.JMSException;
 import javax.jms.MapMessage;
 import javax.jms.Message;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.Patient;
 import org.openmrs.User;
 import org.openmrs.api.APIException;
-import org.openmrs.api.UserService;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.context.Daemon;
 import org.openmrs.event.EventListener;
 import org.openmrs.module.DaemonToken;
 import org.openmrs.module.emrapi.EmrApiConstants;
-import org.openmrs.module.emrapi.EmrApiProperties;
-import org.openmrs.module.emrapi.utils.GeneralUtils;
+import org.openmrs.module.emrapi.patient.EmrPatientService;
 
 /**
  * Listens for patient viewed events, the patient found in the message payload gets added to the
- * last viewed patients user property of the specified user,
+ * last viewed patients of the specified user (see {@link EmrPatientService#addLastViewedPatients}),
+ * <p/>
+ * Events are not processed on arrival: they are queued per user, and a single consumer flushes the queue once per
+ * flush interval (5 seconds by default), so a burst of views by one user is saved at once. Viewing the same patient again while queued only moves it to the end of that user's queue. The queue is
+ * bounded, and views that arrive while it is full are dropped. Whatever is still queued is flushed on {@link #shutdown()}.
+ * <p/>
+ * The module's instance is registered as the "patientViewedEventListener" bean, so that its queue depth and drop counts
+ * can be read; they are also logged on each flush.
  */
 public class PatientViewedEventListener implements EventListener {
 	
+	public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 5000;
+	
+	public static final int DEFAULT_MAX_QUEUED_VIEWS = 10000;
+	
+	private static final long SHUTDOWN_FLUSH_TIMEOUT_MILLIS = 30000;
+	
 	protected final Log log = LogFactory.getLog(getClass());
 	
-	private DaemonToken daemonToken;
+	private volatile DaemonToken daemonToken;
+	
+	private final long flushIntervalMillis;
+	
+	private final int maxQueuedViews;
+	
+	private final Object queueLock = new Object();
+	
+	// user uuid -> uuids of the patients they viewed, least recent first
+	private Map<String, LinkedHashSet<String>> queuedViews = new HashMap<String, LinkedHashSet<String>>();
+	
+	private int queueDepth = 0;
+	
+	private ScheduledExecutorService flushScheduler;
+	
+	private final AtomicBoolean flushing = new AtomicBoolean(false);
+	
+	private final AtomicLong droppedCount = new AtomicLong();
+	
+	private final AtomicLong coalescedCount = new AtomicLong();
+	
+	// the dropped count as of the previous flush
+	private long droppedCountAtLastFlush = 0;
+	
+	public PatientViewedEventListener() {
+		this(null);
+	}
 	
 	public PatientViewedEventListener(DaemonToken token) {
+		this(token, DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_MAX_QUEUED_VIEWS);
+	}
+	
+	public PatientViewedEventListener(DaemonToken token, long flushIntervalMillis, int maxQueuedViews) {
 		daemonToken = token;
+		this.flushIntervalMillis = flushIntervalMillis;
+		this.maxQueuedViews = maxQueuedViews;
+	}
+	
+	/**
+	 * Called by the module activator once the module has started (and with null once it stops)
+	 * 
+	 * @param daemonToken
+	 */
+	public void setDaemonToken(DaemonToken daemonToken) {
+		this.daemonToken = daemonToken;
 	}
 	
 	/**
@@ -55,24 +117,217 @@ public class PatientViewedEventListener implements EventListener {
 	 */
 	@Override
 	public void onMessage(final Message message) {
-		Daemon.runInDaemonThread(new Runnable() {
+		try {
+			MapMessage mapMessage = (MapMessage) message;
+			enqueue(mapMessage.getString(EmrApiConstants.EVENT_KEY_USER_UUID),
+			    mapMessage.getString(EmrApiConstants.EVENT_KEY_PATIENT_UUID));
+		}
+		catch (JMSException e) {
+			log.error("Failed to read a patient viewed event", e);
+		}
+	}
+	
+	/**
+	 * Queues a view, to be applied at the next flush
+	 * 
+	 * @param userUuid
+	 * @param patientUuid
+	 * @return false if the view was dropped because the queue is full
+	 */
+	public boolean enqueue(String userUuid, String patientUuid) {
+		synchronized (queueLock) {
+			LinkedHashSet<String> views = queuedViews.get(userUuid);
+			if (views != null && views.remove(patientUuid)) {
+				views.add(patientUuid);
+				coalescedCount.incrementAndGet();
+				return true;
+			}
+			if (queueDepth >= maxQueuedViews) {
+				droppedCount.incrementAndGet();
+				if (log.isDebugEnabled()) {
+					log.debug("Dropped a patient viewed event, because " + queueDepth + " views are already queued");
+				}
+				return false;
+			}
+			if (views == null) {
+				views = new LinkedHashSet<String>();
+				queuedViews.put(userUuid, views);
+			}
+			views.add(patientUuid);
+			++queueDepth;
+			
+			if (flushScheduler == null) {
+				startFlushScheduler();
+			}
+			return true;
+		}
+	}
+	
+	private void startFlushScheduler() {
+		flushScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "emrapi-patient-viewed-flush");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		flushScheduler.scheduleWithFixedDelay(new Runnable() {
 			
 			@Override
 			public void run() {
-				try {
-					processMessage(message);
+				scheduleFlush();
+			}
+		}, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	private void scheduleFlush() {
+		// only one flush at a time, and none while there's nothing to do
+		if (getQueueDepth() == 0 || !flushing.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			Daemon.runInDaemonThread(new Runnable() {
+				
+				@Override
+				public void run() {
+					try {
+						flush();
+					}
+					catch (Exception e) {
+						log.error("Failed to update the users' last viewed patients", e);
+					}
+					finally {
+						flushing.set(false);
+					}
 				}
-				catch (Exception e) {
-					log.error("Failed to update the user's last viewed patients property", e);
+			}, daemonToken);
+		}
+		catch (Exception e) {
+			flushing.set(false);
+			log.error("Failed to start updating the users' last viewed patients", e);
+		}
+	}
+	
+	/**
+	 * Applies all queued views, with one update per user
+	 */
+	public void flush() {
+		Map<String, LinkedHashSet<String>> toFlush;
+		int flushed;
+		long dropped;
+		synchronized (queueLock) {
+			toFlush = queuedViews;
+			flushed = queueDepth;
+			queuedViews = new HashMap<String, LinkedHashSet<String>>();
+			queueDepth = 0;
+			dropped = droppedCount.get() - droppedCountAtLastFlush;
+			droppedCountAtLastFlush += dropped;
+		}
+		if (dropped > 0) {
+			log.warn("Dropped " + dropped + " patient viewed events since the last flush, because " + maxQueuedViews
+			        + " views were already queued");
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Flushing " + flushed + " patient viewed events of " + toFlush.size() + " users ("
+			        + getDroppedCount() + " dropped and " + getCoalescedCount() + " coalesced in total)");
+		}
+		
+		for (Map.Entry<String, LinkedHashSet<String>> entry : toFlush.entrySet()) {
+			User user = Context.getUserService().getUserByUuid(entry.getKey());
+			if (user == null) {
+				continue;
+			}
+			List<Patient> viewed = new ArrayList<Patient>();
+			for (String patientUuid : entry.getValue()) {
+				Patient patient = Context.getPatientService().getPatientByUuid(patientUuid);
+				if (patient == null || patient.getId() == null) {
+					log.warn("Failed to find a patient with uuid:" + patientUuid + " or the patient is not yet saved");
+				} else {
+					viewed.add(patient);
 				}
 			}
-		}, daemonToken);
+			Context.getService(EmrPatientService.class).addLastViewedPatients(user, viewed);
+		}
+	}
+	
+	/**
+	 * Stops flushing periodically, then flushes anything still queued before returning, in a daemon thread (or in the
+	 * current thread, which must then be authenticated, if there is no daemon token)
+	 */
+	public void shutdown() {
+		synchronized (queueLock) {
+			if (flushScheduler != null) {
+				flushScheduler.shutdownNow();
+				flushScheduler = null;
+			}
+		}
+		final int queued = getQueueDepth();
+		if (queued == 0) {
+			return;
+		}
+		if (daemonToken == null) {
+			flush();
+			return;
+		}
+		final CountDownLatch flushed = new CountDownLatch(1);
+		try {
+			Daemon.runInDaemonThread(new Runnable() {
+				
+				@Override
+				public void run() {
+					try {
+						flush();
+					}
+					catch (Exception e) {
+						log.error("Failed to save " + queued + " queued patient viewed events", e);
+					}
+					finally {
+						flushed.countDown();
+					}
+				}
+			}, daemonToken);
+			if (!flushed.await(SHUTDOWN_FLUSH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+				log.warn("Gave up waiting for " + queued + " queued patient viewed events to be saved");
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.warn("Interrupted while saving " + queued + " queued patient viewed events");
+		}
+		catch (Exception e) {
+			log.error("Failed to save " + queued + " queued patient viewed events", e);
+		}
+	}
+	
+	/**
+	 * @return the number of views waiting for the next flush
+	 */
+	public int getQueueDepth() {
+		synchronized (queueLock) {
+			return queueDepth;
+		}
+	}
+	
+	/**
+	 * @return the number of views dropped because the queue was full
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+	
+	/**
+	 * @return the number of views merged into an already queued view of the same patient by the same user
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount.get();
 	}
 	
 	/**
 	 * Processes the specified jms message
 	 * 
-	 * @should add the patient to the last viewed user property
+	 * @should add the patient to the last viewed patients
 	 * @should remove the first patient and add the new one to the start if the list is full
 	 * @should not add a duplicate and should move the existing patient to the start
 	 * @should not remove any patient if a duplicate is added to a full list
@@ -86,38 +341,9 @@ public class PatientViewedEventListener implements EventListener {
 			throw new APIException("failed to find a patient with uuid:" + patientUuid + " or the patient is not yet saved");
 		}
 		
-		UserService userService = Context.getUserService();
-		User user = userService.getUserByUuid(userUuid);
-		if (user != null && patientToAdd != null) {
-			EmrApiProperties emrProperties = Context.getRegisteredComponents(EmrApiProperties.class).iterator().next();
-			Integer limit = emrProperties.getLastViewedPatientSizeLimit();
-			List<Integer> patientIds = new ArrayList<Integer>(limit);
-			if (limit > 0) {
-				List<Patient> lastViewedPatients = GeneralUtils.getLastViewedPatients(user);
-				patientIds.add(patientToAdd.getId());
-				for (Patient p : lastViewedPatients) {
-					if (patientIds.size() == limit)
-						break;
-					if (patientIds.contains(p.getId()))
-						continue;
-					
-					patientIds.add(p.getId());
-				}
-				
-				Collections.reverse(patientIds);
-			}
-			
-			String property = StringUtils.join(patientIds, ",");
-			if (StringUtils.isNotBlank(property) && property.length() > 255) {
-				//exceeded the user property max size and hence needs trimming.
-				//find the last comma before index 255 and cut off from there
-				//RA-200 Wyclif says patients ids at the end of the string are the most recent
-				//so that is why we trim from begining instead of end.
-				property = property.substring(property.indexOf(',', property.length() - 255) + 1);
-			}
-			
-			userService.setUserProperty(user, EmrApiConstants.USER_PROPERTY_NAME_LAST_VIEWED_PATIENT_IDS,
-				property);
+		User user = Context.getUserService().getUserByUuid(userUuid);
+		if (user != null) {
+			Context.getService(EmrPatientService.class).addLastViewedPatients(user, Collections.singletonList(patientToAdd));
 		}
 	}
 }
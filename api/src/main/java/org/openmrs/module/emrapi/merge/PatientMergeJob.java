@@ -0,0 +1,134 @@
+package org.openmrs.module.emrapi.merge;
+
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * A patient merge that is carried out in the background by {@link PatientMergeJobQueue}, along with its progress. Jobs
+ * are only kept in memory.
+ */
+public class PatientMergeJob {
+
+    private final String uuid = UUID.randomUUID().toString();
+
+    private final String preferredPatientUuid;
+
+    private final String notPreferredPatientUuid;
+
+    private final String submittedBy;
+
+    private final Date dateSubmitted = new Date();
+
+    private volatile PatientMergeJobStatus status = PatientMergeJobStatus.QUEUED;
+
+    private volatile Date dateStarted;
+
+    private volatile Date dateFinished;
+
+    private volatile int visitsMerged;
+
+    private volatile int transactionsCommitted;
+
+    private volatile String error;
+
+    /**
+     * @param preferredPatientUuid
+     * @param notPreferredPatientUuid
+     * @param submittedBy the system id of the user who submitted the merge, who it is carried out as
+     */
+    public PatientMergeJob(String preferredPatientUuid, String notPreferredPatientUuid, String submittedBy) {
+        this.preferredPatientUuid = preferredPatientUuid;
+        this.notPreferredPatientUuid = notPreferredPatientUuid;
+        this.submittedBy = submittedBy;
+    }
+
+    public String getUuid() {
+        return uuid;
+    }
+
+    public String getPreferredPatientUuid() {
+        return preferredPatientUuid;
+    }
+
+    public String getNotPreferredPatientUuid() {
+        return notPreferredPatientUuid;
+    }
+
+    /**
+     * @return the system id of the user who submitted the merge
+     */
+    public String getSubmittedBy() {
+        return submittedBy;
+    }
+
+    public Date getDateSubmitted() {
+        return dateSubmitted;
+    }
+
+    public PatientMergeJobStatus getStatus() {
+        return status;
+    }
+
+    public Date getDateStarted() {
+        return dateStarted;
+    }
+
+    public Date getDateFinished() {
+        return dateFinished;
+    }
+
+    /**
+     * @return how many visits have been merged into overlapping ones so far
+     */
+    public int getVisitsMerged() {
+        return visitsMerged;
+    }
+
+    /**
+     * @return how many of the job's transactions have committed so far
+     */
+    public int getTransactionsCommitted() {
+        return transactionsCommitted;
+    }
+
+    /**
+     * @return why the job failed, or null if it hasn't
+     */
+    public String getError() {
+        return error;
+    }
+
+    public boolean isFinished() {
+        return status == PatientMergeJobStatus.COMPLETED || status == PatientMergeJobStatus.FAILED;
+    }
+
+    void started() {
+        dateStarted = new Date();
+        status = PatientMergeJobStatus.MERGING_VISITS;
+    }
+
+    void visitsMerged(int count) {
+        visitsMerged += count;
+        transactionsCommitted++;
+    }
+
+    void mergingPatients() {
+        status = PatientMergeJobStatus.MERGING_PATIENTS;
+    }
+
+    void completed() {
+        transactionsCommitted++;
+        finish(PatientMergeJobStatus.COMPLETED);
+    }
+
+    void failed(String error) {
+        this.error = error;
+        finish(PatientMergeJobStatus.FAILED);
+    }
+
+    private void finish(PatientMergeJobStatus status) {
+        dateFinished = new Date();
+        this.status = status;
+    }
+
+}
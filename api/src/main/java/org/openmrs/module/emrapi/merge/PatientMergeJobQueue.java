@@ -0,0 +1,252 @@
+package org.openmrs.module.emrapi.merge;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Patient;
+import org.openmrs.User;
+import org.openmrs.api.APIException;
+import org.openmrs.api.PatientService;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.emrapi.adt.AdtService;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Carries out patient merges in the background, one at a time and in the order they were submitted, so that large
+ * merges don't hold up (and time out) the request that asks for them. Each merge runs in its own daemon thread, as the
+ * user who submitted it.
+ * <p/>
+ * Overlapping visits are merged a batch at a time via
+ * {@link AdtService#mergeOverlappingVisits(org.openmrs.Patient, org.openmrs.Patient, int)}, each batch in its own
+ * transaction, and then the rest of the merge happens in one last transaction via
+ * {@link AdtService#mergePatients(org.openmrs.Patient, org.openmrs.Patient)}. Merges submitted within a transaction are
+ * only queued once it commits. Jobs wait in the queue until the module has started and handed over its daemon token.
+ * The jobs are kept in memory only.
+ */
+public class PatientMergeJobQueue {
+
+    private static final int MAX_TRACKED_JOBS = 1000;
+
+    protected final Log log = LogFactory.getLog(getClass());
+
+    private int visitsPerTransaction = 20;
+
+    private volatile DaemonToken daemonToken;
+
+    private Executor executor;
+
+    private AdtService adtService;
+
+    private PatientService patientService;
+
+    // guarded by this
+    private final LinkedList<PatientMergeJob> pending = new LinkedList<PatientMergeJob>();
+
+    // guarded by this
+    private boolean working = false;
+
+    private final Map<String, PatientMergeJob> jobs = Collections.synchronizedMap(
+            new LinkedHashMap<String, PatientMergeJob>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PatientMergeJob> eldest) {
+                    return size() > MAX_TRACKED_JOBS;
+                }
+            });
+
+    public void setVisitsPerTransaction(int visitsPerTransaction) {
+        this.visitsPerTransaction = Math.max(1, visitsPerTransaction);
+    }
+
+    /**
+     * Called by the module activator once the module has started (and with null once it stops)
+     *
+     * @param daemonToken
+     */
+    public void setDaemonToken(DaemonToken daemonToken) {
+        this.daemonToken = daemonToken;
+        if (daemonToken != null) {
+            startWorkerIfIdle();
+        }
+    }
+
+    // for testing
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    // for testing; by default these are looked up from the Context on the worker thread
+    public void setAdtService(AdtService adtService) {
+        this.adtService = adtService;
+    }
+
+    // for testing
+    public void setPatientService(PatientService patientService) {
+        this.patientService = patientService;
+    }
+
+    /**
+     * Queues a merge, after the current transaction commits if there is one
+     *
+     * @param preferred
+     * @param notPreferred
+     * @param submittedBy the user that the merge will be carried out as
+     * @return the queued job
+     */
+    public PatientMergeJob submit(Patient preferred, Patient notPreferred, User submittedBy) {
+        final PatientMergeJob job = new PatientMergeJob(preferred.getUuid(), notPreferred.getUuid(),
+                submittedBy.getSystemId());
+        jobs.put(job.getUuid(), job);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == TransactionSynchronization.STATUS_COMMITTED) {
+                        enqueue(job);
+                    } else {
+                        job.failed("The transaction that submitted the merge was rolled back");
+                    }
+                }
+            });
+        } else {
+            enqueue(job);
+        }
+        return job;
+    }
+
+    /**
+     * @param uuid
+     * @return the job, or null if there wasn't one recently
+     */
+    public PatientMergeJob getJob(String uuid) {
+        return jobs.get(uuid);
+    }
+
+    private void enqueue(PatientMergeJob job) {
+        synchronized (this) {
+            pending.add(job);
+        }
+        startWorkerIfIdle();
+    }
+
+    /**
+     * Starts the next queued job, unless one is already running. Each job runs in its own thread, and starts the next
+     * one when it finishes.
+     */
+    private void startWorkerIfIdle() {
+        final PatientMergeJob job;
+        Executor workerExecutor;
+        synchronized (this) {
+            workerExecutor = getExecutor();
+            if (working || workerExecutor == null || pending.isEmpty()) {
+                return;
+            }
+            job = pending.removeFirst();
+            working = true;
+        }
+        try {
+            workerExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        runJob(job);
+                    } finally {
+                        synchronized (PatientMergeJobQueue.this) {
+                            working = false;
+                        }
+                        startWorkerIfIdle();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                pending.addFirst(job);
+                working = false;
+            }
+            log.error("Failed to start the patient merge worker; merges stay queued", e);
+        }
+    }
+
+    private void runJob(PatientMergeJob job) {
+        job.started();
+        try {
+            becomeSubmitter(job);
+            int merged;
+            do {
+                merged = getAdtService().mergeOverlappingVisits(getPatient(job.getPreferredPatientUuid()),
+                        getPatient(job.getNotPreferredPatientUuid()), visitsPerTransaction);
+                job.visitsMerged(merged);
+                clearSession();
+            } while (merged >= visitsPerTransaction);
+
+            job.mergingPatients();
+            getAdtService().mergePatients(getPatient(job.getPreferredPatientUuid()),
+                    getPatient(job.getNotPreferredPatientUuid()));
+            job.completed();
+        } catch (Exception e) {
+            log.error("Failed to merge patient " + job.getNotPreferredPatientUuid() + " into "
+                    + job.getPreferredPatientUuid(), e);
+            job.failed(e.getMessage() == null ? e.getClass().getName() : e.getMessage());
+        } finally {
+            clearSession();
+        }
+    }
+
+    private Patient getPatient(String uuid) {
+        Patient patient = getPatientService().getPatientByUuid(uuid);
+        if (patient == null) {
+            throw new APIException("No patient with uuid " + uuid);
+        }
+        return patient;
+    }
+
+    /**
+     * Switches the (daemon) worker thread to the user who submitted the job, so that the merge is subject to their
+     * privileges and they are recorded as having made its changes. The thread ends with the job, so its user is never
+     * switched back.
+     */
+    protected void becomeSubmitter(PatientMergeJob job) {
+        Context.becomeUser(job.getSubmittedBy());
+    }
+
+    /**
+     * A job's thread holds one Hibernate session for the whole job, so this lets go of what each transaction loaded
+     */
+    protected void clearSession() {
+        Context.clearSession();
+    }
+
+    private AdtService getAdtService() {
+        return adtService != null ? adtService : Context.getService(AdtService.class);
+    }
+
+    private PatientService getPatientService() {
+        return patientService != null ? patientService : Context.getPatientService();
+    }
+
+    private Executor getExecutor() {
+        if (executor != null) {
+            return executor;
+        }
+        final DaemonToken token = daemonToken;
+        if (token == null) {
+            return null;
+        }
+        return new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                Daemon.runInDaemonThread(runnable, token);
+            }
+        };
+    }
+
+}
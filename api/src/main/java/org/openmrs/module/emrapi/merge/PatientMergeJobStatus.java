@@ -0,0 +1,32 @@
+package org.openmrs.module.emrapi.merge;
+
+/**
+ * Where a merge submitted via
+ * {@link org.openmrs.module.emrapi.adt.AdtService#submitPatientMerge(org.openmrs.Patient, org.openmrs.Patient)} is in
+ * being carried out
+ */
+public enum PatientMergeJobStatus {
+
+    /**
+     * Waiting for the transaction that submitted it to commit, or for the worker to finish earlier merges
+     */
+    QUEUED,
+
+    /**
+     * Merging overlapping visits, a few at a time, each batch in its own transaction
+     */
+    MERGING_VISITS,
+
+    /**
+     * Running the {@link PatientMergeAction}s and the core patient merge, in one transaction
+     */
+    MERGING_PATIENTS,
+
+    COMPLETED,
+
+    /**
+     * Gave up; visits merged in earlier transactions stay merged, and submitting the merge again carries on from there
+     */
+    FAILED
+
+}
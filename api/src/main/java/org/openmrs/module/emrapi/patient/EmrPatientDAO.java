@@ -17,8 +17,62 @@ import java.util.List;
 
 import org.openmrs.Location;
 import org.openmrs.Patient;
+import org.openmrs.User;
 
 public interface EmrPatientDAO {
 	
 	List<Patient> findPatients(String query, Location checkedInAt, Integer start, Integer length);
+	
+	/**
+	 * @param patientIds
+	 * @return the non-voided patients with the given ids, in the same order
+	 */
+	List<Patient> getPatients(List<Integer> patientIds);
+	
+	/**
+	 * @return the searchable identifiers and names of all non-voided patients, fetched without loading the patients
+	 */
+	List<IndexedPatient> getPatientsToIndex();
+	
+	/**
+	 * @return all open, non-voided visits, fetched without loading the visits
+	 */
+	List<OpenVisitRoster.OpenVisit> getOpenVisits();
+	
+	/**
+	 * @param user
+	 * @param start
+	 * @param length
+	 * @return the non-voided patients recently viewed by user, most recent first
+	 */
+	List<Patient> getRecentPatients(User user, Integer start, Integer length);
+	
+	/**
+	 * Records that user viewed some patients, and forgets all but the limit most recently viewed
+	 * 
+	 * @param user
+	 * @param viewed the patients user viewed, least recent first
+	 * @param limit
+	 */
+	void saveRecentPatients(User user, List<Patient> viewed, int limit);
+	
+	/**
+	 * Forgets that anyone viewed patient
+	 * 
+	 * @param patient
+	 */
+	void deleteRecentPatients(Patient patient);
+	
+	/**
+	 * Forgets the patients user viewed
+	 * 
+	 * @param user
+	 */
+	void deleteRecentPatients(User user);
+	
+	/**
+	 * @param property
+	 * @return the ids of the users who have a non-blank value for the given user property
+	 */
+	List<Integer> getUserIdsWithProperty(String property);
 }
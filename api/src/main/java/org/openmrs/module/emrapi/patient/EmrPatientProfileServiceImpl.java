@@ -4,13 +4,18 @@ import org.openmrs.Patient;
 import org.openmrs.api.PatientService;
 import org.openmrs.module.emrapi.person.image.EmrPersonImageService;
 import org.openmrs.module.emrapi.person.image.PersonImage;
+import org.springframework.transaction.annotation.Transactional;
 
 public class EmrPatientProfileServiceImpl implements EmrPatientProfileService {
 
     private PatientService patientService;
     private EmrPersonImageService emrPersonImageService;
     
+    /**
+     * The image, if any, is only staged here, and saved in the background once the patient has been committed
+     */
     @Override
+    @Transactional
     public PatientProfile save(PatientProfile patientProfile) {
         Patient patient = patientService.savePatient(patientProfile.getPatient());
         patientProfile.setPatient(patient);
@@ -19,7 +24,7 @@ public class EmrPatientProfileServiceImpl implements EmrPatientProfileService {
         personImage.setPerson(patient);
         personImage.setBase64EncodedImage(patientProfile.getImage());
         
-        emrPersonImageService.savePersonImage(personImage);
+        patientProfile.setImageStatus(emrPersonImageService.submitPersonImage(personImage));
         return patientProfile;
     }
 
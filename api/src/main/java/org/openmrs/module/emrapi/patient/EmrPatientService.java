@@ -17,6 +17,8 @@ import java.util.List;
 
 import org.openmrs.Location;
 import org.openmrs.Patient;
+import org.openmrs.User;
+import org.openmrs.Visit;
 
 /**
  * Public API for patient EMR-related functionality.
@@ -26,4 +28,66 @@ public interface EmrPatientService {
 	List<Patient> findPatients(String query, Location checkedInAt, Integer start, Integer length);
 	
 	Patient findPatientByPrimaryId(String primaryId);
+	
+	/**
+	 * Reloads the patient search index (if any) from the database. Until this has been done, searches go to the
+	 * database.
+	 */
+	void rebuildSearchIndex();
+	
+	/**
+	 * Brings the patient search index (if any) up to date with a saved patient
+	 * 
+	 * @param patient
+	 */
+	void updateSearchIndex(Patient patient);
+	
+	/**
+	 * Reloads the roster of checked-in patients (if any) from the database. Until this has been done, searches for
+	 * checked-in patients go to the database.
+	 */
+	void rebuildOpenVisitRoster();
+	
+	/**
+	 * Brings the roster of checked-in patients (if any) up to date with a saved visit
+	 * 
+	 * @param visit
+	 */
+	void updateOpenVisitRoster(Visit visit);
+	
+	/**
+	 * @param user
+	 * @param start
+	 * @param length
+	 * @return the patients last viewed by user, most recent first
+	 */
+	List<Patient> getLastViewedPatients(User user, Integer start, Integer length);
+	
+	/**
+	 * Records that user viewed some patients, keeping at most the configured number of last viewed patients
+	 * 
+	 * @param user
+	 * @param viewed the patients user viewed, least recent first
+	 */
+	void addLastViewedPatients(User user, List<Patient> viewed);
+	
+	/**
+	 * Moves the patients in every user's legacy last viewed patients user property into the recent patient store, and
+	 * removes the property. This is run once when the module starts.
+	 */
+	void migrateLastViewedPatientsProperties();
+	
+	/**
+	 * Forgets that anyone viewed patient, so that the patient can be purged
+	 * 
+	 * @param patient
+	 */
+	void purgeLastViewedPatient(Patient patient);
+	
+	/**
+	 * Forgets the patients user last viewed, so that the user can be purged
+	 * 
+	 * @param user
+	 */
+	void purgeLastViewedPatients(User user);
 }
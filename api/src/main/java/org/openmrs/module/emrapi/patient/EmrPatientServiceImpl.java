@@ -14,16 +14,26 @@
 package org.openmrs.module.emrapi.patient;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
 
 import org.openmrs.Location;
 import org.openmrs.Patient;
 import org.openmrs.PatientIdentifierType;
+import org.openmrs.User;
+import org.openmrs.Visit;
 import org.openmrs.api.APIException;
 import org.openmrs.api.PatientService;
+import org.openmrs.api.UserService;
 import org.openmrs.api.impl.BaseOpenmrsService;
+import org.openmrs.module.emrapi.EmrApiConstants;
 import org.openmrs.module.emrapi.EmrApiProperties;
 import org.openmrs.module.emrapi.adt.AdtService;
+import org.springframework.transaction.annotation.Transactional;
 
 public class EmrPatientServiceImpl extends BaseOpenmrsService implements EmrPatientService {
 	
@@ -33,8 +43,14 @@ public class EmrPatientServiceImpl extends BaseOpenmrsService implements EmrPati
 	
 	private PatientService patientService;
 	
+	private UserService userService;
+	
 	private AdtService adtService;
 	
+	private PatientSearchIndex searchIndex;
+	
+	private OpenVisitRoster openVisitRoster;
+	
 	public void setDao(EmrPatientDAO dao) {
 		this.dao = dao;
 	}
@@ -47,18 +63,74 @@ public class EmrPatientServiceImpl extends BaseOpenmrsService implements EmrPati
 		this.patientService = patientService;
 	}
 	
+	public void setUserService(UserService userService) {
+		this.userService = userService;
+	}
+	
 	public void setAdtService(AdtService adtService) {
 		this.adtService = adtService;
 	}
 	
+	public void setSearchIndex(PatientSearchIndex searchIndex) {
+		this.searchIndex = searchIndex;
+	}
+	
+	public void setOpenVisitRoster(OpenVisitRoster openVisitRoster) {
+		this.openVisitRoster = openVisitRoster;
+	}
+	
 	@Override
 	public List<Patient> findPatients(String query, Location checkedInAt, Integer start, Integer length) {
 		if (checkedInAt != null) {
 			checkedInAt = adtService.getLocationThatSupportsVisits(checkedInAt);
+			boolean hasQuery = StringUtils.isNotBlank(query);
+			if (isOpenVisitRosterReady() && (!hasQuery || isSearchIndexReady())) {
+				List<Integer> patientIds = openVisitRoster.getPatientIds(checkedInAt.getLocationId());
+				if (hasQuery) {
+					Set<Integer> checkedIn = new HashSet<Integer>(patientIds);
+					patientIds = new ArrayList<Integer>();
+					for (Integer patientId : findPatientIdsInSearchIndex(query)) {
+						if (checkedIn.contains(patientId)) {
+							patientIds.add(patientId);
+						}
+					}
+				}
+				return dao.getPatients(page(patientIds, start, length));
+			}
+		} else if (isSearchIndexReady() && StringUtils.isNotBlank(query)) {
+			return dao.getPatients(page(findPatientIdsInSearchIndex(query), start, length));
 		}
 		return dao.findPatients(query, checkedInAt, start, length);
 	}
 	
+	private List<Integer> findPatientIdsInSearchIndex(String query) {
+		if (query.matches(".*\\d.*")) {
+			// has at least one digit, so treat as an identifier
+			List<Integer> identifierTypeIds = new ArrayList<Integer>();
+			for (PatientIdentifierType identifierType : emrApiProperties.getIdentifierTypesToSearch()) {
+				identifierTypeIds.add(identifierType.getPatientIdentifierTypeId());
+			}
+			return searchIndex.findPatientIdsByIdentifier(query, identifierTypeIds, true);
+		} else {
+			// no digits, so treat as a name
+			return searchIndex.findPatientIdsByName(query);
+		}
+	}
+	
+	private List<Integer> page(List<Integer> patientIds, Integer start, Integer length) {
+		int from = start == null ? 0 : Math.min(start, patientIds.size());
+		int to = length == null ? patientIds.size() : Math.min(from + length, patientIds.size());
+		return patientIds.subList(from, to);
+	}
+	
+	private boolean isSearchIndexReady() {
+		return searchIndex != null && searchIndex.isReady();
+	}
+	
+	private boolean isOpenVisitRosterReady() {
+		return openVisitRoster != null && openVisitRoster.isReady();
+	}
+	
 	@Override
 	public Patient findPatientByPrimaryId(String primaryId) {
 		if (primaryId == null) {
@@ -71,6 +143,18 @@ public class EmrPatientServiceImpl extends BaseOpenmrsService implements EmrPati
 			throw new RuntimeException("primary identifier is not configured");
 		}
 		
+		if (isSearchIndexReady()) {
+			// the index may briefly lag behind saves, so a miss still goes to the database
+			List<Integer> patientIds = searchIndex.findPatientIdsByIdentifier(primaryId,
+			    Collections.singleton(primaryIdentifierType.getPatientIdentifierTypeId()), false);
+			if (!patientIds.isEmpty()) {
+				Patient patient = patientService.getPatient(patientIds.get(0));
+				if (patient != null && !patient.isVoided()) {
+					return patient;
+				}
+			}
+		}
+		
 		List<PatientIdentifierType> patientIdentifierTypes = new ArrayList<PatientIdentifierType>();
 		patientIdentifierTypes.add(primaryIdentifierType);
 		
@@ -82,4 +166,116 @@ public class EmrPatientServiceImpl extends BaseOpenmrsService implements EmrPati
 		
 		return patients.get(0);
 	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public void rebuildSearchIndex() {
+		if (searchIndex != null) {
+			searchIndex.beginLoad();
+			List<IndexedPatient> patients;
+			try {
+				patients = dao.getPatientsToIndex();
+			}
+			catch (RuntimeException e) {
+				searchIndex.clear();
+				throw e;
+			}
+			searchIndex.load(patients);
+		}
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public void updateSearchIndex(Patient patient) {
+		// an index that is being loaded replays this once it has loaded, and a cold one is replaced when loaded
+		if (searchIndex != null) {
+			IndexedPatient indexed = IndexedPatient.fromPatient(patient);
+			if (indexed == null) {
+				searchIndex.remove(patient.getPatientId());
+			} else {
+				searchIndex.update(indexed);
+			}
+		}
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public void rebuildOpenVisitRoster() {
+		if (openVisitRoster != null) {
+			openVisitRoster.beginLoad();
+			List<OpenVisitRoster.OpenVisit> openVisits;
+			try {
+				openVisits = dao.getOpenVisits();
+			}
+			catch (RuntimeException e) {
+				openVisitRoster.clear();
+				throw e;
+			}
+			openVisitRoster.load(openVisits);
+		}
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public void updateOpenVisitRoster(Visit visit) {
+		// a roster that is being loaded replays this once it has loaded, and a cold one is replaced when loaded
+		if (openVisitRoster != null) {
+			if (!visit.isVoided() && visit.getStopDatetime() == null && visit.getLocation() != null) {
+				openVisitRoster.visitOpened(new OpenVisitRoster.OpenVisit(visit.getVisitId(), visit.getPatient()
+				        .getPatientId(), visit.getLocation().getLocationId()));
+			} else {
+				openVisitRoster.visitClosed(visit.getVisitId());
+			}
+		}
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public List<Patient> getLastViewedPatients(User user, Integer start, Integer length) {
+		return dao.getRecentPatients(user, start, length);
+	}
+	
+	@Override
+	@Transactional
+	public void addLastViewedPatients(User user, List<Patient> viewed) {
+		dao.saveRecentPatients(user, viewed, emrApiProperties.getLastViewedPatientSizeLimit());
+	}
+	
+	@Override
+	@Transactional
+	public void migrateLastViewedPatientsProperties() {
+		for (Integer userId : dao.getUserIdsWithProperty(EmrApiConstants.USER_PROPERTY_NAME_LAST_VIEWED_PATIENT_IDS)) {
+			migrateLastViewedPatientsProperty(userService.getUser(userId));
+		}
+	}
+	
+	@Override
+	@Transactional
+	public void purgeLastViewedPatient(Patient patient) {
+		dao.deleteRecentPatients(patient);
+	}
+	
+	@Override
+	@Transactional
+	public void purgeLastViewedPatients(User user) {
+		dao.deleteRecentPatients(user);
+	}
+	
+	private void migrateLastViewedPatientsProperty(User user) {
+		String property = user.getUserProperty(EmrApiConstants.USER_PROPERTY_NAME_LAST_VIEWED_PATIENT_IDS);
+		if (StringUtils.isBlank(property)) {
+			return;
+		}
+		
+		// the property holds a comma-separated list of patient ids, least recent first
+		List<Integer> patientIds = new ArrayList<Integer>();
+		for (String patientId : property.replaceAll("\\s", "").split(",")) {
+			try {
+				patientIds.add(Integer.valueOf(patientId));
+			}
+			catch (NumberFormatException e) {}
+		}
+		dao.saveRecentPatients(user, dao.getPatients(patientIds), emrApiProperties.getLastViewedPatientSizeLimit());
+		userService.removeUserProperty(user, EmrApiConstants.USER_PROPERTY_NAME_LAST_VIEWED_PATIENT_IDS);
+	}
 }
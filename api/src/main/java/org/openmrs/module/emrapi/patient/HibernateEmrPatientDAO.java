@@ -14,16 +14,26 @@
 package org.openmrs.module.emrapi.patient;
 
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 import org.hibernate.Criteria;
+import org.hibernate.Query;
+import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.criterion.Property;
 import org.hibernate.criterion.Restrictions;
 import org.openmrs.Location;
 import org.openmrs.Patient;
 import org.openmrs.PatientIdentifierType;
+import org.openmrs.User;
 import org.openmrs.Visit;
 import org.openmrs.api.db.hibernate.PatientSearchCriteria;
 import org.openmrs.module.emrapi.EmrApiProperties;
@@ -72,6 +82,159 @@ public class HibernateEmrPatientDAO implements EmrPatientDAO {
 		return (List<Patient>) criteria.list();
 	}
 	
+	@Override
+	public List<Patient> getPatients(List<Integer> patientIds) {
+		if (patientIds.isEmpty()) {
+			return new ArrayList<Patient>();
+		}
+		
+		Criteria criteria = sessionFactory.getCurrentSession().createCriteria(Patient.class);
+		criteria.add(Restrictions.in("patientId", patientIds));
+		criteria.add(Restrictions.eq("voided", false));
+		
+		Map<Integer, Patient> patientsById = new HashMap<Integer, Patient>();
+		for (Patient patient : (List<Patient>) criteria.list()) {
+			patientsById.put(patient.getPatientId(), patient);
+		}
+		
+		List<Patient> patients = new ArrayList<Patient>(patientsById.size());
+		for (Integer patientId : patientIds) {
+			Patient patient = patientsById.get(patientId);
+			if (patient != null) {
+				patients.add(patient);
+			}
+		}
+		return patients;
+	}
+	
+	@Override
+	public List<IndexedPatient> getPatientsToIndex() {
+		Map<Integer, IndexedPatient> patients = new LinkedHashMap<Integer, IndexedPatient>();
+		
+		List<Object[]> names = sessionFactory.getCurrentSession().createQuery(
+		    "select patient.patientId, name.givenName, name.middleName, name.familyName, name.familyName2 "
+		            + "from Patient patient, PersonName name "
+		            + "where name.person.personId = patient.patientId and patient.voided = false and name.voided = false "
+		            + "order by patient.patientId").list();
+		for (Object[] row : names) {
+			getOrCreate(patients, (Integer) row[0]).addName((String) row[1], (String) row[2], (String) row[3],
+			    (String) row[4]);
+		}
+		
+		List<Object[]> identifiers = sessionFactory.getCurrentSession().createQuery(
+		    "select identifier.patient.patientId, identifier.identifierType.patientIdentifierTypeId, identifier.identifier "
+		            + "from PatientIdentifier identifier "
+		            + "where identifier.voided = false and identifier.patient.voided = false").list();
+		for (Object[] row : identifiers) {
+			getOrCreate(patients, (Integer) row[0]).addIdentifier((Integer) row[1], (String) row[2]);
+		}
+		
+		return new ArrayList<IndexedPatient>(patients.values());
+	}
+	
+	@Override
+	public List<OpenVisitRoster.OpenVisit> getOpenVisits() {
+		List<Object[]> rows = sessionFactory.getCurrentSession().createQuery(
+		    "select visit.visitId, visit.patient.patientId, visit.location.locationId from Visit visit "
+		            + "where visit.voided = false and visit.stopDatetime is null").list();
+		
+		List<OpenVisitRoster.OpenVisit> openVisits = new ArrayList<OpenVisitRoster.OpenVisit>(rows.size());
+		for (Object[] row : rows) {
+			openVisits.add(new OpenVisitRoster.OpenVisit((Integer) row[0], (Integer) row[1], (Integer) row[2]));
+		}
+		return openVisits;
+	}
+	
+	@Override
+	public List<Patient> getRecentPatients(User user, Integer start, Integer length) {
+		Query query = sessionFactory.getCurrentSession().createQuery(
+		    "select recent.patient from RecentPatient recent "
+		            + "where recent.user = :user and recent.patient.voided = false "
+		            + "order by recent.viewedAt desc, recent.recentPatientId desc");
+		query.setParameter("user", user);
+		if (start != null) {
+			query.setFirstResult(start);
+		}
+		if (length != null) {
+			query.setMaxResults(length);
+		}
+		return (List<Patient>) query.list();
+	}
+	
+	@Override
+	public void saveRecentPatients(User user, List<Patient> viewed, int limit) {
+		Session session = sessionFactory.getCurrentSession();
+		List<RecentPatient> recentPatients = session.createQuery(
+		    "from RecentPatient recent where recent.user = :user order by recent.viewedAt desc, recent.recentPatientId desc")
+		        .setParameter("user", user).list();
+		
+		// a patient viewed again is deleted and re-inserted, so that ids increase with recency even when the database
+		// doesn't store milliseconds
+		Set<Integer> viewedIds = new HashSet<Integer>();
+		for (Patient patient : viewed) {
+			viewedIds.add(patient.getPatientId());
+		}
+		for (Iterator<RecentPatient> i = recentPatients.iterator(); i.hasNext();) {
+			RecentPatient recentPatient = i.next();
+			if (viewedIds.contains(recentPatient.getPatient().getPatientId())) {
+				session.delete(recentPatient);
+				i.remove();
+			}
+		}
+		// Hibernate would otherwise insert before deleting, violating the unique (user, patient) constraint
+		session.flush();
+		
+		long now = System.currentTimeMillis();
+		Set<Integer> inserted = new HashSet<Integer>();
+		for (int i = viewed.size() - 1; i >= 0; --i) {
+			Patient patient = viewed.get(i);
+			if (inserted.add(patient.getPatientId())) {
+				recentPatients.add(inserted.size() - 1, new RecentPatient(user, patient, new Date(now - (viewed.size() - 1 - i))));
+			}
+		}
+		for (int i = inserted.size() - 1; i >= 0; --i) {
+			session.save(recentPatients.get(i));
+		}
+		
+		for (int i = Math.max(limit, 0); i < recentPatients.size(); ++i) {
+			session.delete(recentPatients.get(i));
+		}
+	}
+	
+	@Override
+	public void deleteRecentPatients(Patient patient) {
+		sessionFactory.getCurrentSession().createQuery("delete from RecentPatient recent where recent.patient = :patient")
+		        .setParameter("patient", patient).executeUpdate();
+	}
+	
+	@Override
+	public void deleteRecentPatients(User user) {
+		sessionFactory.getCurrentSession().createQuery("delete from RecentPatient recent where recent.user = :user")
+		        .setParameter("user", user).executeUpdate();
+	}
+	
+	@Override
+	public List<Integer> getUserIdsWithProperty(String property) {
+		// user properties are mapped as a map of strings, which HQL can't filter on by value
+		List<Number> userIds = sessionFactory.getCurrentSession().createSQLQuery(
+		    "select user_id from user_property where property = :property and property_value <> ''")
+		        .addSynchronizedQuerySpace("user_property").setParameter("property", property).list();
+		List<Integer> ret = new ArrayList<Integer>();
+		for (Number userId : userIds) {
+			ret.add(userId.intValue());
+		}
+		return ret;
+	}
+	
+	private IndexedPatient getOrCreate(Map<Integer, IndexedPatient> patients, Integer patientId) {
+		IndexedPatient patient = patients.get(patientId);
+		if (patient == null) {
+			patient = new IndexedPatient(patientId);
+			patients.put(patientId, patient);
+		}
+		return patient;
+	}
+	
 	private Criteria buildCriteria(String query, Criteria criteria) {
 		if (query.matches(".*\\d.*")) {
 			// has at least one digit, so treat as an identifier
@@ -0,0 +1,458 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.emrapi.patient;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * {@link PatientSearchIndex} held in memory:
+ * <ul>
+ *     <li>identifiers, normalized to upper case, are kept sorted, so exact and prefix hits are map lookups</li>
+ *     <li>name parts are normalized (lower case, without accents) and indexed as whole tokens (sorted, for prefix hits),
+ *     as trigrams (for substring hits) and by their Soundex code (for phonetic hits)</li>
+ * </ul>
+ */
+public class InMemoryPatientSearchIndex implements PatientSearchIndex {
+
+    private static final int EXACT = 4;
+
+    private static final int PREFIX = 3;
+
+    private static final int SUBSTRING = 2;
+
+    private static final int PHONETIC = 1;
+
+    // substring and phonetic matching on shorter words would match almost everyone
+    private static final int MIN_FUZZY_LENGTH = 3;
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+
+    private static final Pattern NAME_SEPARATORS = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private volatile boolean ready = false;
+
+    // updates (or removals, as null values) made since beginLoad, while a load is in progress; guarded by lock
+    private Map<Integer, IndexedPatient> pendingUpdates = null;
+
+    private final Map<Integer, IndexedPatient> patients = new HashMap<Integer, IndexedPatient>();
+
+    private final TreeMap<String, List<IdentifierEntry>> identifierEntries = new TreeMap<String, List<IdentifierEntry>>();
+
+    private final Map<Integer, Set<String>> nameTokensByPatientId = new HashMap<Integer, Set<String>>();
+
+    private final TreeMap<String, Set<Integer>> patientIdsByNameToken = new TreeMap<String, Set<Integer>>();
+
+    private final Map<String, Set<Integer>> patientIdsByTrigram = new HashMap<String, Set<Integer>>();
+
+    private final Map<String, Set<Integer>> patientIdsBySoundex = new HashMap<String, Set<Integer>>();
+
+    @Override
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public void beginLoad() {
+        lock.writeLock().lock();
+        try {
+            if (pendingUpdates == null) {
+                pendingUpdates = new LinkedHashMap<Integer, IndexedPatient>();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void load(Collection<IndexedPatient> toLoad) {
+        lock.writeLock().lock();
+        try {
+            clearContents();
+            for (IndexedPatient patient : toLoad) {
+                add(patient);
+            }
+            // the loaded patients may have been read before these were made
+            if (pendingUpdates != null) {
+                for (Map.Entry<Integer, IndexedPatient> pending : pendingUpdates.entrySet()) {
+                    removeContents(pending.getKey());
+                    if (pending.getValue() != null) {
+                        add(pending.getValue());
+                    }
+                }
+                pendingUpdates = null;
+            }
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void update(IndexedPatient patient) {
+        lock.writeLock().lock();
+        try {
+            if (pendingUpdates != null) {
+                pendingUpdates.put(patient.getPatientId(), patient);
+            }
+            removeContents(patient.getPatientId());
+            add(patient);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(Integer patientId) {
+        lock.writeLock().lock();
+        try {
+            if (pendingUpdates != null) {
+                pendingUpdates.put(patientId, null);
+            }
+            removeContents(patientId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            ready = false;
+            pendingUpdates = null;
+            clearContents();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Integer> findPatientIdsByIdentifier(String identifier, Collection<Integer> identifierTypeIds, boolean includePrefixMatches) {
+        String key = normalizeIdentifier(identifier);
+        if (key.length() == 0) {
+            return Collections.emptyList();
+        }
+        Set<Integer> typeIds = identifierTypeIds == null || identifierTypeIds.isEmpty() ? null : new HashSet<Integer>(identifierTypeIds);
+
+        Set<Integer> patientIds = new LinkedHashSet<Integer>();
+        lock.readLock().lock();
+        try {
+            addMatches(identifierEntries.get(key), typeIds, patientIds);
+            if (includePrefixMatches) {
+                for (List<IdentifierEntry> entries : identifierEntries.subMap(key, false, key + Character.MAX_VALUE, false).values()) {
+                    addMatches(entries, typeIds, patientIds);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new ArrayList<Integer>(patientIds);
+    }
+
+    @Override
+    public List<Integer> findPatientIdsByName(String name) {
+        Set<String> words = tokenize(name);
+        if (words.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Map<Integer, Integer> scores = null;
+        lock.readLock().lock();
+        try {
+            for (String word : words) {
+                Map<Integer, Integer> wordScores = scoreWord(word);
+                if (scores == null) {
+                    scores = wordScores;
+                } else {
+                    // every word has to match
+                    for (Iterator<Map.Entry<Integer, Integer>> i = scores.entrySet().iterator(); i.hasNext(); ) {
+                        Map.Entry<Integer, Integer> entry = i.next();
+                        Integer wordScore = wordScores.get(entry.getKey());
+                        if (wordScore == null) {
+                            i.remove();
+                        } else {
+                            entry.setValue(entry.getValue() + wordScore);
+                        }
+                    }
+                }
+                if (scores.isEmpty()) {
+                    break;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        final Map<Integer, Integer> finalScores = scores;
+        List<Integer> patientIds = new ArrayList<Integer>(finalScores.keySet());
+        Collections.sort(patientIds, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer left, Integer right) {
+                int byScore = finalScores.get(right).compareTo(finalScores.get(left));
+                return byScore != 0 ? byScore : left.compareTo(right);
+            }
+        });
+        return patientIds;
+    }
+
+    private Map<Integer, Integer> scoreWord(String word) {
+        Map<Integer, Integer> scores = new HashMap<Integer, Integer>();
+        if (word.length() >= MIN_FUZZY_LENGTH) {
+            addScores(patientIdsBySoundex.get(soundex(word)), PHONETIC, scores);
+            for (Integer patientId : getSubstringCandidates(word)) {
+                for (String token : nameTokensByPatientId.get(patientId)) {
+                    if (token.contains(word)) {
+                        addScore(patientId, SUBSTRING, scores);
+                        break;
+                    }
+                }
+            }
+        }
+        for (Set<Integer> patientIds : patientIdsByNameToken.subMap(word, false, word + Character.MAX_VALUE, false).values()) {
+            addScores(patientIds, PREFIX, scores);
+        }
+        addScores(patientIdsByNameToken.get(word), EXACT, scores);
+        return scores;
+    }
+
+    private Set<Integer> getSubstringCandidates(String word) {
+        Set<Integer> candidates = null;
+        for (String trigram : trigrams(word)) {
+            Set<Integer> patientIds = patientIdsByTrigram.get(trigram);
+            if (patientIds == null) {
+                return Collections.emptySet();
+            }
+            if (candidates == null) {
+                candidates = new HashSet<Integer>(patientIds);
+            } else {
+                candidates.retainAll(patientIds);
+            }
+            if (candidates.isEmpty()) {
+                break;
+            }
+        }
+        return candidates;
+    }
+
+    private void addScores(Set<Integer> patientIds, int score, Map<Integer, Integer> scores) {
+        if (patientIds != null) {
+            for (Integer patientId : patientIds) {
+                addScore(patientId, score, scores);
+            }
+        }
+    }
+
+    // a word counts once, for its best match
+    private void addScore(Integer patientId, int score, Map<Integer, Integer> scores) {
+        Integer existing = scores.get(patientId);
+        if (existing == null || existing < score) {
+            scores.put(patientId, score);
+        }
+    }
+
+    private void addMatches(List<IdentifierEntry> entries, Set<Integer> typeIds, Set<Integer> patientIds) {
+        if (entries != null) {
+            for (IdentifierEntry entry : entries) {
+                if (typeIds == null || typeIds.contains(entry.identifierTypeId)) {
+                    patientIds.add(entry.patientId);
+                }
+            }
+        }
+    }
+
+    private void add(IndexedPatient patient) {
+        Integer patientId = patient.getPatientId();
+        patients.put(patientId, patient);
+
+        for (int i = 0; i < patient.getIdentifierCount(); ++i) {
+            String key = normalizeIdentifier(patient.getIdentifier(i));
+            List<IdentifierEntry> entries = identifierEntries.get(key);
+            if (entries == null) {
+                entries = new ArrayList<IdentifierEntry>(1);
+                identifierEntries.put(key, entries);
+            }
+            entries.add(new IdentifierEntry(patientId, patient.getIdentifierTypeId(i)));
+        }
+
+        Set<String> tokens = new HashSet<String>();
+        for (String name : patient.getNames()) {
+            tokens.addAll(tokenize(name));
+        }
+        nameTokensByPatientId.put(patientId, tokens);
+        for (String token : tokens) {
+            addToIndex(patientIdsByNameToken, token, patientId);
+            addToIndex(patientIdsBySoundex, soundex(token), patientId);
+            for (String trigram : trigrams(token)) {
+                addToIndex(patientIdsByTrigram, trigram, patientId);
+            }
+        }
+    }
+
+    private void removeContents(Integer patientId) {
+        IndexedPatient patient = patients.remove(patientId);
+        if (patient == null) {
+            return;
+        }
+
+        for (int i = 0; i < patient.getIdentifierCount(); ++i) {
+            String key = normalizeIdentifier(patient.getIdentifier(i));
+            List<IdentifierEntry> entries = identifierEntries.get(key);
+            if (entries != null) {
+                for (Iterator<IdentifierEntry> iterator = entries.iterator(); iterator.hasNext(); ) {
+                    if (iterator.next().patientId == patientId.intValue()) {
+                        iterator.remove();
+                    }
+                }
+                if (entries.isEmpty()) {
+                    identifierEntries.remove(key);
+                }
+            }
+        }
+
+        for (String token : nameTokensByPatientId.remove(patientId)) {
+            removeFromIndex(patientIdsByNameToken, token, patientId);
+            removeFromIndex(patientIdsBySoundex, soundex(token), patientId);
+            for (String trigram : trigrams(token)) {
+                removeFromIndex(patientIdsByTrigram, trigram, patientId);
+            }
+        }
+    }
+
+    private void clearContents() {
+        patients.clear();
+        identifierEntries.clear();
+        nameTokensByPatientId.clear();
+        patientIdsByNameToken.clear();
+        patientIdsByTrigram.clear();
+        patientIdsBySoundex.clear();
+    }
+
+    private void addToIndex(Map<String, Set<Integer>> index, String key, Integer patientId) {
+        if (key == null) {
+            return;
+        }
+        Set<Integer> patientIds = index.get(key);
+        if (patientIds == null) {
+            patientIds = new HashSet<Integer>();
+            index.put(key, patientIds);
+        }
+        patientIds.add(patientId);
+    }
+
+    private void removeFromIndex(Map<String, Set<Integer>> index, String key, Integer patientId) {
+        if (key == null) {
+            return;
+        }
+        Set<Integer> patientIds = index.get(key);
+        if (patientIds != null) {
+            patientIds.remove(patientId);
+            if (patientIds.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    static String normalizeIdentifier(String identifier) {
+        return identifier == null ? "" : identifier.trim().toUpperCase();
+    }
+
+    static Set<String> tokenize(String name) {
+        Set<String> tokens = new LinkedHashSet<String>();
+        if (name != null) {
+            String normalized = DIACRITICS.matcher(Normalizer.normalize(name, Normalizer.Form.NFD)).replaceAll("").toLowerCase();
+            for (String token : NAME_SEPARATORS.split(normalized)) {
+                if (token.length() > 0) {
+                    tokens.add(token);
+                }
+            }
+        }
+        return tokens;
+    }
+
+    static List<String> trigrams(String token) {
+        List<String> trigrams = new ArrayList<String>();
+        for (int i = 0; i + 3 <= token.length(); ++i) {
+            trigrams.add(token.substring(i, i + 3));
+        }
+        return trigrams;
+    }
+
+    /**
+     * American Soundex, ignoring anything that is not a letter from a to z
+     *
+     * @param token a normalized name part
+     * @return the four-character code, or null if token has no letters
+     */
+    static String soundex(String token) {
+        //                   abcdefghijklmnopqrstuvwxyz
+        final String codes = "01230120022455012623010202";
+        StringBuilder code = new StringBuilder(4);
+        char previous = 0;
+        for (int i = 0; i < token.length() && code.length() < 4; ++i) {
+            char c = token.charAt(i);
+            if (c < 'a' || c > 'z') {
+                continue;
+            }
+            char digit = codes.charAt(c - 'a');
+            if (code.length() == 0) {
+                code.append(Character.toUpperCase(c));
+            } else if (digit != '0' && digit != previous) {
+                code.append(digit);
+            }
+            // h and w don't separate letters with the same code, but vowels do
+            if (c != 'h' && c != 'w') {
+                previous = digit;
+            }
+        }
+        if (code.length() == 0) {
+            return null;
+        }
+        while (code.length() < 4) {
+            code.append('0');
+        }
+        return code.toString();
+    }
+
+    private static class IdentifierEntry {
+
+        private final int patientId;
+
+        private final Integer identifierTypeId;
+
+        IdentifierEntry(int patientId, Integer identifierTypeId) {
+            this.patientId = patientId;
+            this.identifierTypeId = identifierTypeId;
+        }
+
+    }
+
+}
@@ -0,0 +1,100 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.emrapi.patient;
+
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.PersonName;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The searchable parts of a patient, as held by a {@link PatientSearchIndex}: non-voided identifiers (with their types)
+ * and the parts of non-voided names. Holding only ids and strings means an index never keeps Hibernate entities alive.
+ */
+public class IndexedPatient {
+
+    private final Integer patientId;
+
+    private final List<Integer> identifierTypeIds = new ArrayList<Integer>();
+
+    private final List<String> identifiers = new ArrayList<String>();
+
+    private final List<String> names = new ArrayList<String>();
+
+    public IndexedPatient(Integer patientId) {
+        this.patientId = patientId;
+    }
+
+    /**
+     * @param patient a saved patient
+     * @return the searchable parts of patient, or null if the patient is voided (and so shouldn't be found)
+     */
+    public static IndexedPatient fromPatient(Patient patient) {
+        if (patient.isVoided()) {
+            return null;
+        }
+        IndexedPatient indexed = new IndexedPatient(patient.getPatientId());
+        for (PatientIdentifier identifier : patient.getIdentifiers()) {
+            if (!identifier.isVoided()) {
+                indexed.addIdentifier(identifier.getIdentifierType().getPatientIdentifierTypeId(), identifier.getIdentifier());
+            }
+        }
+        for (PersonName name : patient.getNames()) {
+            if (!name.isVoided()) {
+                indexed.addName(name.getGivenName(), name.getMiddleName(), name.getFamilyName(), name.getFamilyName2());
+            }
+        }
+        return indexed;
+    }
+
+    public void addIdentifier(Integer identifierTypeId, String identifier) {
+        if (StringUtils.isNotBlank(identifier)) {
+            identifierTypeIds.add(identifierTypeId);
+            identifiers.add(identifier);
+        }
+    }
+
+    public void addName(String... nameParts) {
+        for (String namePart : nameParts) {
+            if (StringUtils.isNotBlank(namePart)) {
+                names.add(namePart);
+            }
+        }
+    }
+
+    public Integer getPatientId() {
+        return patientId;
+    }
+
+    public int getIdentifierCount() {
+        return identifiers.size();
+    }
+
+    public Integer getIdentifierTypeId(int i) {
+        return identifierTypeIds.get(i);
+    }
+
+    public String getIdentifier(int i) {
+        return identifiers.get(i);
+    }
+
+    public List<String> getNames() {
+        return Collections.unmodifiableList(names);
+    }
+
+}
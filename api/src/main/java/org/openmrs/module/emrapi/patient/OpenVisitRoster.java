@@ -0,0 +1,183 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.emrapi.patient;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * In-memory roster of the patients with an open visit at each visit location, i.e. the patients who are checked in
+ * there. It is kept up to date incrementally from visit events, and reconciled periodically against the database (see
+ * {@link ReconcileOpenVisitRosterTask}), which also fixes up anything missed while the two raced.
+ * <p/>
+ * Like {@link PatientSearchIndex}, the roster is "cold" until it has been loaded, and changes made while it is being
+ * loaded are replayed over the loaded visits.
+ */
+public class OpenVisitRoster {
+
+    private boolean ready = false;
+
+    // visits opened (or closed, as null values) since beginLoad, while a load is in progress
+    private Map<Integer, OpenVisit> pendingChanges = null;
+
+    private final Map<Integer, OpenVisit> openVisitsById = new HashMap<Integer, OpenVisit>();
+
+    // location id -> (visit id -> patient id), ordered by visit id, so roughly by when patients checked in
+    private final Map<Integer, TreeMap<Integer, Integer>> patientIdsByVisitIdByLocationId = new HashMap<Integer, TreeMap<Integer, Integer>>();
+
+    public synchronized boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Called before reading the visits to load, so that changes made from then on are replayed over the loaded visits
+     * instead of being lost
+     */
+    public synchronized void beginLoad() {
+        if (pendingChanges == null) {
+            pendingChanges = new LinkedHashMap<Integer, OpenVisit>();
+        }
+    }
+
+    /**
+     * Replaces the contents of the roster, replays the changes made since {@link #beginLoad()}, and marks the roster
+     * as ready
+     *
+     * @param openVisits all open, non-voided visits
+     */
+    public synchronized void load(Collection<OpenVisit> openVisits) {
+        openVisitsById.clear();
+        patientIdsByVisitIdByLocationId.clear();
+        for (OpenVisit openVisit : openVisits) {
+            add(openVisit);
+        }
+        // the loaded visits may have been read before these were made
+        if (pendingChanges != null) {
+            for (Map.Entry<Integer, OpenVisit> pending : pendingChanges.entrySet()) {
+                remove(pending.getKey());
+                if (pending.getValue() != null) {
+                    add(pending.getValue());
+                }
+            }
+            pendingChanges = null;
+        }
+        ready = true;
+    }
+
+    /**
+     * Empties the roster and marks it as cold, e.g. when a load has failed
+     */
+    public synchronized void clear() {
+        ready = false;
+        pendingChanges = null;
+        openVisitsById.clear();
+        patientIdsByVisitIdByLocationId.clear();
+    }
+
+    /**
+     * Records that a visit is open (which also handles it having moved to another patient or location)
+     *
+     * @param openVisit
+     */
+    public synchronized void visitOpened(OpenVisit openVisit) {
+        if (pendingChanges != null) {
+            pendingChanges.put(openVisit.getVisitId(), openVisit);
+        }
+        remove(openVisit.getVisitId());
+        add(openVisit);
+    }
+
+    /**
+     * Records that a visit has been closed, voided or purged
+     *
+     * @param visitId
+     */
+    public synchronized void visitClosed(Integer visitId) {
+        if (pendingChanges != null) {
+            pendingChanges.put(visitId, null);
+        }
+        remove(visitId);
+    }
+
+    /**
+     * @param locationId a visit location
+     * @return ids of the patients with an open visit at the location, in the order they checked in
+     */
+    public synchronized List<Integer> getPatientIds(Integer locationId) {
+        TreeMap<Integer, Integer> patientIdsByVisitId = patientIdsByVisitIdByLocationId.get(locationId);
+        if (patientIdsByVisitId == null) {
+            return new ArrayList<Integer>();
+        }
+        // a patient could have more than one open visit
+        Set<Integer> patientIds = new LinkedHashSet<Integer>(patientIdsByVisitId.values());
+        return new ArrayList<Integer>(patientIds);
+    }
+
+    private void add(OpenVisit openVisit) {
+        openVisitsById.put(openVisit.getVisitId(), openVisit);
+        TreeMap<Integer, Integer> patientIdsByVisitId = patientIdsByVisitIdByLocationId.get(openVisit.getLocationId());
+        if (patientIdsByVisitId == null) {
+            patientIdsByVisitId = new TreeMap<Integer, Integer>();
+            patientIdsByVisitIdByLocationId.put(openVisit.getLocationId(), patientIdsByVisitId);
+        }
+        patientIdsByVisitId.put(openVisit.getVisitId(), openVisit.getPatientId());
+    }
+
+    private void remove(Integer visitId) {
+        OpenVisit existing = openVisitsById.remove(visitId);
+        if (existing != null) {
+            TreeMap<Integer, Integer> patientIdsByVisitId = patientIdsByVisitIdByLocationId.get(existing.getLocationId());
+            patientIdsByVisitId.remove(visitId);
+            if (patientIdsByVisitId.isEmpty()) {
+                patientIdsByVisitIdByLocationId.remove(existing.getLocationId());
+            }
+        }
+    }
+
+    public static class OpenVisit {
+
+        private final Integer visitId;
+
+        private final Integer patientId;
+
+        private final Integer locationId;
+
+        public OpenVisit(Integer visitId, Integer patientId, Integer locationId) {
+            this.visitId = visitId;
+            this.patientId = patientId;
+            this.locationId = locationId;
+        }
+
+        public Integer getVisitId() {
+            return visitId;
+        }
+
+        public Integer getPatientId() {
+            return patientId;
+        }
+
+        public Integer getLocationId() {
+            return locationId;
+        }
+
+    }
+
+}
@@ -0,0 +1,103 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.emrapi.patient;
+
+import javax.jms.MapMessage;
+import javax.jms.Message;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Visit;
+import org.openmrs.api.context.Context;
+import org.openmrs.event.Event;
+import org.openmrs.event.EventListener;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.emrapi.utils.SerialDaemonExecutor;
+
+/**
+ * Listens for visit events (including visits being moved by a patient merge), and keeps the open visit roster in sync
+ * with the saved visit
+ */
+public class OpenVisitRosterListener implements EventListener {
+	
+	protected final Log log = LogFactory.getLog(getClass());
+	
+	// one worker, so that events are applied in order, and not concurrently with a rebuild
+	private SerialDaemonExecutor executor;
+	
+	public OpenVisitRosterListener(DaemonToken token) {
+		executor = new SerialDaemonExecutor(token);
+	}
+	
+	/**
+	 * Loads the roster in the background
+	 */
+	public void rebuildInBackground() {
+		executor.execute(new Runnable() {
+			
+			@Override
+			public void run() {
+				try {
+					Context.getService(EmrPatientService.class).rebuildOpenVisitRoster();
+				}
+				catch (Exception e) {
+					log.error("Failed to build the open visit roster", e);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * @see EventListener#onMessage(javax.jms.Message)
+	 * @param message
+	 */
+	@Override
+	public void onMessage(final Message message) {
+		executor.execute(new Runnable() {
+			
+			@Override
+			public void run() {
+				try {
+					processMessage(message);
+				}
+				catch (Exception e) {
+					log.error("Failed to update the open visit roster", e);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Discards the events that haven't been applied yet
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+	
+	public void processMessage(Message message) throws Exception {
+		MapMessage mapMessage = (MapMessage) message;
+		EmrPatientService emrPatientService = Context.getService(EmrPatientService.class);
+		
+		if (Event.Action.PURGED.name().equals(mapMessage.getString("action"))) {
+			// we can no longer tell which visit was affected
+			emrPatientService.rebuildOpenVisitRoster();
+			return;
+		}
+		
+		Visit visit = Context.getVisitService().getVisitByUuid(mapMessage.getString("uuid"));
+		if (visit != null) {
+			emrPatientService.updateOpenVisitRoster(visit);
+		}
+	}
+}
@@ -2,11 +2,13 @@ package org.openmrs.module.emrapi.patient;
 
 import org.openmrs.Patient;
 import org.openmrs.module.emrapi.person.image.PersonImage;
+import org.openmrs.module.emrapi.person.image.PersonImageIngestStatus;
 
 public class PatientProfile {
 
     private PersonImage personImage = new PersonImage();
     private Patient patient;
+    private PersonImageIngestStatus imageStatus = PersonImageIngestStatus.NONE;
 
     public PatientProfile() {
     }
@@ -28,4 +30,12 @@ public class PatientProfile {
         this.personImage.setPerson(patient);
     }
 
+    public String getImageStatus() {
+        return imageStatus.name();
+    }
+
+    public void setImageStatus(PersonImageIngestStatus imageStatus) {
+        this.imageStatus = imageStatus;
+    }
+
 }
@@ -0,0 +1,84 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.emrapi.patient;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An index that answers patient searches by identifier or name without querying the database. Implementations must be
+ * thread-safe. Results are patient ids, best match first; callers load the patients themselves.
+ * <p/>
+ * An index is "cold" until it has been loaded, and callers should fall back to querying the database while it is.
+ */
+public interface PatientSearchIndex {
+
+    /**
+     * @return true if the index has been loaded, and can answer searches
+     */
+    boolean isReady();
+
+    /**
+     * Called before reading the patients to load, so that updates and removals made from then on are replayed over the
+     * loaded patients instead of being lost
+     */
+    void beginLoad();
+
+    /**
+     * Replaces the contents of the index, replays the updates and removals made since {@link #beginLoad()}, and marks
+     * the index as ready
+     *
+     * @param patients all non-voided patients
+     */
+    void load(Collection<IndexedPatient> patients);
+
+    /**
+     * Adds or replaces a single patient, remembering this for replay while a load is in progress
+     *
+     * @param patient
+     */
+    void update(IndexedPatient patient);
+
+    /**
+     * Removes a single patient, e.g. after it has been voided, remembering this for replay while a load is in
+     * progress
+     *
+     * @param patientId
+     */
+    void remove(Integer patientId);
+
+    /**
+     * Empties the index and marks it as cold, e.g. when it can no longer be kept in sync incrementally, or when a load
+     * has failed
+     */
+    void clear();
+
+    /**
+     * @param identifier
+     * @param identifierTypeIds only consider identifiers of these types, or of any type if null or empty
+     * @param includePrefixMatches whether to also return identifiers starting with identifier, after exact matches
+     * @return ids of patients with a matching identifier
+     */
+    List<Integer> findPatientIdsByIdentifier(String identifier, Collection<Integer> identifierTypeIds, boolean includePrefixMatches);
+
+    /**
+     * Every word of the query must match (exactly, as a prefix, as a substring, or phonetically) some part of one of
+     * the patient's names. Closer matches come first.
+     *
+     * @param name
+     * @return ids of patients with matching names
+     */
+    List<Integer> findPatientIdsByName(String name);
+
+}
@@ -0,0 +1,118 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.emrapi.patient;
+
+import javax.jms.MapMessage;
+import javax.jms.Message;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.PersonName;
+import org.openmrs.api.context.Context;
+import org.openmrs.event.Event;
+import org.openmrs.event.EventListener;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.emrapi.utils.SerialDaemonExecutor;
+
+/**
+ * Listens for patient, patient identifier and person name events, and keeps the patient search index in sync with the
+ * saved patient
+ */
+public class PatientSearchIndexListener implements EventListener {
+	
+	protected final Log log = LogFactory.getLog(getClass());
+	
+	// one worker, so that events are applied in order, and not concurrently with a rebuild
+	private SerialDaemonExecutor executor;
+	
+	public PatientSearchIndexListener(DaemonToken token) {
+		executor = new SerialDaemonExecutor(token);
+	}
+	
+	/**
+	 * Loads the search index in the background, since it reads all patients' names and identifiers
+	 */
+	public void rebuildInBackground() {
+		executor.execute(new Runnable() {
+			
+			@Override
+			public void run() {
+				try {
+					Context.getService(EmrPatientService.class).rebuildSearchIndex();
+				}
+				catch (Exception e) {
+					log.error("Failed to build the patient search index", e);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * @see EventListener#onMessage(javax.jms.Message)
+	 * @param message
+	 */
+	@Override
+	public void onMessage(final Message message) {
+		executor.execute(new Runnable() {
+			
+			@Override
+			public void run() {
+				try {
+					processMessage(message);
+				}
+				catch (Exception e) {
+					log.error("Failed to update the patient search index", e);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Discards the events that haven't been applied yet
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+	
+	public void processMessage(Message message) throws Exception {
+		MapMessage mapMessage = (MapMessage) message;
+		String uuid = mapMessage.getString("uuid");
+		String classname = mapMessage.getString("classname");
+		EmrPatientService emrPatientService = Context.getService(EmrPatientService.class);
+		
+		if (Event.Action.PURGED.name().equals(mapMessage.getString("action"))) {
+			// we can no longer tell which patient was affected
+			emrPatientService.rebuildSearchIndex();
+			return;
+		}
+		
+		Patient patient = null;
+		if (PatientIdentifier.class.getName().equals(classname)) {
+			PatientIdentifier identifier = Context.getPatientService().getPatientIdentifierByUuid(uuid);
+			patient = identifier == null ? null : identifier.getPatient();
+		} else if (PersonName.class.getName().equals(classname)) {
+			PersonName name = Context.getPersonService().getPersonNameByUuid(uuid);
+			// names of people who aren't patients aren't indexed
+			patient = name == null ? null : Context.getPatientService().getPatient(name.getPerson().getPersonId());
+		} else {
+			patient = Context.getPatientService().getPatientByUuid(uuid);
+		}
+		
+		if (patient != null) {
+			emrPatientService.updateSearchIndex(patient);
+		}
+	}
+}
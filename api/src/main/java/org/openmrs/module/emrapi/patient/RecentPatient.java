@@ -0,0 +1,75 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.emrapi.patient;
+
+import org.openmrs.Patient;
+import org.openmrs.User;
+
+import java.util.Date;
+
+/**
+ * A patient recently viewed by a user, stored in the emrapi_recent_patient table
+ */
+public class RecentPatient {
+
+    private Integer recentPatientId;
+
+    private User user;
+
+    private Patient patient;
+
+    private Date viewedAt;
+
+    public RecentPatient() {
+    }
+
+    public RecentPatient(User user, Patient patient, Date viewedAt) {
+        this.user = user;
+        this.patient = patient;
+        this.viewedAt = viewedAt;
+    }
+
+    public Integer getRecentPatientId() {
+        return recentPatientId;
+    }
+
+    public void setRecentPatientId(Integer recentPatientId) {
+        this.recentPatientId = recentPatientId;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public void setUser(User user) {
+        this.user = user;
+    }
+
+    public Patient getPatient() {
+        return patient;
+    }
+
+    public void setPatient(Patient patient) {
+        this.patient = patient;
+    }
+
+    public Date getViewedAt() {
+        return viewedAt;
+    }
+
+    public void setViewedAt(Date viewedAt) {
+        this.viewedAt = viewedAt;
+    }
+
+}
@@ -0,0 +1,37 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.emrapi.patient;
+
+import java.lang.reflect.Method;
+
+import org.openmrs.Patient;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
+import org.springframework.aop.MethodBeforeAdvice;
+
+/**
+ * Advises PatientService.purgePatient and UserService.purgeUser, deleting the recent patient rows that reference the
+ * patient or user first, since the database would otherwise refuse to purge them
+ */
+public class RecentPatientPurgeAdvice implements MethodBeforeAdvice {
+	
+	@Override
+	public void before(Method method, Object[] args, Object target) throws Throwable {
+		if (method.getName().equals("purgePatient") && args.length > 0 && args[0] instanceof Patient) {
+			Context.getService(EmrPatientService.class).purgeLastViewedPatient((Patient) args[0]);
+		} else if (method.getName().equals("purgeUser") && args.length > 0 && args[0] instanceof User) {
+			Context.getService(EmrPatientService.class).purgeLastViewedPatients((User) args[0]);
+		}
+	}
+}
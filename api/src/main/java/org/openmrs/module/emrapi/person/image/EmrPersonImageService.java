@@ -29,6 +29,40 @@ public interface EmrPersonImageService extends OpenmrsService {
      */
     public PersonImage savePersonImage(PersonImage personImage);
 
+    /**
+     * Stages the provided base64-encoded image, and saves it in the background once the current transaction (if any)
+     * commits.
+     *
+     * @return the status of the submitted image
+     * @throws org.openmrs.api.APIException
+     *          if the image cannot be staged, e.g. because it isn't in a supported format
+     */
+    public PersonImageIngestStatus submitPersonImage(PersonImage personImage);
+
+    /**
+     * @return the status of the last image submitted via {@link #submitPersonImage(PersonImage)} for person
+     */
+    public PersonImageIngestStatus getPersonImageIngestStatus(Person person);
+
     public PersonImage getCurrentPersonImage(Person person);
 
+    /**
+     * @return the person's image in the given rendition, or in full size if that rendition hasn't been generated yet
+     */
+    public PersonImage getCurrentPersonImage(Person person, PersonImageStore.Rendition rendition);
+
+    /**
+     * @return a hash of the saved image's content, suitable for use as an ETag, or null if there is no saved image
+     * @throws org.openmrs.api.APIException
+     *          if the image cannot be read
+     */
+    public String getContentHash(PersonImage personImage);
+
+    /**
+     * Moves images saved in the old, unsharded layout into shard directories, and generates any missing renditions
+     *
+     * @return the number of images processed
+     */
+    public int backfillPersonImageRenditions();
+
 }
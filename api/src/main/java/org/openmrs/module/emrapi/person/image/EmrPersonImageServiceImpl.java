@@ -19,21 +19,17 @@ import org.apache.commons.logging.LogFactory;
 import org.openmrs.Person;
 import org.openmrs.api.APIException;
 import org.openmrs.api.impl.BaseOpenmrsService;
-import org.openmrs.module.emrapi.EmrApiProperties;
 
-import javax.imageio.ImageIO;
-import javax.xml.bind.DatatypeConverter;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
 
 public class EmrPersonImageServiceImpl extends BaseOpenmrsService implements EmrPersonImageService {
 
     protected final Log log = LogFactory.getLog(getClass());
 
-    private static final String imageFormat = "jpeg";
+    private PersonImageStore personImageStore;
 
-    private EmrApiProperties emrApiProperties;
+    private PersonImageIngestQueue personImageIngestQueue;
 
     @Override
     public PersonImage savePersonImage(PersonImage personImage) {
@@ -43,12 +39,7 @@ public class EmrPersonImageServiceImpl extends BaseOpenmrsService implements Emr
         if (base64EncodedImage == null || base64EncodedImage.isEmpty()) return personImage;
 
         try {
-            File imageFile = new File(String.format("%s/%s.%s", emrApiProperties.getPersonImageDirectory().getAbsolutePath(), person.getUuid(), imageFormat));
-
-            byte[] decodedBytes = DatatypeConverter.parseBase64Binary(base64EncodedImage);
-            BufferedImage bufferedImage = ImageIO.read(new ByteArrayInputStream(decodedBytes));
-            ImageIO.write(bufferedImage, imageFormat, imageFile);
-            bufferedImage.flush();
+            File imageFile = personImageStore.save(person.getUuid(), base64EncodedImage);
 
             personImage.setSavedImage(imageFile);
             log.info("Successfully created patient image at " + imageFile);
@@ -60,14 +51,67 @@ public class EmrPersonImageServiceImpl extends BaseOpenmrsService implements Emr
         return personImage;
     }
 
+    @Override
+    public PersonImageIngestStatus submitPersonImage(PersonImage personImage) {
+        Person person = personImage.getPerson();
+        String base64EncodedImage = personImage.getBase64EncodedImage();
+
+        if (base64EncodedImage == null || base64EncodedImage.isEmpty()) return getPersonImageIngestStatus(person);
+
+        try {
+            return personImageIngestQueue.submit(personImageStore.stage(person.getUuid(), base64EncodedImage));
+        } catch (Exception e) {
+            log.error("Staging patient image failed for : " + person);
+            throw new APIException("Could not save patient image", e);
+        }
+    }
+
+    @Override
+    public PersonImageIngestStatus getPersonImageIngestStatus(Person person) {
+        return personImageIngestQueue.getStatus(person.getUuid());
+    }
+
     @Override
     public PersonImage getCurrentPersonImage(Person person) {
-        File file = new File(String.format("%s/%s.%s", emrApiProperties.getPersonImageDirectory().getAbsolutePath(), person.getUuid(), imageFormat));
+        return getCurrentPersonImage(person, PersonImageStore.Rendition.FULL);
+    }
+
+    @Override
+    public PersonImage getCurrentPersonImage(Person person, PersonImageStore.Rendition rendition) {
+        File file = personImageStore.findFile(person.getUuid(), rendition);
         return new PersonImage(person, file);
     }
 
-    public void setEmrApiProperties(EmrApiProperties emrApiProperties) {
-        this.emrApiProperties = emrApiProperties;
+    @Override
+    public String getContentHash(PersonImage personImage) {
+        if (personImage.getSavedImage() == null) {
+            return null;
+        }
+        try {
+            return personImageStore.getContentHash(personImage.getSavedImage());
+        } catch (IOException e) {
+            throw new APIException("Could not read patient image", e);
+        }
+    }
+
+    @Override
+    public int backfillPersonImageRenditions() {
+        try {
+            int processed = personImageStore.backfill(Runtime.getRuntime().availableProcessors());
+            log.info("Backfilled renditions for " + processed + " person images");
+            return processed;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new APIException("Interrupted while backfilling person images", e);
+        }
+    }
+
+    public void setPersonImageStore(PersonImageStore personImageStore) {
+        this.personImageStore = personImageStore;
+    }
+
+    public void setPersonImageIngestQueue(PersonImageIngestQueue personImageIngestQueue) {
+        this.personImageIngestQueue = personImageIngestQueue;
     }
 
 }
@@ -0,0 +1,191 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.emrapi.person.image;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves staged person images in the background, so that callers (e.g. patient registration) don't wait on image
+ * decoding and disk writes.
+ * <p/>
+ * Images submitted within a transaction are only queued once it commits, and are discarded if it rolls back. Failed
+ * attempts are retried with an increasing delay. If a newer image is submitted for the same person before an older one
+ * has been saved, the older one is discarded. The status of recent submissions is kept in memory only.
+ */
+public class PersonImageIngestQueue {
+
+    private static final int MAX_TRACKED_STATUSES = 10000;
+
+    protected final Log log = LogFactory.getLog(getClass());
+
+    private PersonImageStore personImageStore;
+
+    private int threads = 2;
+
+    private int maxAttempts = 3;
+
+    private long retryDelayMillis = 2000;
+
+    private ScheduledExecutorService executor;
+
+    private final ConcurrentMap<String, PersonImageStore.StagedImage> latest = new ConcurrentHashMap<String, PersonImageStore.StagedImage>();
+
+    private final Map<String, PersonImageIngestStatus> statuses = Collections.synchronizedMap(
+            new LinkedHashMap<String, PersonImageIngestStatus>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PersonImageIngestStatus> eldest) {
+                    return size() > MAX_TRACKED_STATUSES;
+                }
+            });
+
+    public void setPersonImageStore(PersonImageStore personImageStore) {
+        this.personImageStore = personImageStore;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public void setRetryDelayMillis(long retryDelayMillis) {
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    // for testing
+    public void setExecutor(ScheduledExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Queues a staged image to be saved, after the current transaction commits if there is one
+     *
+     * @param stagedImage
+     * @return the status of the submitted image
+     */
+    public PersonImageIngestStatus submit(final PersonImageStore.StagedImage stagedImage) {
+        final String personUuid = stagedImage.getPersonUuid();
+        PersonImageStore.StagedImage previous = latest.put(personUuid, stagedImage);
+        if (previous != null) {
+            personImageStore.discard(previous);
+        }
+        statuses.put(personUuid, PersonImageIngestStatus.QUEUED);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == TransactionSynchronization.STATUS_COMMITTED) {
+                        schedule(stagedImage, 1, 0);
+                    } else {
+                        abandon(stagedImage, PersonImageIngestStatus.NONE);
+                    }
+                }
+            });
+        } else {
+            schedule(stagedImage, 1, 0);
+        }
+        return PersonImageIngestStatus.QUEUED;
+    }
+
+    /**
+     * @param personUuid
+     * @return the status of the last image submitted for the person, or NONE if there wasn't one recently
+     */
+    public PersonImageIngestStatus getStatus(String personUuid) {
+        PersonImageIngestStatus status = statuses.get(personUuid);
+        return status == null ? PersonImageIngestStatus.NONE : status;
+    }
+
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private void schedule(final PersonImageStore.StagedImage stagedImage, final int attempt, long delayMillis) {
+        getExecutor().schedule(new Runnable() {
+            @Override
+            public void run() {
+                ingest(stagedImage, attempt);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void ingest(PersonImageStore.StagedImage stagedImage, int attempt) {
+        String personUuid = stagedImage.getPersonUuid();
+        if (latest.get(personUuid) != stagedImage) {
+            // superseded by a newer image, which has already discarded this one
+            return;
+        }
+        statuses.put(personUuid, PersonImageIngestStatus.PROCESSING);
+        try {
+            personImageStore.commit(stagedImage);
+            personImageStore.process(personUuid);
+            finish(stagedImage, PersonImageIngestStatus.SAVED);
+        } catch (Exception e) {
+            if (attempt < maxAttempts) {
+                log.warn("Attempt " + attempt + " to save image for person " + personUuid + " failed, will retry", e);
+                statuses.put(personUuid, PersonImageIngestStatus.QUEUED);
+                schedule(stagedImage, attempt + 1, retryDelayMillis << (attempt - 1));
+            } else {
+                log.error("Failed to save image for person " + personUuid + " after " + attempt + " attempts", e);
+                abandon(stagedImage, PersonImageIngestStatus.FAILED);
+            }
+        }
+    }
+
+    private void abandon(PersonImageStore.StagedImage stagedImage, PersonImageIngestStatus status) {
+        personImageStore.discard(stagedImage);
+        finish(stagedImage, status);
+    }
+
+    private void finish(PersonImageStore.StagedImage stagedImage, PersonImageIngestStatus status) {
+        if (latest.remove(stagedImage.getPersonUuid(), stagedImage)) {
+            statuses.put(stagedImage.getPersonUuid(), status);
+        }
+    }
+
+    private synchronized ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            executor = new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "emrapi-person-image-ingest");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+}
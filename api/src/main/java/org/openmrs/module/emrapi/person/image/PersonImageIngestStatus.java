@@ -0,0 +1,42 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.emrapi.person.image;
+
+/**
+ * Where a person image submitted via {@link EmrPersonImageService#submitPersonImage(PersonImage)} is in being
+ * saved
+ */
+public enum PersonImageIngestStatus {
+
+    /**
+     * No image has been submitted recently
+     */
+    NONE,
+
+    /**
+     * Staged, and waiting for the transaction to commit or for a worker to pick it up (possibly to retry)
+     */
+    QUEUED,
+
+    PROCESSING,
+
+    SAVED,
+
+    /**
+     * Gave up after retrying
+     */
+    FAILED
+
+}
@@ -0,0 +1,665 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.emrapi.person.image;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.module.emrapi.EmrApiProperties;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadWarningListener;
+import javax.imageio.stream.ImageInputStream;
+import javax.xml.bind.DatatypeConverter;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stores person images as jpeg files under {@link EmrApiProperties#getPersonImageDirectory()}, in a full size and
+ * smaller renditions. Files are sharded by the first characters of the person uuid, e.g.
+ * <code>59/46/5946f880-..._small.jpeg</code>, so that no single directory grows too large. Images saved before
+ * sharding was introduced are still found at <code>&lt;uuid&gt;.jpeg</code>, until {@link #backfill(int)} moves them.
+ * <p/>
+ * Staging only streams the decoded upload to disk, through a bounded buffer, and checks its header. Committing it
+ * decodes it fully and re-encodes it as jpeg, so that corrupt images never replace the current one, what is served as
+ * jpeg always is, and metadata such as EXIF (e.g. GPS coordinates) is not kept. Generating the smaller renditions
+ * happens on a background executor, or inline if the executor is saturated. Content hashes of the most recently used
+ * files are cached by file, length and modification time, so that they can be used as ETags.
+ */
+public class PersonImageStore {
+
+    public enum Rendition {
+
+        SMALL("_small", 48), MEDIUM("_medium", 200), FULL("", 0);
+
+        private final String suffix;
+
+        private final int maxDimension;
+
+        Rendition(String suffix, int maxDimension) {
+            this.suffix = suffix;
+            this.maxDimension = maxDimension;
+        }
+
+        public int getMaxDimension() {
+            return maxDimension;
+        }
+
+        /**
+         * @param name e.g. "small", case-insensitive
+         * @return the matching rendition, or FULL if name is blank
+         * @throws IllegalArgumentException if name doesn't match any rendition
+         */
+        public static Rendition parse(String name) {
+            if (name == null || name.trim().isEmpty()) {
+                return FULL;
+            }
+            return valueOf(name.trim().toUpperCase());
+        }
+
+    }
+
+    public static final String IMAGE_FORMAT = "jpeg";
+
+    private static final String HASH_ALGORITHM = "SHA-1";
+
+    // base64 characters decoded per chunk; a multiple of 4, so chunks decode independently
+    private static final int BASE64_CHUNK_LENGTH = 16 * 1024;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private static final int MAX_QUEUED_TASKS = 1000;
+
+    private static final int MAX_FINGERPRINTS = 10000;
+
+    protected final Log log = LogFactory.getLog(getClass());
+
+    private EmrApiProperties emrApiProperties;
+
+    private Executor executor;
+
+    private final Map<String, Fingerprint> fingerprints = Collections.synchronizedMap(
+            new LinkedHashMap<String, Fingerprint>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Fingerprint> eldest) {
+                    return size() > MAX_FINGERPRINTS;
+                }
+            });
+
+    public void setEmrApiProperties(EmrApiProperties emrApiProperties) {
+        this.emrApiProperties = emrApiProperties;
+    }
+
+    // for testing
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @param personUuid
+     * @param rendition
+     * @return the file holding the given rendition of the person's image (which may not exist)
+     */
+    public File getFile(String personUuid, Rendition rendition) {
+        return new File(getShardDirectory(personUuid), personUuid + rendition.suffix + "." + IMAGE_FORMAT);
+    }
+
+    /**
+     * Like {@link #getFile(String, Rendition)}, but falls back to the full size image if the rendition hasn't been
+     * generated yet, and to the unsharded location of images saved before renditions existed
+     *
+     * @param personUuid
+     * @param rendition
+     * @return the best existing file for the given rendition, or the (missing) full size file if there is none
+     */
+    public File findFile(String personUuid, Rendition rendition) {
+        File file = getFile(personUuid, rendition);
+        if (file.isFile()) {
+            return file;
+        }
+        File full = getFile(personUuid, Rendition.FULL);
+        if (full.isFile()) {
+            return full;
+        }
+        File legacy = getLegacyFile(personUuid);
+        return legacy.isFile() ? legacy : full;
+    }
+
+    /**
+     * Decodes a base64-encoded image into the person's image file, and schedules its post-processing
+     *
+     * @param personUuid
+     * @param base64EncodedImage
+     * @return the saved file
+     * @throws IOException
+     */
+    public File save(String personUuid, String base64EncodedImage) throws IOException {
+        StagedImage stagedImage = stage(personUuid, base64EncodedImage);
+        try {
+            File target = commit(stagedImage);
+            scheduleProcessing(personUuid);
+            return target;
+        } finally {
+            discard(stagedImage);
+        }
+    }
+
+    /**
+     * Decodes a base64-encoded image into a temporary file next to where it will be saved, without replacing the
+     * person's current image
+     *
+     * @param personUuid
+     * @param base64EncodedImage
+     * @return the staged image, to be passed to {@link #commit(StagedImage)} or {@link #discard(StagedImage)}
+     * @throws IOException if the image cannot be written, or is not in a supported format
+     */
+    public StagedImage stage(String personUuid, String base64EncodedImage) throws IOException {
+        File directory = getShardDirectory(personUuid);
+        directory.mkdirs();
+        File staged = File.createTempFile(personUuid, ".tmp", directory);
+        boolean success = false;
+        try {
+            decodeBase64(base64EncodedImage, staged);
+            if (!isSupportedImage(staged)) {
+                throw new IOException("Not a supported image format");
+            }
+            success = true;
+            return new StagedImage(personUuid, staged);
+        } finally {
+            if (!success) {
+                staged.delete();
+            }
+        }
+    }
+
+    /**
+     * Re-encodes a staged image as jpeg, and makes it the person's current (full size) image. The previous image's
+     * renditions are deleted, but not regenerated; see {@link #process(String)}.
+     *
+     * @param stagedImage
+     * @return the saved file
+     * @throws IOException if the image cannot be decoded, or could not be moved into place, in which case it stays
+     * staged and the person's current image is kept
+     */
+    public File commit(StagedImage stagedImage) throws IOException {
+        File target = getFile(stagedImage.personUuid, Rendition.FULL);
+        if (!stagedImage.committed) {
+            BufferedImage image = decode(stagedImage.file);
+            try {
+                writeJpeg(toRgb(image), stagedImage.file);
+            } finally {
+                image.flush();
+            }
+            String hash = hash(stagedImage.file);
+            moveIntoPlace(stagedImage.file, target);
+            stagedImage.committed = true;
+            fingerprints.put(target.getAbsolutePath(), new Fingerprint(target, hash));
+            getLegacyFile(stagedImage.personUuid).delete();
+            // the previous image's renditions must not be served next to this one; findFile falls back to it until
+            // they are regenerated
+            for (Rendition rendition : Rendition.values()) {
+                if (rendition != Rendition.FULL) {
+                    getFile(stagedImage.personUuid, rendition).delete();
+                }
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Deletes a staged image's temporary file, if it hasn't been committed
+     *
+     * @param stagedImage
+     */
+    public void discard(StagedImage stagedImage) {
+        if (!stagedImage.committed) {
+            stagedImage.file.delete();
+        }
+    }
+
+    /**
+     * @param file
+     * @return the hex-encoded content hash of file, or null if it doesn't exist
+     * @throws IOException
+     */
+    public String getContentHash(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        Fingerprint fingerprint = fingerprints.get(file.getAbsolutePath());
+        if (fingerprint == null || !fingerprint.matches(file)) {
+            fingerprint = new Fingerprint(file, hash(file));
+            fingerprints.put(file.getAbsolutePath(), fingerprint);
+        }
+        return fingerprint.hash;
+    }
+
+    /**
+     * Converts the person's image to jpeg if needed (i.e. for images saved before uploads were re-encoded when
+     * committed), and (re)generates its smaller renditions
+     *
+     * @param personUuid
+     * @throws IOException if the image cannot be decoded
+     */
+    public void process(String personUuid) throws IOException {
+        File full = getFile(personUuid, Rendition.FULL);
+        if (!full.isFile()) {
+            return;
+        }
+        BufferedImage image = decode(full);
+        try {
+            if (!isJpeg(full)) {
+                writeJpeg(toRgb(image), full);
+            }
+            for (Rendition rendition : Rendition.values()) {
+                if (rendition.maxDimension > 0) {
+                    writeJpeg(scale(image, rendition.maxDimension), getFile(personUuid, rendition));
+                }
+            }
+        } finally {
+            image.flush();
+        }
+    }
+
+    /**
+     * Moves images saved before sharding into their shard directories, and generates any missing renditions
+     *
+     * @param threads number of images to process in parallel
+     * @return the number of images that were processed
+     */
+    public int backfill(int threads) throws InterruptedException {
+        List<String> personUuids = new ArrayList<String>();
+        File root = emrApiProperties.getPersonImageDirectory();
+        File[] legacyFiles = root.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith("." + IMAGE_FORMAT);
+            }
+        });
+        if (legacyFiles == null) {
+            return 0;
+        }
+        for (File file : legacyFiles) {
+            String personUuid = getPersonUuid(file.getName());
+            if (personUuid == null) {
+                // a rendition generated before sharding; it will be regenerated
+                file.delete();
+            } else {
+                personUuids.add(personUuid);
+            }
+        }
+        for (File first : listDirectories(root)) {
+            for (File second : listDirectories(first)) {
+                String[] names = second.list();
+                for (String name : names == null ? new String[0] : names) {
+                    String personUuid = getPersonUuid(name);
+                    if (personUuid != null && !hasAllRenditions(personUuid)) {
+                        personUuids.add(personUuid);
+                    }
+                }
+            }
+        }
+
+        final AtomicInteger processed = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            for (final String personUuid : personUuids) {
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            File legacy = getLegacyFile(personUuid);
+                            if (legacy.isFile()) {
+                                getShardDirectory(personUuid).mkdirs();
+                                moveIntoPlace(legacy, getFile(personUuid, Rendition.FULL));
+                            }
+                            process(personUuid);
+                            processed.incrementAndGet();
+                        } catch (Exception e) {
+                            log.error("Failed to backfill image for person " + personUuid, e);
+                        }
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+        }
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        return processed.get();
+    }
+
+    public void shutdown() {
+        if (executor instanceof ExecutorService) {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+
+    private File getShardDirectory(String personUuid) {
+        File root = emrApiProperties.getPersonImageDirectory();
+        if (personUuid.length() < 4) {
+            return root;
+        }
+        String uuid = personUuid.toLowerCase();
+        return new File(new File(root, uuid.substring(0, 2)), uuid.substring(2, 4));
+    }
+
+    private File getLegacyFile(String personUuid) {
+        return new File(emrApiProperties.getPersonImageDirectory(), personUuid + "." + IMAGE_FORMAT);
+    }
+
+    // returns null unless fileName is that of a full size image
+    private String getPersonUuid(String fileName) {
+        if (!fileName.endsWith("." + IMAGE_FORMAT)) {
+            return null;
+        }
+        String personUuid = fileName.substring(0, fileName.length() - IMAGE_FORMAT.length() - 1);
+        for (Rendition rendition : Rendition.values()) {
+            if (rendition != Rendition.FULL && personUuid.endsWith(rendition.suffix)) {
+                return null;
+            }
+        }
+        return personUuid;
+    }
+
+    private boolean hasAllRenditions(String personUuid) {
+        for (Rendition rendition : Rendition.values()) {
+            if (!getFile(personUuid, rendition).isFile()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private File[] listDirectories(File directory) {
+        File[] directories = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isDirectory();
+            }
+        });
+        return directories == null ? new File[0] : directories;
+    }
+
+    private void scheduleProcessing(final String personUuid) {
+        try {
+            getExecutor().execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        process(personUuid);
+                    } catch (Exception e) {
+                        log.error("Failed to process image for person " + personUuid, e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("Too many person images waiting to be processed, processing " + personUuid + " inline");
+            try {
+                process(personUuid);
+            } catch (Exception processingFailure) {
+                log.error("Failed to process image for person " + personUuid, processingFailure);
+            }
+        }
+    }
+
+    private synchronized Executor getExecutor() {
+        if (executor == null) {
+            int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(MAX_QUEUED_TASKS), new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "emrapi-person-image");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Decodes base64 a chunk at a time, so the whole decoded image is never held in memory
+     */
+    private void decodeBase64(String base64, File target) throws IOException {
+        OutputStream out = new FileOutputStream(target);
+        try {
+            StringBuilder chunk = new StringBuilder(BASE64_CHUNK_LENGTH);
+            for (int i = 0; i < base64.length(); ++i) {
+                char c = base64.charAt(i);
+                if (!Character.isWhitespace(c)) {
+                    chunk.append(c);
+                }
+                if (chunk.length() == BASE64_CHUNK_LENGTH) {
+                    writeDecoded(chunk, out);
+                }
+            }
+            writeDecoded(chunk, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeDecoded(StringBuilder chunk, OutputStream out) throws IOException {
+        if (chunk.length() > 0) {
+            byte[] decoded = DatatypeConverter.parseBase64Binary(chunk.toString());
+            out.write(decoded);
+            chunk.setLength(0);
+        }
+    }
+
+    private void writeJpeg(BufferedImage image, File target) throws IOException {
+        File staged = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+        try {
+            if (!ImageIO.write(image, IMAGE_FORMAT, staged)) {
+                throw new IOException("No writer for " + IMAGE_FORMAT);
+            }
+            moveIntoPlace(staged, target);
+        } finally {
+            staged.delete();
+        }
+    }
+
+    /**
+     * Unlike {@link ImageIO#read(File)}, fails on images the reader only warns about, e.g. truncated jpegs, rather
+     * than returning them partly blank
+     */
+    private BufferedImage decode(File file) throws IOException {
+        ImageInputStream in = ImageIO.createImageInputStream(file);
+        if (in == null) {
+            throw new IOException("Could not read image " + file);
+        }
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("Not a supported image format: " + file);
+            }
+            ImageReader reader = readers.next();
+            final List<String> warnings = new ArrayList<String>();
+            reader.addIIOReadWarningListener(new IIOReadWarningListener() {
+
+                @Override
+                public void warningOccurred(ImageReader source, String warning) {
+                    warnings.add(warning);
+                }
+            });
+            try {
+                reader.setInput(in, true, true);
+                BufferedImage image = reader.read(0);
+                if (!warnings.isEmpty()) {
+                    image.flush();
+                    throw new IOException("Corrupt image " + file + ": " + warnings.get(0));
+                }
+                return image;
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private BufferedImage scale(BufferedImage image, int maxDimension) {
+        double ratio = Math.min(1.0, (double) maxDimension / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * ratio));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * ratio));
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    // jpeg has no alpha channel, so e.g. png images need to be flattened first
+    private BufferedImage toRgb(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+            return image;
+        }
+        return scale(image, Math.max(image.getWidth(), image.getHeight()));
+    }
+
+    // only looks at the header, rather than decoding the whole image
+    private boolean isSupportedImage(File file) throws IOException {
+        ImageInputStream in = ImageIO.createImageInputStream(file);
+        if (in == null) {
+            return false;
+        }
+        try {
+            return ImageIO.getImageReaders(in).hasNext();
+        } finally {
+            in.close();
+        }
+    }
+
+    private boolean isJpeg(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return in.read() == 0xFF && in.read() == 0xD8 && in.read() == 0xFF;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void moveIntoPlace(File staged, File target) throws IOException {
+        if (!staged.renameTo(target)) {
+            // e.g. on Windows, which won't rename over an existing file
+            target.delete();
+            if (!staged.renameTo(target)) {
+                throw new IOException("Could not move " + staged + " to " + target);
+            }
+        }
+    }
+
+    private String hash(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    private MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(HASH_ALGORITHM + " is not available", e);
+        }
+    }
+
+    private String toHex(byte[] bytes) {
+        return DatatypeConverter.printHexBinary(bytes).toLowerCase();
+    }
+
+    public static class StagedImage {
+
+        private final String personUuid;
+
+        private final File file;
+
+        private volatile boolean committed;
+
+        private StagedImage(String personUuid, File file) {
+            this.personUuid = personUuid;
+            this.file = file;
+        }
+
+        public String getPersonUuid() {
+            return personUuid;
+        }
+
+        public boolean isCommitted() {
+            return committed;
+        }
+
+    }
+
+    private static class Fingerprint {
+
+        private final long length;
+
+        private final long lastModified;
+
+        private final String hash;
+
+        Fingerprint(File file, String hash) {
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+            this.hash = hash;
+        }
+
+        boolean matches(File file) {
+            return file.length() == length && file.lastModified() == lastModified;
+        }
+
+    }
+
+}
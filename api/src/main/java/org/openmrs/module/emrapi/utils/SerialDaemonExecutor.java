@@ -0,0 +1,128 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.emrapi.utils;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.module.DaemonToken;
+
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks one at a time, in the order they were submitted, on at most one daemon thread. The thread is started when
+ * a task arrives and nothing is running, and ends once it has run out of tasks, so that an event listener doesn't
+ * start a thread per event or apply events out of order.
+ */
+public class SerialDaemonExecutor implements Executor {
+
+    protected final Log log = LogFactory.getLog(getClass());
+
+    private final DaemonToken daemonToken;
+
+    // guarded by this
+    private final LinkedList<Runnable> pending = new LinkedList<Runnable>();
+
+    // guarded by this
+    private boolean working = false;
+
+    // guarded by this
+    private boolean shutdown = false;
+
+    public SerialDaemonExecutor(DaemonToken daemonToken) {
+        this.daemonToken = daemonToken;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        synchronized (this) {
+            if (shutdown) {
+                return;
+            }
+            pending.add(task);
+            if (working) {
+                return;
+            }
+            working = true;
+        }
+        try {
+            startWorker(new Runnable() {
+                @Override
+                public void run() {
+                    runPending();
+                }
+            });
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                working = false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Discards the tasks that haven't started yet, and ignores any submitted from now on
+     */
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            pending.clear();
+        }
+    }
+
+    private void runPending() {
+        Runnable task = nextTask();
+        try {
+            while (task != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    log.error("Failed to run a background task", e);
+                } finally {
+                    clearSession();
+                }
+                task = nextTask();
+            }
+        } finally {
+            // only reached with a task in hand if one threw an error, in which case the next submission starts over
+            if (task != null) {
+                synchronized (this) {
+                    working = false;
+                }
+            }
+        }
+    }
+
+    private synchronized Runnable nextTask() {
+        Runnable task = pending.poll();
+        if (task == null) {
+            working = false;
+        }
+        return task;
+    }
+
+    protected void startWorker(Runnable worker) {
+        Daemon.runInDaemonThread(worker, daemonToken);
+    }
+
+    /**
+     * The worker thread holds one Hibernate session until it runs out of tasks, so this lets go of what each task loaded
+     */
+    protected void clearSession() {
+        Context.clearSession();
+    }
+
+}
@@ -3,15 +3,24 @@ package org.openmrs.module.emrapi;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
+import org.openmrs.Concept;
 import org.openmrs.api.AdministrationService;
+import org.openmrs.api.ConceptService;
+import org.openmrs.module.emrapi.diagnosis.DiagnosisMetadata;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
 public class EmrApiPropertiesTest {
     @Mock
     private AdministrationService administrationService;
+    @Mock
+    private ConceptService conceptService;
     private EmrApiProperties emrApiProperties;
 
     @Before
@@ -19,6 +28,7 @@ public class EmrApiPropertiesTest {
         initMocks(this);
         emrApiProperties = new EmrApiProperties();
         emrApiProperties.setAdministrationService(administrationService);
+        emrApiProperties.setConceptService(conceptService);
     }
 
     @Test
@@ -41,4 +51,30 @@ public class EmrApiPropertiesTest {
 
         assertEquals(EmrApiConstants.DEFAULT_VISIT_EXPIRE_HOURS, emrApiProperties.getVisitExpireHours());
     }
+
+    @Test
+    public void getDiagnosisMetadata_shouldBeCachedUntilInvalidated() {
+        Concept diagnosisSet = mapConcept(EmrApiConstants.CONCEPT_CODE_DIAGNOSIS_CONCEPT_SET);
+        for (String code : new String[] { EmrApiConstants.CONCEPT_CODE_CODED_DIAGNOSIS,
+                EmrApiConstants.CONCEPT_CODE_NON_CODED_DIAGNOSIS, EmrApiConstants.CONCEPT_CODE_DIAGNOSIS_ORDER,
+                EmrApiConstants.CONCEPT_CODE_DIAGNOSIS_CERTAINTY }) {
+            diagnosisSet.addSetMember(mapConcept(code));
+        }
+
+        DiagnosisMetadata diagnosisMetadata = emrApiProperties.getDiagnosisMetadata();
+        assertSame(diagnosisMetadata, emrApiProperties.getDiagnosisMetadata());
+        verify(conceptService, times(1)).getConceptByMapping(EmrApiConstants.CONCEPT_CODE_DIAGNOSIS_CONCEPT_SET,
+                EmrApiConstants.EMR_CONCEPT_SOURCE_NAME);
+
+        emrApiProperties.invalidateDiagnosisMetadata();
+        assertNotSame(diagnosisMetadata, emrApiProperties.getDiagnosisMetadata());
+        verify(conceptService, times(2)).getConceptByMapping(EmrApiConstants.CONCEPT_CODE_DIAGNOSIS_CONCEPT_SET,
+                EmrApiConstants.EMR_CONCEPT_SOURCE_NAME);
+    }
+
+    private Concept mapConcept(String code) {
+        Concept concept = new Concept();
+        when(conceptService.getConceptByMapping(code, EmrApiConstants.EMR_CONCEPT_SOURCE_NAME)).thenReturn(concept);
+        return concept;
+    }
 }
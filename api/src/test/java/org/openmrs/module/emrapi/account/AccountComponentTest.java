@@ -248,4 +248,50 @@ public class AccountComponentTest extends BaseModuleContextSensitiveTest {
 
     }
 
+    @Test
+    public void getAccounts_shouldReturnTheSameAccountsAsGetAllAccounts() {
+        Set<Person> expected = new HashSet<Person>();
+        for (AccountDomainWrapper account : accountService.getAllAccounts()) {
+            expected.add(account.getPerson());
+        }
+
+        List<AccountDomainWrapper> accounts = accountService.getAccounts(null, null);
+
+        Set<Person> actual = new HashSet<Person>();
+        for (AccountDomainWrapper account : accounts) {
+            actual.add(account.getPerson());
+        }
+        Assert.assertEquals(expected, actual);
+        Assert.assertEquals(expected.size(), accountService.getAccountCount());
+    }
+
+    @Test
+    public void getAccounts_shouldReturnAPageOfAccountsOrderedByPersonId() {
+        List<AccountDomainWrapper> all = accountService.getAccounts(null, null);
+        List<AccountDomainWrapper> page = accountService.getAccounts(1, 2);
+
+        Assert.assertEquals(2, page.size());
+        Assert.assertEquals(all.get(1).getPerson(), page.get(0).getPerson());
+        Assert.assertEquals(all.get(2).getPerson(), page.get(1).getPerson());
+        Assert.assertTrue(page.get(0).getPerson().getPersonId() < page.get(1).getPerson().getPersonId());
+        Assert.assertTrue(accountService.getAccounts(all.size(), 10).isEmpty());
+    }
+
+    @Test
+    public void getAccounts_shouldFetchUserProviderAndRoles() {
+        AccountDomainWrapper account = null;
+        for (AccountDomainWrapper candidate : accountService.getAccounts(null, null)) {
+            if (candidate.getPerson().getPersonId().equals(501)) {
+                account = candidate;
+            }
+        }
+
+        Assert.assertNotNull(account);
+        Assert.assertEquals(userService.getUser(501), account.getUser());
+        Assert.assertEquals("Privilege Level: Full", account.getPrivilegeLevel().getRole());
+        Assert.assertEquals(2, account.getCapabilities().size());
+        Assert.assertEquals(new Locale("fr"), account.getDefaultLocale());
+        Assert.assertEquals("Nurse", account.getProviderRole().getName());
+    }
+
 }
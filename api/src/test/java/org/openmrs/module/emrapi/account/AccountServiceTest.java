@@ -26,9 +26,12 @@ import java.util.List;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.collection.IsIterableContainingInAnyOrder.containsInAnyOrder;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.argThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class AccountServiceTest {
@@ -189,7 +192,7 @@ public class AccountServiceTest {
         Role role3 = new Role("role2");
         Role role2 = new Role(EmrApiConstants.ROLE_PREFIX_CAPABILITY + "role3");
 
-        when(userService.getAllRoles()).thenReturn(Arrays.asList(role1, role2, role3));
+        stubRoles(role1, role2, role3);
         List<Role> capabilities = accountService.getAllCapabilities();
         Assert.assertEquals(2, capabilities.size());
         assertThat(capabilities, TestUtils.isCollectionOfExactlyElementsWithProperties("role",
@@ -206,7 +209,7 @@ public class AccountServiceTest {
         Role role3 = new Role("role2");
         Role role2 = new Role(EmrApiConstants.ROLE_PREFIX_PRIVILEGE_LEVEL + "role3");
 
-        when(userService.getAllRoles()).thenReturn(Arrays.asList(role1, role2, role3));
+        stubRoles(role1, role2, role3);
         List<Role> privilegeLevels = accountService.getAllPrivilegeLevels();
         Assert.assertEquals(2, privilegeLevels.size());
         assertThat(privilegeLevels, TestUtils.isCollectionOfExactlyElementsWithProperties("role",
@@ -220,7 +223,7 @@ public class AccountServiceTest {
         Privilege vitalsApp = new Privilege(EmrApiConstants.PRIVILEGE_PREFIX_APP + " emr.vitals");
         Privilege orderEntryTask = new Privilege(EmrApiConstants.PRIVILEGE_PREFIX_TASK + " emr.orderEntry");
 
-        when(userService.getAllPrivileges()).thenReturn(Arrays.asList(getPatients, deletePatients, vitalsApp, orderEntryTask));
+        stubPrivileges(getPatients, deletePatients, vitalsApp, orderEntryTask);
 
         List<Privilege> apiPrivileges = accountService.getApiPrivileges();
         assertThat(apiPrivileges.size(), is(2));
@@ -234,13 +237,61 @@ public class AccountServiceTest {
         Privilege vitalsApp = new Privilege(EmrApiConstants.PRIVILEGE_PREFIX_APP + " emr.vitals");
         Privilege orderEntryTask = new Privilege(EmrApiConstants.PRIVILEGE_PREFIX_TASK + " emr.orderEntry");
 
-        when(userService.getAllPrivileges()).thenReturn(Arrays.asList(getPatients, deletePatients, vitalsApp, orderEntryTask));
+        stubPrivileges(getPatients, deletePatients, vitalsApp, orderEntryTask);
 
         List<Privilege> applicationPrivileges = accountService.getApplicationPrivileges();
         assertThat(applicationPrivileges.size(), is(2));
         assertThat(applicationPrivileges, containsInAnyOrder(vitalsApp, orderEntryTask));
     }
 
+    @Test
+    public void getAllCapabilities_shouldUseCachedRolesUntilInvalidated() throws Exception {
+        Role role1 = new Role(EmrApiConstants.ROLE_PREFIX_CAPABILITY + "role1");
+        Role role2 = new Role(EmrApiConstants.ROLE_PREFIX_CAPABILITY + "role2");
+
+        stubRoles(role1);
+        assertThat(accountService.getAllCapabilities(), is(Arrays.asList(role1)));
+        assertThat(accountService.getAllPrivilegeLevels().size(), is(0));
+
+        stubRoles(role1, role2);
+        assertThat(accountService.getAllCapabilities(), is(Arrays.asList(role1)));
+        verify(userService, times(1)).getAllRoles();
+
+        accountService.invalidateRoleCatalog();
+        assertThat(accountService.getAllCapabilities(), is(Arrays.asList(role1, role2)));
+    }
+
+    @Test
+    public void getAllCapabilities_shouldLookTheCachedRolesUpOnEachCall() throws Exception {
+        Role cached = new Role(EmrApiConstants.ROLE_PREFIX_CAPABILITY + "role1");
+        stubRoles(cached);
+        accountService.getAllCapabilities();
+
+        // e.g. loaded by a later session
+        Role reloaded = new Role(EmrApiConstants.ROLE_PREFIX_CAPABILITY + "role1");
+        when(userService.getRole(reloaded.getRole())).thenReturn(reloaded);
+        assertTrue(accountService.getAllCapabilities().get(0) == reloaded);
+
+        // deleted since the catalog was built
+        when(userService.getRole(reloaded.getRole())).thenReturn(null);
+        assertThat(accountService.getAllCapabilities().size(), is(0));
+        verify(userService, times(1)).getAllRoles();
+    }
+
+    private void stubRoles(Role... roles) {
+        when(userService.getAllRoles()).thenReturn(Arrays.asList(roles));
+        for (Role role : roles) {
+            when(userService.getRole(role.getRole())).thenReturn(role);
+        }
+    }
+
+    private void stubPrivileges(Privilege... privileges) {
+        when(userService.getAllPrivileges()).thenReturn(Arrays.asList(privileges));
+        for (Privilege privilege : privileges) {
+            when(userService.getPrivilege(privilege.getPrivilege())).thenReturn(privilege);
+        }
+    }
+
     private class MockDomainWrapperFactory extends DomainWrapperFactory{
 
         @Override
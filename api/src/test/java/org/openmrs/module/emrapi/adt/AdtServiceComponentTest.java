@@ -29,6 +29,8 @@ import org.openmrs.EncounterRole;
 import org.openmrs.Location;
 import org.openmrs.LocationTag;
 import org.openmrs.Obs;
+import org.openmrs.Order;
+import org.openmrs.OrderType;
 import org.openmrs.Patient;
 import org.openmrs.Provider;
 import org.openmrs.Visit;
@@ -69,6 +71,7 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.openmrs.module.emrapi.TestUtils.hasProviders;
 import static org.openmrs.module.emrapi.adt.AdtAction.Type.ADMISSION;
 import static org.openmrs.module.emrapi.adt.AdtAction.Type.DISCHARGE;
@@ -112,6 +115,35 @@ public class AdtServiceComponentTest extends BaseModuleContextSensitiveTest {
     @Before
     public void setUp() throws Exception {
         executeDataSet("baseTestDataset.xml");
+        // the service is shared across tests, so don't let it hold on to locations from an earlier (rolled back) test
+        service.invalidateLocationHierarchy();
+    }
+
+    @Test
+    public void test_savingALocationInvalidatesTheLocationHierarchyWithinTheTransaction() {
+        ContextSensitiveMetadataTestUtils.setupSupportsVisitLocationTag(locationService);
+        Location parentLocation = locationService.getLocation(2);
+        Location ward = new Location();
+        ward.setName("Ward within Xanadu");
+        ward.setParentLocation(parentLocation);
+        locationService.saveLocation(ward);
+        try {
+            service.getLocationThatSupportsVisits(ward);
+            fail("no location supports visits yet");
+        } catch (IllegalArgumentException expected) {
+            // and the location hierarchy has been built
+        }
+
+        LocationHierarchyInvalidationAdvice advice = new LocationHierarchyInvalidationAdvice();
+        Context.addAdvice(LocationService.class, advice);
+        try {
+            parentLocation.addTag(emrApiProperties.getSupportsVisitsLocationTag());
+            locationService.saveLocation(parentLocation);
+        } finally {
+            Context.removeAdvice(LocationService.class, advice);
+        }
+
+        assertThat(service.getLocationThatSupportsVisits(ward), is(parentLocation));
     }
 
     @Test
@@ -304,6 +336,8 @@ public class AdtServiceComponentTest extends BaseModuleContextSensitiveTest {
         startDate =  new DateTime(2012, 1, 2, 0, 0, 0).toDate();
         stopDate =  new DateTime(2012, 1, 4, 0, 0, 0).toDate();
         assertTrue(service.hasVisitDuring(patient, outpatientDepartment, startDate, stopDate));
+        assertThat(service.getVisits(patient, outpatientDepartment, startDate, stopDate).size(), is(1));
+        assertThat(service.getVisits(patient, outpatientDepartment, startDate, stopDate).get(0).getVisit(), is(visit.getVisit()));
 
         // end date falls within existing visit
         startDate =  new DateTime(2011, 12, 29, 0, 0, 0).toDate();
@@ -333,6 +367,7 @@ public class AdtServiceComponentTest extends BaseModuleContextSensitiveTest {
         startDate =  new DateTime(2012, 1, 4, 0, 0, 0).toDate();
         stopDate =  new DateTime(2012, 1, 5, 0, 0, 0).toDate();
         assertFalse(service.hasVisitDuring(patient, outpatientDepartment, startDate, stopDate));
+        assertTrue(service.getVisits(patient, outpatientDepartment, startDate, stopDate).isEmpty());
 
         // now lets create an active visit to make sure that hasVisitDuring properly handles visits with no stopDate
         Date now = new Date();
@@ -381,6 +416,48 @@ public class AdtServiceComponentTest extends BaseModuleContextSensitiveTest {
         assertThat(CollectionUtils.select(encounters, NON_VOIDED).size(), is(2));
     }
 
+    @Test
+    public void test_mergeSavedVisitsMovesEncountersObsAndOrders() throws Exception {
+        Patient preferredPatient = patientService.getPatient(7);
+        Visit preferred = visitService.getVisit(1001);
+        Visit notPreferred = visitService.getVisit(1002);
+
+        // give patient 8's encounter an obs and an order, which belong to patient 8 too
+        Encounter moving = encounterService.getEncounter(1002);
+        Obs obs = new Obs(moving.getPatient(), conceptService.getConcept(5089), moving.getEncounterDatetime(),
+                moving.getLocation());
+        obs.setValueNumeric(70.0);
+        moving.addObs(obs);
+        OrderType orderType = new OrderType("Merge test order", "Order type for testing visit merges");
+        Context.getOrderService().saveOrderType(orderType);
+        Order order = new Order();
+        order.setOrderType(orderType);
+        order.setConcept(conceptService.getConcept(5089));
+        order.setPatient(moving.getPatient());
+        order.setStartDate(moving.getEncounterDatetime());
+        moving.addOrder(order);
+        encounterService.saveEncounter(moving);
+
+        service.mergeVisits(preferred, notPreferred);
+
+        // what the session already held must have been refreshed, not just the database
+        Encounter moved = encounterService.getEncounter(1002);
+        assertThat(moved.getVisit().getVisitId(), is(1001));
+        assertThat(moved.getPatient(), is(preferredPatient));
+        assertThat(Context.getObsService().getObs(obs.getObsId()).getPerson().getPersonId(), is(7));
+        assertThat(Context.getOrderService().getOrder(order.getOrderId()).getPatient().getPatientId(), is(7));
+        assertTrue(visitService.getVisit(1002).isVoided());
+        assertThat(CollectionUtils.select(visitService.getVisit(1001).getEncounters(), NON_VOIDED).size(), is(2));
+
+        Context.flushSession();
+        Context.clearSession();
+        moved = encounterService.getEncounter(1002);
+        assertThat(moved.getVisit().getVisitId(), is(1001));
+        assertThat(moved.getPatient().getPatientId(), is(7));
+        assertThat(Context.getObsService().getObs(obs.getObsId()).getPerson().getPersonId(), is(7));
+        assertThat(Context.getOrderService().getOrder(order.getOrderId()).getPatient().getPatientId(), is(7));
+    }
+
     @Test
     public void test_shouldCloseActiveVisits() throws Exception {
 
@@ -46,6 +46,7 @@ import org.openmrs.module.emrapi.EmrApiConstants;
 import org.openmrs.module.emrapi.EmrApiProperties;
 import org.openmrs.module.emrapi.TestUtils;
 import org.openmrs.module.emrapi.adt.exception.ExistingVisitDuringTimePeriodException;
+import org.openmrs.module.emrapi.db.EmrVisitDAO;
 import org.openmrs.module.emrapi.disposition.DispositionService;
 import org.openmrs.module.emrapi.domainwrapper.DomainWrapperFactory;
 import org.openmrs.module.emrapi.merge.PatientMergeAction;
@@ -449,6 +450,63 @@ public class AdtServiceTest {
 
     }
 
+    @Test
+    public void testEnsureVisitsFindsOrCreatesAVisitForEachRequestInOrder() throws Exception {
+        Patient patient = new Patient();
+        VisitType visitType = new VisitType();
+
+        Date now = new Date();
+        Date eightDaysAgo = DateUtils.addDays(now, -8);
+        Date sevenDaysAgo = DateUtils.addDays(now, -7);
+        Date sixDaysAgo = DateUtils.addDays(now, -6);
+        Date twoDaysAgo = DateUtils.addDays(now, -2);
+        Date oneDayAgo = DateUtils.addDays(now, -1);
+
+        Visit visit = buildVisit(patient, visitType, mirebalaisHospital, eightDaysAgo, sixDaysAgo);
+
+        when(mockVisitService.getVisits(null, Collections.singletonList(patient), null, null, null,
+                oneDayAgo, sevenDaysAgo, null, null, true, false)).thenReturn(Collections.singletonList(visit));
+
+        List<Visit> visits = service.ensureVisits(Arrays.asList(
+                new EnsureVisitRequest(patient, sevenDaysAgo, outpatientDepartment),
+                new EnsureVisitRequest(patient, twoDaysAgo, mirebalaisHospital),
+                new EnsureVisitRequest(patient, oneDayAgo, outpatientDepartment)));
+
+        assertThat(visits.size(), is(3));
+        assertSame(visit, visits.get(0));
+        assertThat(visits.get(1).getStartDatetime(), is(twoDaysAgo));
+        assertSame(visits.get(1), visits.get(2));
+        verify(mockVisitService, times(1)).getVisits(null, Collections.singletonList(patient), null, null, null,
+                oneDayAgo, sevenDaysAgo, null, null, true, false);
+        verify(mockVisitService, times(1)).saveVisit(visits.get(1));
+    }
+
+    @Test
+    public void testEnsureVisitsReusesAVisitThatStartsAfterTheEarliestRequest() throws Exception {
+        Patient patient = new Patient();
+        VisitType visitType = new VisitType();
+
+        Date now = new Date();
+        Date sevenDaysAgo = DateUtils.addDays(now, -7);
+        Date threeDaysAgo = DateUtils.addDays(now, -3);
+        Date twoDaysAgo = DateUtils.addDays(now, -2);
+
+        Visit laterVisit = buildVisit(patient, visitType, mirebalaisHospital, threeDaysAgo, null);
+
+        when(mockVisitService.getVisits(null, Collections.singletonList(patient), null, null, null,
+                twoDaysAgo, sevenDaysAgo, null, null, true, false)).thenReturn(Collections.singletonList(laterVisit));
+
+        List<Visit> visits = service.ensureVisits(Arrays.asList(
+                new EnsureVisitRequest(patient, sevenDaysAgo, outpatientDepartment),
+                new EnsureVisitRequest(patient, twoDaysAgo, outpatientDepartment)));
+
+        assertThat(visits.size(), is(2));
+        assertThat(visits.get(0).getStartDatetime(), is(sevenDaysAgo));
+        assertSame(laterVisit, visits.get(1));
+        verify(mockVisitService, times(1)).saveVisit(visits.get(0));
+        verify(mockVisitService, never()).saveVisit(laterVisit);
+    }
+
     @Test
     public void test_checkInPatient_forNewVisit() throws Exception {
         final Patient patient = new Patient();
@@ -510,6 +568,33 @@ public class AdtServiceTest {
         assertThat(activeVisitSummaries, TestUtils.isCollectionOfExactlyElementsWithProperties("visit", visit1, visit2));
     }
 
+    @Test
+    public void getActiveVisits_shouldExcludeTestPatientsInTheQueryWhenDaoIsAvailable() throws Exception {
+        PersonAttributeType testPatientAttributeType = new PersonAttributeType(7);
+        when(emrApiProperties.getTestPatientPersonAttributeType()).thenReturn(testPatientAttributeType);
+
+        Visit visit = new Visit();
+        visit.setStartDatetime(DateUtils.addHours(new Date(), -1));
+        visit.setLocation(outpatientDepartment);
+
+        Set<Location> expectedLocations = new HashSet<Location>();
+        expectedLocations.add(mirebalaisHospital);
+        expectedLocations.add(outpatientDepartment);
+        expectedLocations.add(inpatientDepartment);
+
+        EmrVisitDAO emrVisitDAO = mock(EmrVisitDAO.class);
+        when(emrVisitDAO.getOpenVisitsOfRealPatients(expectedLocations, 7)).thenReturn(Collections.singletonList(visit));
+        service.setEmrVisitDAO(emrVisitDAO);
+
+        List<VisitDomainWrapper> activeVisitSummaries = service.getActiveVisits(mirebalaisHospital);
+        service.getActiveVisits(mirebalaisHospital);
+
+        assertThat(activeVisitSummaries, TestUtils.isCollectionOfExactlyElementsWithProperties("visit", visit));
+        verify(emrApiProperties, times(1)).getTestPatientPersonAttributeType();
+        verify(mockVisitService, never()).getVisits(anyCollection(), anyCollection(), anyCollection(), anyCollection(),
+                any(Date.class), any(Date.class), any(Date.class), any(Date.class), anyMap(), anyBoolean(), anyBoolean());
+    }
+
     @Test
     public void shouldCloseInactiveVisitWithLastEncounterDateAfterVisitExpireTime() {
         Visit visit = new Visit(1);
@@ -769,6 +854,39 @@ public class AdtServiceTest {
         verify(mockPatientService).mergePatients(preferred, notPreferred);
     }
 
+    @Test
+    public void testMergePatientsMergesEachNonPreferredVisitIntoTheVisitItOverlaps() throws Exception {
+        Patient preferred = new Patient();
+        Patient notPreferred = new Patient();
+
+        Date now = new Date();
+        List<Visit> preferredVisits = new ArrayList<Visit>();
+        List<Visit> notPreferredVisits = new ArrayList<Visit>();
+        for (int i = 0; i < 3; i++) {
+            // preferred visits on days 30-28, 20-18 and 10-8 ago; each non-preferred one starts a day before one of them
+            Date start = DateUtils.addDays(now, -30 + 10 * i);
+            preferredVisits.add(buildVisit(preferred, null, mirebalaisHospital, start, DateUtils.addDays(start, 2)));
+            notPreferredVisits.add(buildVisit(notPreferred, null, mirebalaisHospital, DateUtils.addDays(start, -1), DateUtils.addDays(start, 1)));
+        }
+        Collections.reverse(notPreferredVisits);
+
+        when(mockVisitService.getVisitsByPatient(preferred, true, false)).thenReturn(preferredVisits);
+        when(mockVisitService.getVisitsByPatient(notPreferred, true, false)).thenReturn(notPreferredVisits);
+
+        service.mergePatients(preferred, notPreferred);
+
+        for (int i = 0; i < 3; i++) {
+            Visit visit = preferredVisits.get(i);
+            assertThat(visit.getStartDatetime(), is(DateUtils.addDays(now, -31 + 10 * i)));
+            assertThat(visit.getStopDatetime(), is(DateUtils.addDays(now, -28 + 10 * i)));
+            verify(mockVisitService).saveVisit(visit);
+            verify(mockVisitService, never()).voidVisit(eq(visit), anyString());
+        }
+        for (Visit visit : notPreferredVisits) {
+            verify(mockVisitService).voidVisit(eq(visit), anyString());
+        }
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void shouldNotAllowMergingAnUnknownRecordIntoAPermanentOne() {
         Patient preferred = new Patient();
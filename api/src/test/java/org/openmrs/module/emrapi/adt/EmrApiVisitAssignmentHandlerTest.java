@@ -21,9 +21,12 @@ import org.junit.Ignore;
 import org.junit.Test;
 import org.openmrs.Encounter;
 import org.openmrs.Location;
+import org.openmrs.LocationTag;
 import org.openmrs.Patient;
 import org.openmrs.Visit;
+import org.openmrs.api.LocationService;
 import org.openmrs.api.VisitService;
+import org.openmrs.module.emrapi.EmrApiConstants;
 
 import java.util.Arrays;
 import java.util.Collection;
@@ -36,6 +39,8 @@ import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class EmrApiVisitAssignmentHandlerTest {
@@ -110,4 +115,44 @@ public class EmrApiVisitAssignmentHandlerTest {
         Assert.assertThat(suitable.getEncounters(), contains(encounter));
     }
 
+    @Test
+    public void testAssigningAnOpenVisitLooksUpThePatientsOpenVisitsOnce() throws Exception {
+        Location location = new Location(1);
+        location.addTag(new LocationTag(EmrApiConstants.LOCATION_TAG_SUPPORTS_VISITS, null));
+        LocationService locationService = mock(LocationService.class);
+        when(locationService.getAllLocations(true)).thenReturn(Collections.singletonList(location));
+
+        AdtServiceImpl adtService = new AdtServiceImpl();
+        adtService.setVisitService(visitService);
+        adtService.setLocationService(locationService);
+        adtService.setOpenVisitCache(new OpenVisitCache());
+        handler.setAdtService(adtService);
+
+        Patient patient = new Patient(2);
+
+        Visit open = new Visit(3);
+        open.setPatient(patient);
+        open.setStartDatetime(DateUtils.addDays(new Date(), -1));
+        open.setLocation(location);
+
+        when(
+                visitService.getVisits(any(Collection.class), any(Collection.class), any(Collection.class),
+                        any(Collection.class), any(Date.class), any(Date.class), any(Date.class), any(Date.class), any(Map.class),
+                        anyBoolean(), anyBoolean())).thenReturn(Collections.singletonList(open));
+        when(visitService.getVisit(3)).thenReturn(open);
+
+        for (int i = 0; i < 2; ++i) {
+            Encounter encounter = new Encounter();
+            encounter.setPatient(patient);
+            encounter.setLocation(location);
+
+            handler.beforeCreateEncounter(encounter);
+
+            Assert.assertThat(encounter.getVisit(), is(open));
+        }
+        verify(visitService, times(1)).getVisits(any(Collection.class), any(Collection.class), any(Collection.class),
+                any(Collection.class), any(Date.class), any(Date.class), any(Date.class), any(Date.class), any(Map.class),
+                anyBoolean(), anyBoolean());
+    }
+
 }
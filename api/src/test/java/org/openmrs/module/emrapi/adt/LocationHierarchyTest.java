@@ -0,0 +1,92 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.emrapi.adt;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Location;
+import org.openmrs.LocationTag;
+import org.openmrs.module.emrapi.EmrApiConstants;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class LocationHierarchyTest {
+
+    private Location hospital;
+    private Location outpatientDepartment;
+    private Location outpatientRoom;
+    private Location inpatientDepartment;
+    private Location unrelated;
+
+    private LocationHierarchy hierarchy;
+
+    @Before
+    public void setUp() throws Exception {
+        LocationTag supportsVisits = new LocationTag();
+        supportsVisits.setName(EmrApiConstants.LOCATION_TAG_SUPPORTS_VISITS);
+
+        hospital = new Location(1);
+        hospital.addTag(supportsVisits);
+        outpatientDepartment = new Location(2);
+        outpatientRoom = new Location(3);
+        inpatientDepartment = new Location(4);
+        unrelated = new Location(5);
+
+        hospital.addChildLocation(outpatientDepartment);
+        hospital.addChildLocation(inpatientDepartment);
+        outpatientDepartment.addChildLocation(outpatientRoom);
+
+        hierarchy = LocationHierarchy.build(Arrays.asList(outpatientRoom, hospital, unrelated, inpatientDepartment, outpatientDepartment));
+    }
+
+    @Test
+    public void isSameOrAncestor_shouldCheckAncestry() throws Exception {
+        assertTrue(hierarchy.isSameOrAncestor(hospital, hospital));
+        assertTrue(hierarchy.isSameOrAncestor(hospital, outpatientRoom));
+        assertTrue(hierarchy.isSameOrAncestor(outpatientDepartment, outpatientRoom));
+        assertFalse(hierarchy.isSameOrAncestor(outpatientRoom, hospital));
+        assertFalse(hierarchy.isSameOrAncestor(inpatientDepartment, outpatientRoom));
+        assertFalse(hierarchy.isSameOrAncestor(unrelated, outpatientRoom));
+    }
+
+    @Test
+    public void getVisitLocationId_shouldReturnNearestLocationThatSupportsVisits() throws Exception {
+        assertThat(hierarchy.getVisitLocationId(hospital), is(1));
+        assertThat(hierarchy.getVisitLocationId(outpatientRoom), is(1));
+        assertThat(hierarchy.getVisitLocationId(unrelated), nullValue());
+    }
+
+    @Test
+    public void getSameOrDescendantIds_shouldReturnWholeSubtree() throws Exception {
+        assertThat(new HashSet<Integer>(hierarchy.getSameOrDescendantIds(hospital)), is(new HashSet<Integer>(Arrays.asList(1, 2, 3, 4))));
+        assertThat(new HashSet<Integer>(hierarchy.getSameOrDescendantIds(outpatientDepartment)), is(new HashSet<Integer>(Arrays.asList(2, 3))));
+        assertThat(new HashSet<Integer>(hierarchy.getSameOrDescendantIds(outpatientRoom)), is(new HashSet<Integer>(Arrays.asList(3))));
+    }
+
+    @Test
+    public void contains_shouldBeFalseForUnsavedOrUnknownLocations() throws Exception {
+        assertTrue(hierarchy.contains(outpatientRoom));
+        assertFalse(hierarchy.contains(new Location()));
+        assertFalse(hierarchy.contains(new Location(99)));
+    }
+
+}
@@ -142,6 +142,23 @@ public class DiagnosisMetadataTest {
         assertThat(obs, hasGroupMember(dmd.getNonCodedDiagnosisConcept(), oldNonCodedAnswer, true));
     }
 
+    @Test
+    public void toDiagnosis_shouldResolveOrderAndCertaintyFromAnswerCodes() throws Exception {
+        EmrApiProperties emrApiProperties = mock(EmrApiProperties.class);
+        MockMetadataTestUtil.setupMockConceptService(conceptService, emrApiProperties);
+        MockMetadataTestUtil.setupDiagnosisMetadata(emrApiProperties, conceptService);
+
+        Diagnosis diagnosis = new Diagnosis(new CodedOrFreeTextAnswer("Free text"), Diagnosis.Order.SECONDARY);
+        diagnosis.setCertainty(Diagnosis.Certainty.CONFIRMED);
+
+        DiagnosisMetadata dmd = emrApiProperties.getDiagnosisMetadata();
+        Diagnosis roundTripped = dmd.toDiagnosis(dmd.buildDiagnosisObsGroup(diagnosis));
+
+        assertThat(roundTripped.getOrder(), is(Diagnosis.Order.SECONDARY));
+        assertThat(roundTripped.getCertainty(), is(Diagnosis.Certainty.CONFIRMED));
+        assertThat(roundTripped.getDiagnosis().getNonCodedAnswer(), is("Free text"));
+    }
+
     private Matcher<? super Obs> hasGroupMember(final Concept question, final Object answer, final boolean isVoided) {
         return new ArgumentMatcher<Obs>() {
             @Override
@@ -27,6 +27,8 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class DispositionServiceTest {
@@ -223,6 +225,20 @@ public class DispositionServiceTest {
         assertThat(disposition, is(getDeathDisposition()));
     }
 
+    @Test
+    public void shouldCacheAdmissionDispositionConceptIdsUntilInvalidated() {
+
+        when(emrConceptService.getConcept("org.openmrs.module.emrapi:Admit to hospital")).thenReturn(new Concept(7));
+        assertThat(dispositionService.getAdmissionDispositionConceptIds(), is(Collections.singleton(7)));
+
+        when(emrConceptService.getConcept("org.openmrs.module.emrapi:Admit to hospital")).thenReturn(new Concept(8));
+        assertThat(dispositionService.getAdmissionDispositionConceptIds(), is(Collections.singleton(7)));
+        verify(emrConceptService, times(1)).getConcept("org.openmrs.module.emrapi:Admit to hospital");
+
+        dispositionService.invalidateCaches();
+        assertThat(dispositionService.getAdmissionDispositionConceptIds(), is(Collections.singleton(8)));
+    }
+
     private Disposition getAdmitDisposition() {
         return new Disposition("66de7f60-b73a-11e2-9e96-0800200c9a66", "disposition.admit", "org.openmrs.module.emrapi:Admit to hospital", Collections.<String>emptyList(), Collections.<DispositionObs>emptyList());
     }
@@ -21,6 +21,10 @@ import org.openmrs.Encounter;
 import org.openmrs.module.emrapi.encounter.builder.EncounterBuilder;
 import org.openmrs.module.emrapi.encounter.domain.EncounterTransaction;
 
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.withSettings;
 import static org.mockito.MockitoAnnotations.initMocks;
 
 public class EncounterTransactionMapperTest {
@@ -65,4 +69,21 @@ public class EncounterTransactionMapperTest {
 
         Assert.assertEquals(null, encounterTransaction.getEncounterTypeUuid());
     }
+
+    @Test
+    public void shouldMapOrdersSeparatelyUnlessTheOrderMapperCanMapThemInOnePass() throws Exception {
+        Encounter encounter = new EncounterBuilder().build();
+
+        encounterTransactionMapper.map(encounter, false);
+
+        verify(orderMapper).mapDrugOrders(encounter);
+        verify(orderMapper).mapTestOrders(encounter);
+
+        OrderMapper singlePassOrderMapper = mock(OrderMapper.class, withSettings().extraInterfaces(SinglePassOrderMapper.class));
+        EncounterTransaction encounterTransaction = new EncounterTransactionMapper(encounterObservationsMapper,
+                encounterProviderMapper, singlePassOrderMapper).map(encounter, false);
+
+        verify((SinglePassOrderMapper) singlePassOrderMapper).update(encounterTransaction, encounter);
+        verify(singlePassOrderMapper, never()).mapDrugOrders(encounter);
+    }
 }
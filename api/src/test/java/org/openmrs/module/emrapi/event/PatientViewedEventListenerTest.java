@@ -19,12 +19,16 @@ import org.junit.Before;
 import org.junit.Test;
 import org.openmrs.GlobalProperty;
 import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.PersonName;
 import org.openmrs.User;
 import org.openmrs.api.AdministrationService;
 import org.openmrs.api.PatientService;
 import org.openmrs.api.UserService;
+import org.openmrs.api.context.Context;
 import org.openmrs.module.emrapi.EmrApiConstants;
-import org.openmrs.module.emrapi.utils.GeneralUtils;
+import org.openmrs.module.emrapi.patient.EmrPatientService;
+import org.openmrs.module.emrapi.patient.RecentPatientPurgeAdvice;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -34,6 +38,8 @@ import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class PatientViewedEventListenerTest extends BaseModuleContextSensitiveTest {
 	
@@ -46,6 +52,9 @@ public class PatientViewedEventListenerTest extends BaseModuleContextSensitiveTe
 	@Autowired
 	private AdministrationService adminService;
 	
+	@Autowired
+	private EmrPatientService emrPatientService;
+	
 	private User user;
 	
 	private PatientViewedEventListener listener = new PatientViewedEventListener(null);
@@ -59,6 +68,7 @@ public class PatientViewedEventListenerTest extends BaseModuleContextSensitiveTe
 	private void setInitialLastViewedPatients(List<Integer> patientIds) {
 		userService.setUserProperty(user, EmrApiConstants.USER_PROPERTY_NAME_LAST_VIEWED_PATIENT_IDS,
 		    StringUtils.join(patientIds, ","));
+		emrPatientService.migrateLastViewedPatientsProperties();
 	}
 	
 	private MapMessage createMessage(Patient patient, User user) throws Exception {
@@ -70,17 +80,17 @@ public class PatientViewedEventListenerTest extends BaseModuleContextSensitiveTe
 	}
 	
 	/**
-	 * @verifies add the patient to the last viewed user property
+	 * @verifies add the patient to the last viewed patients
 	 * @see PatientViewedEventListener#processMessage(javax.jms.Message)
 	 */
 	@Test
-	public void processMessage_shouldAddThePatientToTheLastViewedUserProperty() throws Exception {
+	public void processMessage_shouldAddThePatientToTheLastViewedPatients() throws Exception {
 		setInitialLastViewedPatients(Arrays.asList(2, 6, 7));
 		final Integer lastViewedPatientId = 8;
 		Message message = createMessage(patientService.getPatient(lastViewedPatientId), user);
 		listener.processMessage(message);
 		
-		List<Patient> lastViewed = GeneralUtils.getLastViewedPatients(user);
+		List<Patient> lastViewed = emrPatientService.getLastViewedPatients(user, null, null);
 		assertEquals(lastViewedPatientId, lastViewed.get(0).getId());
 		assertEquals(7, lastViewed.get(1).getId().intValue());
 		assertEquals(6, lastViewed.get(2).getId().intValue());
@@ -104,7 +114,7 @@ public class PatientViewedEventListenerTest extends BaseModuleContextSensitiveTe
 		MapMessage message = createMessage(patientService.getPatient(lastSeenPatientId), user);
 		listener.processMessage(message);
 		
-		List<Patient> lastViewed = GeneralUtils.getLastViewedPatients(user);
+		List<Patient> lastViewed = emrPatientService.getLastViewedPatients(user, null, null);
 		assertEquals(newLimit.intValue(), lastViewed.size());
 		assertEquals(lastSeenPatientId, lastViewed.get(0).getId());
 		assertEquals(7, lastViewed.get(1).getId().intValue());
@@ -124,7 +134,7 @@ public class PatientViewedEventListenerTest extends BaseModuleContextSensitiveTe
 		MapMessage message = createMessage(patientService.getPatient(duplicatePatientId), user);
 		listener.processMessage(message);
 		
-		List<Patient> lastViewed = GeneralUtils.getLastViewedPatients(user);
+		List<Patient> lastViewed = emrPatientService.getLastViewedPatients(user, null, null);
 		assertEquals(initialSize, lastViewed.size());
 		assertEquals(duplicatePatientId, lastViewed.get(0).getId());
 		assertEquals(8, lastViewed.get(1).getId().intValue());
@@ -147,7 +157,7 @@ public class PatientViewedEventListenerTest extends BaseModuleContextSensitiveTe
 		MapMessage message = createMessage(patientService.getPatient(duplicatePatientId), user);
 		listener.processMessage(message);
 		
-		List<Patient> lastViewed = GeneralUtils.getLastViewedPatients(user);
+		List<Patient> lastViewed = emrPatientService.getLastViewedPatients(user, null, null);
 		assertEquals(newLimit.intValue(), lastViewed.size());
 		//The duplicate should still have been moved to the top of the list
 		assertEquals(duplicatePatientId, lastViewed.get(0).getId());
@@ -155,4 +165,112 @@ public class PatientViewedEventListenerTest extends BaseModuleContextSensitiveTe
 		assertEquals(7, lastViewed.get(2).getId().intValue());
 		assertEquals(6, lastViewed.get(3).getId().intValue());
 	}
+	
+	@Test
+	public void flush_shouldApplyQueuedViewsOncePerUserAndCoalesceRepeatedViews() throws Exception {
+		setInitialLastViewedPatients(Arrays.asList(7, 8));
+		PatientViewedEventListener queueingListener = new PatientViewedEventListener(null, 3600000, 10);
+		
+		queueingListener.enqueue(user.getUuid(), patientService.getPatient(2).getUuid());
+		queueingListener.enqueue(user.getUuid(), patientService.getPatient(6).getUuid());
+		queueingListener.enqueue(user.getUuid(), patientService.getPatient(2).getUuid());
+		assertEquals(2, queueingListener.getQueueDepth());
+		assertEquals(1, queueingListener.getCoalescedCount());
+		
+		queueingListener.flush();
+		queueingListener.shutdown();
+		
+		assertEquals(0, queueingListener.getQueueDepth());
+		List<Patient> lastViewed = emrPatientService.getLastViewedPatients(user, null, null);
+		assertEquals(4, lastViewed.size());
+		assertEquals(2, lastViewed.get(0).getId().intValue());
+		assertEquals(6, lastViewed.get(1).getId().intValue());
+		assertEquals(8, lastViewed.get(2).getId().intValue());
+		assertEquals(7, lastViewed.get(3).getId().intValue());
+	}
+	
+	@Test
+	public void enqueue_shouldDropViewsWhenTheQueueIsFull() throws Exception {
+		PatientViewedEventListener queueingListener = new PatientViewedEventListener(null, 3600000, 2);
+		
+		assertTrue(queueingListener.enqueue(user.getUuid(), patientService.getPatient(2).getUuid()));
+		assertTrue(queueingListener.enqueue(user.getUuid(), patientService.getPatient(6).getUuid()));
+		assertFalse(queueingListener.enqueue(user.getUuid(), patientService.getPatient(7).getUuid()));
+		// a repeated view doesn't take up more room
+		assertTrue(queueingListener.enqueue(user.getUuid(), patientService.getPatient(2).getUuid()));
+		
+		assertEquals(2, queueingListener.getQueueDepth());
+		assertEquals(1, queueingListener.getDroppedCount());
+		queueingListener.shutdown();
+	}
+	
+	@Test
+	public void getQueueDepth_shouldBeReadableFromTheRegisteredListener() throws Exception {
+		PatientViewedEventListener registered = Context.getRegisteredComponent("patientViewedEventListener",
+		    PatientViewedEventListener.class);
+		registered.enqueue(user.getUuid(), patientService.getPatient(2).getUuid());
+		assertEquals(1, registered.getQueueDepth());
+		
+		registered.shutdown();
+		
+		assertEquals(0, registered.getQueueDepth());
+		assertEquals(2, emrPatientService.getLastViewedPatients(user, null, null).get(0).getId().intValue());
+	}
+	
+	@Test
+	public void shutdown_shouldFlushQueuedViews() throws Exception {
+		setInitialLastViewedPatients(Arrays.asList(7, 8));
+		PatientViewedEventListener queueingListener = new PatientViewedEventListener(null, 3600000, 10);
+		queueingListener.enqueue(user.getUuid(), patientService.getPatient(2).getUuid());
+		
+		queueingListener.shutdown();
+		
+		assertEquals(0, queueingListener.getQueueDepth());
+		List<Patient> lastViewed = emrPatientService.getLastViewedPatients(user, null, null);
+		assertEquals(3, lastViewed.size());
+		assertEquals(2, lastViewed.get(0).getId().intValue());
+	}
+	
+	@Test
+	public void migrateLastViewedPatientsProperties_shouldMoveTheLegacyUserPropertyIntoTheRecentPatientStore()
+	        throws Exception {
+		userService.setUserProperty(user, EmrApiConstants.USER_PROPERTY_NAME_LAST_VIEWED_PATIENT_IDS, "2,6,7");
+		assertEquals(0, emrPatientService.getLastViewedPatients(user, null, null).size());
+		
+		emrPatientService.migrateLastViewedPatientsProperties();
+		
+		List<Patient> page = emrPatientService.getLastViewedPatients(user, 1, 1);
+		assertEquals(1, page.size());
+		assertEquals(6, page.get(0).getId().intValue());
+		assertEquals("", userService.getUser(user.getUserId()).getUserProperty(
+		    EmrApiConstants.USER_PROPERTY_NAME_LAST_VIEWED_PATIENT_IDS));
+		assertEquals(3, emrPatientService.getLastViewedPatients(user, null, null).size());
+	}
+	
+	@Test
+	public void purgePatient_shouldPurgeARecentlyViewedPatient() throws Exception {
+		Patient patient = new Patient();
+		patient.addName(new PersonName("Recently", null, "Viewed"));
+		patient.setGender("F");
+		PatientIdentifier identifier = new PatientIdentifier("RV-1", patientService.getPatientIdentifierType(2), Context
+		        .getLocationService().getLocation(1));
+		identifier.setPreferred(true);
+		patient.addIdentifier(identifier);
+		patientService.savePatient(patient);
+		emrPatientService.addLastViewedPatients(user, Arrays.asList(patientService.getPatient(2), patient));
+		
+		RecentPatientPurgeAdvice advice = new RecentPatientPurgeAdvice();
+		Context.addAdvice(PatientService.class, advice);
+		try {
+			patientService.purgePatient(patient);
+			Context.flushSession();
+		}
+		finally {
+			Context.removeAdvice(PatientService.class, advice);
+		}
+		
+		List<Patient> lastViewed = emrPatientService.getLastViewedPatients(user, null, null);
+		assertEquals(1, lastViewed.size());
+		assertEquals(2, lastViewed.get(0).getId().intValue());
+	}
 }
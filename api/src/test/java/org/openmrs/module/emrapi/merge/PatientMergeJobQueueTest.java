@@ -0,0 +1,112 @@
+package org.openmrs.module.emrapi.merge;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Patient;
+import org.openmrs.User;
+import org.openmrs.api.APIException;
+import org.openmrs.api.PatientService;
+import org.openmrs.module.emrapi.adt.AdtService;
+
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PatientMergeJobQueueTest {
+
+    private AdtService adtService;
+
+    private PatientMergeJobQueue queue;
+
+    private Patient preferred;
+
+    private Patient notPreferred;
+
+    private User submitter;
+
+    private String becameUser;
+
+    @Before
+    public void setUp() throws Exception {
+        adtService = mock(AdtService.class);
+        PatientService patientService = mock(PatientService.class);
+
+        preferred = new Patient(1);
+        preferred.setUuid("preferred-uuid");
+        notPreferred = new Patient(2);
+        notPreferred.setUuid("not-preferred-uuid");
+        submitter = new User();
+        submitter.setSystemId("2-6");
+        when(patientService.getPatientByUuid("preferred-uuid")).thenReturn(preferred);
+        when(patientService.getPatientByUuid("not-preferred-uuid")).thenReturn(notPreferred);
+
+        queue = new PatientMergeJobQueue() {
+            @Override
+            protected void becomeSubmitter(PatientMergeJob job) {
+                becameUser = job.getSubmittedBy();
+            }
+
+            @Override
+            protected void clearSession() {
+            }
+        };
+        queue.setAdtService(adtService);
+        queue.setPatientService(patientService);
+        queue.setVisitsPerTransaction(2);
+    }
+
+    @Test
+    public void submit_shouldMergeVisitsInBatchesAndThenMergePatients() throws Exception {
+        when(adtService.mergeOverlappingVisits(preferred, notPreferred, 2)).thenReturn(2, 2, 1);
+        queue.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                runnable.run();
+            }
+        });
+
+        PatientMergeJob job = queue.submit(preferred, notPreferred, submitter);
+
+        verify(adtService, times(3)).mergeOverlappingVisits(preferred, notPreferred, 2);
+        verify(adtService).mergePatients(preferred, notPreferred);
+        assertThat(job.getStatus(), is(PatientMergeJobStatus.COMPLETED));
+        assertThat(job.getVisitsMerged(), is(5));
+        assertThat(job.getTransactionsCommitted(), is(4));
+        assertThat(queue.getJob(job.getUuid()), is(job));
+        assertThat(job.getSubmittedBy(), is("2-6"));
+        assertThat(becameUser, is("2-6"));
+    }
+
+    @Test
+    public void submit_shouldRecordWhyTheMergeFailed() throws Exception {
+        doThrow(new APIException("Patients have conflicting identifiers")).when(adtService).mergePatients(preferred, notPreferred);
+        queue.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                runnable.run();
+            }
+        });
+
+        PatientMergeJob job = queue.submit(preferred, notPreferred, submitter);
+
+        assertThat(job.getStatus(), is(PatientMergeJobStatus.FAILED));
+        assertThat(job.getError(), is("Patients have conflicting identifiers"));
+        assertThat(job.isFinished(), is(true));
+    }
+
+    @Test
+    public void submit_shouldKeepJobsQueuedUntilTheModuleHasStarted() throws Exception {
+        PatientMergeJob job = queue.submit(preferred, notPreferred, submitter);
+
+        assertThat(job.getStatus(), is(PatientMergeJobStatus.QUEUED));
+        verify(adtService, never()).mergePatients(preferred, notPreferred);
+    }
+
+}
@@ -0,0 +1,133 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.emrapi.patient;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.GlobalProperty;
+import org.openmrs.Patient;
+import org.openmrs.User;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.PatientService;
+import org.openmrs.api.UserService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.emrapi.EmrApiConstants;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the last viewed patients against the emrapi_recent_patient table
+ */
+public class EmrPatientServiceComponentTest extends BaseModuleContextSensitiveTest {
+
+	@Autowired
+	private EmrPatientService emrPatientService;
+
+	@Autowired
+	private PatientService patientService;
+
+	@Autowired
+	private UserService userService;
+
+	@Autowired
+	private AdministrationService adminService;
+
+	private User user;
+
+	@Before
+	public void setup() {
+		user = userService.getUser(502);
+	}
+
+	@Test
+	public void getLastViewedPatients_shouldReturnTheMostRecentlyViewedFirstAndPage() throws Exception {
+		emrPatientService.addLastViewedPatients(user, patients(2, 6));
+		emrPatientService.addLastViewedPatients(user, patients(7));
+
+		assertEquals(Arrays.asList(7, 6, 2), ids(emrPatientService.getLastViewedPatients(user, null, null)));
+		assertEquals(Arrays.asList(6), ids(emrPatientService.getLastViewedPatients(user, 1, 1)));
+		assertEquals(Arrays.asList(6, 2), ids(emrPatientService.getLastViewedPatients(user, 1, null)));
+		assertEquals(0, emrPatientService.getLastViewedPatients(userService.getUser(1), null, null).size());
+	}
+
+	@Test
+	public void getLastViewedPatients_shouldNotReturnVoidedPatients() throws Exception {
+		emrPatientService.addLastViewedPatients(user, patients(2, 6, 7));
+		patientService.voidPatient(patientService.getPatient(6), "testing");
+		Context.flushSession();
+
+		assertEquals(Arrays.asList(7, 2), ids(emrPatientService.getLastViewedPatients(user, null, null)));
+		assertEquals(Arrays.asList(2), ids(emrPatientService.getLastViewedPatients(user, 1, 1)));
+	}
+
+	@Test
+	public void addLastViewedPatients_shouldMoveRepeatedViewsToTheStartAndKeepTheLimit() throws Exception {
+		adminService.saveGlobalProperty(new GlobalProperty(EmrApiConstants.GP_LAST_VIEWED_PATIENT_SIZE_LIMIT, "3"));
+		emrPatientService.addLastViewedPatients(user, patients(2, 6, 7));
+
+		emrPatientService.addLastViewedPatients(user, patients(8, 2, 2));
+		Context.flushSession();
+
+		assertEquals(Arrays.asList(2, 8, 7), ids(emrPatientService.getLastViewedPatients(user, null, null)));
+		assertEquals(3, countRecentPatientRows());
+	}
+
+	@Test
+	public void migrateLastViewedPatientsProperties_shouldMoveTheLegacyPropertyOfEveryUser() throws Exception {
+		userService.setUserProperty(user, EmrApiConstants.USER_PROPERTY_NAME_LAST_VIEWED_PATIENT_IDS, "2, 6,x,7");
+		User admin = userService.getUser(1);
+		userService.setUserProperty(admin, EmrApiConstants.USER_PROPERTY_NAME_LAST_VIEWED_PATIENT_IDS, "8");
+		emrPatientService.addLastViewedPatients(user, patients(8));
+
+		emrPatientService.migrateLastViewedPatientsProperties();
+		Context.flushSession();
+
+		assertEquals(Arrays.asList(7, 6, 2, 8), ids(emrPatientService.getLastViewedPatients(user, null, null)));
+		assertEquals(Arrays.asList(8), ids(emrPatientService.getLastViewedPatients(admin, null, null)));
+		assertEquals("", userService.getUser(502).getUserProperty(
+		    EmrApiConstants.USER_PROPERTY_NAME_LAST_VIEWED_PATIENT_IDS));
+
+		// migrating again does nothing
+		emrPatientService.migrateLastViewedPatientsProperties();
+		Context.flushSession();
+		assertEquals(5, countRecentPatientRows());
+	}
+
+	private List<Patient> patients(Integer... patientIds) {
+		List<Patient> patients = new ArrayList<Patient>();
+		for (Integer patientId : patientIds) {
+			patients.add(patientService.getPatient(patientId));
+		}
+		return patients;
+	}
+
+	private List<Integer> ids(List<Patient> patients) {
+		List<Integer> ids = new ArrayList<Integer>();
+		for (Patient patient : patients) {
+			ids.add(patient.getPatientId());
+		}
+		return ids;
+	}
+
+	private int countRecentPatientRows() {
+		List<List<Object>> rows = adminService.executeSQL("select count(*) from emrapi_recent_patient", true);
+		return ((Number) rows.get(0).get(0)).intValue();
+	}
+}
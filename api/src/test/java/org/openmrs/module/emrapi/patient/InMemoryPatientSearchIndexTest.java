@@ -0,0 +1,124 @@
+package org.openmrs.module.emrapi.patient;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class InMemoryPatientSearchIndexTest {
+
+    private static final Integer PRIMARY = 1;
+
+    private static final Integer OTHER = 2;
+
+    private InMemoryPatientSearchIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        index = new InMemoryPatientSearchIndex();
+        index.load(Arrays.asList(
+                patient(10, "Robert", "Jean", "Baptiste", "Y2A4E1", "OLD123"),
+                patient(11, "Rupert", null, "Jean-Louis", "Y2A4E2", null),
+                patient(12, "Marie", null, "Dupré", "Y2C9K0", null)));
+    }
+
+    @Test
+    public void shouldBeColdUntilLoaded() throws Exception {
+        InMemoryPatientSearchIndex cold = new InMemoryPatientSearchIndex();
+        assertFalse(cold.isReady());
+
+        cold.load(Collections.<IndexedPatient>emptyList());
+        assertTrue(cold.isReady());
+
+        cold.clear();
+        assertFalse(cold.isReady());
+    }
+
+    @Test
+    public void load_shouldReplayUpdatesMadeSinceBeginLoad() throws Exception {
+        index.beginLoad();
+        index.update(patient(12, "Marie", null, "Celestin", "Y2C9K0", null));
+        index.update(patient(13, "Anne", null, "Pierre", "Y2A4E", null));
+        index.remove(11);
+        // searches still see the updates while the load is in progress
+        assertThat(index.findPatientIdsByName("celestin"), is(asList(12)));
+
+        // the loaded patients were read before the updates
+        index.load(Arrays.asList(
+                patient(10, "Robert", "Jean", "Baptiste", "Y2A4E1", "OLD123"),
+                patient(11, "Rupert", null, "Jean-Louis", "Y2A4E2", null),
+                patient(12, "Marie", null, "Dupré", "Y2C9K0", null)));
+
+        assertThat(index.findPatientIdsByName("celestin"), is(asList(12)));
+        assertThat(index.findPatientIdsByName("dupre").isEmpty(), is(true));
+        assertThat(index.findPatientIdsByName("anne"), is(asList(13)));
+        assertThat(index.findPatientIdsByName("louis").isEmpty(), is(true));
+
+        // nothing is replayed over the next load
+        index.load(Collections.singletonList(patient(11, "Rupert", null, "Jean-Louis", "Y2A4E2", null)));
+        assertThat(index.findPatientIdsByName("louis"), is(asList(11)));
+        assertThat(index.findPatientIdsByName("anne").isEmpty(), is(true));
+    }
+
+    @Test
+    public void findPatientIdsByIdentifier_shouldReturnExactMatchesBeforePrefixMatches() throws Exception {
+        index.update(patient(13, "Anne", null, "Pierre", "Y2A4E", null));
+
+        assertThat(index.findPatientIdsByIdentifier("y2a4e", null, false), is(asList(13)));
+        assertThat(index.findPatientIdsByIdentifier(" y2a4e ", null, true), is(asList(13, 10, 11)));
+        assertThat(index.findPatientIdsByIdentifier("Y2A4E1", asList(PRIMARY), false), is(asList(10)));
+        assertThat(index.findPatientIdsByIdentifier("OLD123", asList(PRIMARY), true).isEmpty(), is(true));
+        assertThat(index.findPatientIdsByIdentifier("OLD123", asList(OTHER), true), is(asList(10)));
+    }
+
+    @Test
+    public void findPatientIdsByName_shouldRankExactThenPrefixThenSubstringThenPhoneticMatches() throws Exception {
+        assertThat(index.findPatientIdsByName("jean"), is(asList(10, 11)));
+        assertThat(index.findPatientIdsByName("rob"), is(asList(10)));
+        assertThat(index.findPatientIdsByName("apti"), is(asList(10)));
+        assertThat(index.findPatientIdsByName("robert"), is(asList(10, 11)));
+        assertThat(index.findPatientIdsByName("dupre"), is(asList(12)));
+    }
+
+    @Test
+    public void findPatientIdsByName_shouldRequireEveryWordToMatch() throws Exception {
+        assertThat(index.findPatientIdsByName("jean louis"), is(asList(11)));
+        assertThat(index.findPatientIdsByName("marie baptiste").isEmpty(), is(true));
+    }
+
+    @Test
+    public void update_shouldReplacePreviousEntries() throws Exception {
+        index.update(patient(12, "Marie", null, "Celestin", "Y2C9K0", null));
+        assertThat(index.findPatientIdsByName("dupre").isEmpty(), is(true));
+        assertThat(index.findPatientIdsByName("celestin"), is(asList(12)));
+
+        index.remove(12);
+        assertThat(index.findPatientIdsByIdentifier("Y2C9K0", null, false).isEmpty(), is(true));
+        assertThat(index.findPatientIdsByName("marie").isEmpty(), is(true));
+    }
+
+    @Test
+    public void soundex_shouldEncodeNames() throws Exception {
+        assertThat(InMemoryPatientSearchIndex.soundex("robert"), is("R163"));
+        assertThat(InMemoryPatientSearchIndex.soundex("rupert"), is("R163"));
+        assertThat(InMemoryPatientSearchIndex.soundex("ashcraft"), is("A261"));
+        assertThat(InMemoryPatientSearchIndex.soundex("lee"), is("L000"));
+    }
+
+    private IndexedPatient patient(Integer patientId, String givenName, String middleName, String familyName,
+                                   String primaryIdentifier, String otherIdentifier) {
+        IndexedPatient patient = new IndexedPatient(patientId);
+        patient.addName(givenName, middleName, familyName);
+        patient.addIdentifier(PRIMARY, primaryIdentifier);
+        patient.addIdentifier(OTHER, otherIdentifier);
+        return patient;
+    }
+
+}
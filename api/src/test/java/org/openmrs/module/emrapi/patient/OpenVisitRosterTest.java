@@ -0,0 +1,91 @@
+package org.openmrs.module.emrapi.patient;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class OpenVisitRosterTest {
+
+    private static final Integer HOSPITAL = 1;
+
+    private static final Integer CLINIC = 2;
+
+    private OpenVisitRoster roster;
+
+    @Before
+    public void setUp() throws Exception {
+        roster = new OpenVisitRoster();
+        roster.load(Arrays.asList(
+                new OpenVisitRoster.OpenVisit(102, 20, HOSPITAL),
+                new OpenVisitRoster.OpenVisit(101, 10, HOSPITAL),
+                new OpenVisitRoster.OpenVisit(103, 30, CLINIC)));
+    }
+
+    @Test
+    public void shouldBeColdUntilLoaded() throws Exception {
+        assertFalse(new OpenVisitRoster().isReady());
+        assertTrue(roster.isReady());
+    }
+
+    @Test
+    public void load_shouldReplayChangesMadeSinceBeginLoad() throws Exception {
+        OpenVisitRoster cold = new OpenVisitRoster();
+        cold.beginLoad();
+        cold.visitOpened(new OpenVisitRoster.OpenVisit(104, 40, CLINIC));
+        cold.visitClosed(101);
+
+        // the loaded visits were read before the changes
+        cold.load(Arrays.asList(
+                new OpenVisitRoster.OpenVisit(101, 10, HOSPITAL),
+                new OpenVisitRoster.OpenVisit(103, 30, CLINIC)));
+
+        assertTrue(cold.isReady());
+        assertTrue(cold.getPatientIds(HOSPITAL).isEmpty());
+        assertThat(cold.getPatientIds(CLINIC), is(asList(30, 40)));
+
+        cold.clear();
+        assertFalse(cold.isReady());
+        assertTrue(cold.getPatientIds(CLINIC).isEmpty());
+    }
+
+    @Test
+    public void getPatientIds_shouldReturnPatientsInCheckInOrder() throws Exception {
+        assertThat(roster.getPatientIds(HOSPITAL), is(asList(10, 20)));
+        assertThat(roster.getPatientIds(CLINIC), is(asList(30)));
+        assertTrue(roster.getPatientIds(99).isEmpty());
+    }
+
+    @Test
+    public void visitOpened_shouldHandleNewAndMovedVisits() throws Exception {
+        roster.visitOpened(new OpenVisitRoster.OpenVisit(104, 40, CLINIC));
+        // e.g. a patient merge moves the visit to the preferred patient
+        roster.visitOpened(new OpenVisitRoster.OpenVisit(103, 10, CLINIC));
+
+        assertThat(roster.getPatientIds(CLINIC), is(asList(10, 40)));
+    }
+
+    @Test
+    public void visitClosed_shouldRemoveVisit() throws Exception {
+        roster.visitClosed(101);
+        roster.visitClosed(103);
+        roster.visitClosed(999);
+
+        assertThat(roster.getPatientIds(HOSPITAL), is(asList(20)));
+        assertTrue(roster.getPatientIds(CLINIC).isEmpty());
+    }
+
+    @Test
+    public void getPatientIds_shouldNotRepeatPatientsWithSeveralOpenVisits() throws Exception {
+        roster.visitOpened(new OpenVisitRoster.OpenVisit(105, 20, HOSPITAL));
+
+        assertThat(roster.getPatientIds(HOSPITAL), is(asList(10, 20)));
+    }
+
+}
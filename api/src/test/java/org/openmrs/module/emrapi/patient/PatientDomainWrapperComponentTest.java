@@ -20,6 +20,7 @@ import org.openmrs.module.emrapi.domainwrapper.DomainWrapperFactory;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsNull.notNullValue;
 import static org.junit.Assert.assertThat;
 
@@ -37,5 +38,24 @@ public class PatientDomainWrapperComponentTest extends BaseModuleContextSensitiv
         assertThat(patientDomainWrapper.emrApiProperties, notNullValue());
     }
 
+    @Test
+    public void shouldGetTheSameDependenciesWhetherOrNotEachWrapperIsAutowired() throws Exception {
+        PatientDomainWrapper prewired = factory.newPatientDomainWrapper();
+        PatientDomainWrapper autowired;
+        factory.setAutowireEveryWrapper(true);
+        try {
+            autowired = factory.newPatientDomainWrapper();
+        } finally {
+            factory.setAutowireEveryWrapper(false);
+        }
+
+        assertThat(prewired.emrApiProperties, is(autowired.emrApiProperties));
+        assertThat(prewired.adtService, is(autowired.adtService));
+        assertThat(prewired.visitService, is(autowired.visitService));
+        assertThat(prewired.encounterService, is(autowired.encounterService));
+        assertThat(prewired.diagnosisService, is(autowired.diagnosisService));
+        assertThat(prewired.visitQueryService, is(autowired.visitQueryService));
+    }
+
 }
 
@@ -0,0 +1,81 @@
+package org.openmrs.module.emrapi.person.image;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PersonImageIngestQueueTest {
+
+    private static final String PERSON_UUID = "5946f880-b197-400b-9caa-a3c661d23041";
+
+    private PersonImageStore personImageStore;
+
+    private PersonImageIngestQueue queue;
+
+    private ScheduledThreadPoolExecutor executor;
+
+    @Before
+    public void setUp() throws Exception {
+        personImageStore = mock(PersonImageStore.class);
+        executor = new ScheduledThreadPoolExecutor(1);
+
+        queue = new PersonImageIngestQueue();
+        queue.setPersonImageStore(personImageStore);
+        queue.setExecutor(executor);
+        queue.setRetryDelayMillis(1);
+    }
+
+    @Test
+    public void submit_shouldSaveTheImageInTheBackground() throws Exception {
+        PersonImageStore.StagedImage stagedImage = staged();
+        when(personImageStore.commit(stagedImage)).thenReturn(new File(PERSON_UUID + ".jpeg"));
+
+        assertThat(queue.getStatus(PERSON_UUID), is(PersonImageIngestStatus.NONE));
+        assertThat(queue.submit(stagedImage), is(PersonImageIngestStatus.QUEUED));
+        awaitIdle();
+
+        assertThat(queue.getStatus(PERSON_UUID), is(PersonImageIngestStatus.SAVED));
+        verify(personImageStore).process(PERSON_UUID);
+    }
+
+    @Test
+    public void submit_shouldRetryAndThenGiveUp() throws Exception {
+        PersonImageStore.StagedImage stagedImage = staged();
+        doThrow(new IOException("disk full")).when(personImageStore).process(PERSON_UUID);
+
+        queue.submit(stagedImage);
+        awaitIdle();
+
+        assertThat(queue.getStatus(PERSON_UUID), is(PersonImageIngestStatus.FAILED));
+        verify(personImageStore, times(3)).process(PERSON_UUID);
+        verify(personImageStore).discard(stagedImage);
+    }
+
+    private PersonImageStore.StagedImage staged() throws Exception {
+        PersonImageStore.StagedImage stagedImage = mock(PersonImageStore.StagedImage.class);
+        when(stagedImage.getPersonUuid()).thenReturn(PERSON_UUID);
+        return stagedImage;
+    }
+
+    private void awaitIdle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((executor.getQueue().size() > 0 || executor.getActiveCount() > 0) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+}
@@ -0,0 +1,232 @@
+package org.openmrs.module.emrapi.person.image;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.module.emrapi.EmrApiProperties;
+
+import javax.imageio.ImageIO;
+import javax.xml.bind.DatatypeConverter;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PersonImageStoreTest {
+
+    private static final String PERSON_UUID = "5946f880-b197-400b-9caa-a3c661d23041";
+
+    private File directory;
+
+    private PersonImageStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("personimages", "");
+        directory.delete();
+
+        EmrApiProperties emrApiProperties = mock(EmrApiProperties.class);
+        when(emrApiProperties.getPersonImageDirectory()).thenReturn(directory);
+
+        store = new PersonImageStore();
+        store.setEmrApiProperties(emrApiProperties);
+        store.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        delete(directory);
+    }
+
+    @Test
+    public void save_shouldConvertToJpegAndGenerateRenditions() throws Exception {
+        File saved = store.save(PERSON_UUID, encode(image(400, 300), "png"));
+
+        assertThat(saved, is(new File(directory, "59/46/" + PERSON_UUID + ".jpeg")));
+        assertTrue(isJpeg(saved));
+        assertThat(ImageIO.read(saved).getWidth(), is(400));
+        assertThat(ImageIO.read(store.getFile(PERSON_UUID, PersonImageStore.Rendition.MEDIUM)).getWidth(), is(200));
+        assertThat(ImageIO.read(store.getFile(PERSON_UUID, PersonImageStore.Rendition.SMALL)).getHeight(), is(36));
+        assertThat(saved.getParentFile().list().length, is(3));
+    }
+
+    @Test
+    public void save_shouldConvertToJpegBeforeProcessingAndProcessInlineIfTheExecutorIsSaturated() throws Exception {
+        store.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        });
+        File saved = store.save(PERSON_UUID, encode(image(400, 300), "png"));
+
+        assertTrue(isJpeg(saved));
+        assertThat(ImageIO.read(store.getFile(PERSON_UUID, PersonImageStore.Rendition.SMALL)).getWidth(), is(48));
+        assertThat(store.getContentHash(saved), is(new PersonImageStore().getContentHash(saved)));
+    }
+
+    @Test
+    public void findFile_shouldFallBackToFullSizeAndLegacyImages() throws Exception {
+        File legacy = new File(directory, PERSON_UUID + ".jpeg");
+        directory.mkdirs();
+        ImageIO.write(toRgb(image(400, 400)), "jpeg", legacy);
+        assertThat(store.findFile(PERSON_UUID, PersonImageStore.Rendition.SMALL), is(legacy));
+
+        assertThat(store.backfill(2), is(1));
+        assertFalse(legacy.exists());
+        assertThat(store.findFile(PERSON_UUID, PersonImageStore.Rendition.SMALL), is(store.getFile(PERSON_UUID, PersonImageStore.Rendition.SMALL)));
+        assertThat(ImageIO.read(store.findFile(PERSON_UUID, PersonImageStore.Rendition.SMALL)).getWidth(), is(48));
+
+        store.getFile(PERSON_UUID, PersonImageStore.Rendition.MEDIUM).delete();
+        assertThat(store.findFile(PERSON_UUID, PersonImageStore.Rendition.MEDIUM), is(store.getFile(PERSON_UUID, PersonImageStore.Rendition.FULL)));
+        assertThat(store.backfill(2), is(1));
+        assertThat(store.backfill(2), is(0));
+    }
+
+    @Test
+    public void parse_shouldDefaultToFullSize() throws Exception {
+        assertThat(PersonImageStore.Rendition.parse(null), is(PersonImageStore.Rendition.FULL));
+        assertThat(PersonImageStore.Rendition.parse(" Small"), is(PersonImageStore.Rendition.SMALL));
+    }
+
+    @Test
+    public void save_shouldRejectDataThatIsNotAnImage() throws Exception {
+        try {
+            store.save(PERSON_UUID, DatatypeConverter.printBase64Binary("not an image".getBytes("UTF-8")));
+            assertTrue(false);
+        } catch (IOException e) {
+            // expected
+        }
+        assertFalse(store.getFile(PERSON_UUID, PersonImageStore.Rendition.FULL).exists());
+        assertThat(store.getFile(PERSON_UUID, PersonImageStore.Rendition.FULL).getParentFile().list().length, is(0));
+    }
+
+    @Test
+    public void getContentHash_shouldChangeWithTheImage() throws Exception {
+        assertThat(store.getContentHash(store.getFile(PERSON_UUID, PersonImageStore.Rendition.FULL)), is((String) null));
+
+        File saved = store.save(PERSON_UUID, encode(image(40, 40), "jpeg"));
+        String hash = store.getContentHash(saved);
+        assertThat(hash.length(), is(40));
+        assertThat(store.getContentHash(saved), is(hash));
+        assertThat(new PersonImageStore().getContentHash(saved), is(hash));
+
+        store.save(PERSON_UUID, encode(image(60, 40), "jpeg"));
+        assertFalse(store.getContentHash(saved).equals(hash));
+    }
+
+    @Test
+    public void commit_shouldDeleteThePreviousImagesRenditions() throws Exception {
+        store.save(PERSON_UUID, encode(image(400, 300), "jpeg"));
+        assertTrue(store.getFile(PERSON_UUID, PersonImageStore.Rendition.SMALL).isFile());
+
+        File saved = store.commit(store.stage(PERSON_UUID, encode(image(60, 40), "jpeg")));
+
+        assertFalse(store.getFile(PERSON_UUID, PersonImageStore.Rendition.SMALL).exists());
+        assertFalse(store.getFile(PERSON_UUID, PersonImageStore.Rendition.MEDIUM).exists());
+        assertThat(store.findFile(PERSON_UUID, PersonImageStore.Rendition.SMALL), is(saved));
+    }
+
+    @Test
+    public void save_shouldRejectACorruptJpegAndKeepTheCurrentImage() throws Exception {
+        File saved = store.save(PERSON_UUID, encode(image(40, 40), "jpeg"));
+        String hash = store.getContentHash(saved);
+
+        byte[] jpeg = DatatypeConverter.parseBase64Binary(encode(image(400, 300), "jpeg"));
+        byte[] truncated = Arrays.copyOf(jpeg, jpeg.length - 100);
+        try {
+            store.save(PERSON_UUID, DatatypeConverter.printBase64Binary(truncated));
+            assertTrue(false);
+        } catch (IOException e) {
+            // expected
+        }
+        assertThat(store.getContentHash(saved), is(hash));
+        assertThat(ImageIO.read(saved).getWidth(), is(40));
+        assertThat(saved.getParentFile().list().length, is(3));
+    }
+
+    @Test
+    public void save_shouldNotKeepImageMetadata() throws Exception {
+        byte[] jpeg = DatatypeConverter.parseBase64Binary(encode(image(40, 40), "jpeg"));
+        byte[] exif = "Exif\0\0GPSDATA!".getBytes("ISO-8859-1");
+        ByteArrayOutputStream withExif = new ByteArrayOutputStream();
+        withExif.write(jpeg, 0, 2);
+        withExif.write(new byte[] { (byte) 0xFF, (byte) 0xE1, 0, (byte) (exif.length + 2) });
+        withExif.write(exif);
+        withExif.write(jpeg, 2, jpeg.length - 2);
+
+        File saved = store.save(PERSON_UUID, DatatypeConverter.printBase64Binary(withExif.toByteArray()));
+
+        assertTrue(isJpeg(saved));
+        assertFalse(new String(readAll(saved), "ISO-8859-1").contains("GPSDATA"));
+    }
+
+    private void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private BufferedImage image(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, 0x80ff0000);
+        return image;
+    }
+
+    private String encode(BufferedImage image, String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(format.equals("jpeg") ? toRgb(image) : image, format, out);
+        return DatatypeConverter.printBase64Binary(out.toByteArray());
+    }
+
+    private BufferedImage toRgb(BufferedImage image) {
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        rgb.getGraphics().drawImage(image, 0, 0, null);
+        return rgb;
+    }
+
+    private byte[] readAll(File file) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[1024];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+
+    private boolean isJpeg(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return in.read() == 0xFF && in.read() == 0xD8;
+        } finally {
+            in.close();
+        }
+    }
+
+}
@@ -88,6 +88,9 @@ public class ContextSensitiveMetadataTestUtils {
                 .addSetMembers(disposition, transferTo, admissionLocation, internalTransferLocation, dateOfDeath)
                 .addMapping(sameAs, emrSource, EmrApiConstants.CONCEPT_CODE_DISPOSITION_CONCEPT_SET).saveAndGet();
 
+        // the service is shared across tests, so don't let it hold on to concepts from an earlier (rolled back) test
+        dispositionService.invalidateCaches();
+
         return dispositionService.getDispositionDescriptor();
     }
 
@@ -144,6 +147,8 @@ public class ContextSensitiveMetadataTestUtils {
                 .addSetMembers(order, certainty, codedDiagnosis, nonCodedDiagnosis)
                 .addMapping(sameAs, emrSource, EmrApiConstants.CONCEPT_CODE_DIAGNOSIS_CONCEPT_SET).saveAndGet();
 
+        // concept events aren't delivered in tests, and the metadata may have been cached by an earlier test
+        emrApiProperties.invalidateDiagnosisMetadata();
         return emrApiProperties.getDiagnosisMetadata();
     }
 
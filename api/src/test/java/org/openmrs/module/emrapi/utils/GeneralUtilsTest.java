@@ -3,19 +3,16 @@ package org.openmrs.module.emrapi.utils;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.Mockito;
 import org.openmrs.Patient;
 import org.openmrs.User;
-import org.openmrs.api.AdministrationService;
-import org.openmrs.api.PatientService;
-import org.openmrs.api.UserService;
 import org.openmrs.api.context.Context;
-import org.openmrs.module.emrapi.EmrApiConstants;
+import org.openmrs.module.emrapi.patient.EmrPatientService;
 import org.openmrs.util.OpenmrsConstants;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
@@ -62,53 +59,26 @@ public class GeneralUtilsTest {
     @Test
     public void getLastViewedPatients_shouldReturnAListOfThePatientsLastViewedByTheSpecifiedUser() throws Exception {
         User user = new User(1);
-        user.setUserProperty(EmrApiConstants.USER_PROPERTY_NAME_LAST_VIEWED_PATIENT_IDS, "2,6,7");
         PowerMockito.mockStatic(Context.class);
-        AdministrationService as = mock(AdministrationService.class);
-        PatientService ps = mock(PatientService.class);
-        UserService us = mock(UserService.class);
-        when(Context.getAdministrationService()).thenReturn(as);
-        when(Context.getPatientService()).thenReturn(ps);
-        when(Context.getUserService()).thenReturn(us);
-        when(as.getGlobalProperty(Mockito.eq(EmrApiConstants.UNKNOWN_PATIENT_PERSON_ATTRIBUTE_TYPE_NAME))).thenReturn("");
-        when(ps.getPatient(eq(2))).thenReturn(new Patient(2));
-        when(ps.getPatient(eq(6))).thenReturn(new Patient(6));
-        when(ps.getPatient(eq(7))).thenReturn(new Patient(7));
-        when(us.getUser(eq(user.getId()))).thenReturn(user);
+        EmrPatientService emrPatientService = mock(EmrPatientService.class);
+        when(Context.getService(EmrPatientService.class)).thenReturn(emrPatientService);
+        when(emrPatientService.getLastViewedPatients(user, null, null)).thenReturn(
+                Arrays.asList(new Patient(7), new Patient(6), new Patient(2)));
 
         List<Patient> lastViewed = GeneralUtils.getLastViewedPatients(user);
+        Assert.assertEquals(3, lastViewed.size());
         Assert.assertEquals(7, lastViewed.get(0).getId().intValue());
         Assert.assertEquals(6, lastViewed.get(1).getId().intValue());
         Assert.assertEquals(2, lastViewed.get(2).getId().intValue());
     }
 
     /**
-     * @verifies not return voided patients
+     * @verifies return an empty list for no user
      * @see GeneralUtils#getLastViewedPatients(org.openmrs.User)
      */
     @Test
-    public void getLastViewedPatients_shouldNotReturnVoidedPatients() throws Exception {
-        Patient voided = new Patient(999);
-        voided.setVoided(true);
-        User user = new User(1);
-        user.setUserProperty(EmrApiConstants.USER_PROPERTY_NAME_LAST_VIEWED_PATIENT_IDS, "2,999,3");
-        PowerMockito.mockStatic(Context.class);
-        AdministrationService as = mock(AdministrationService.class);
-        PatientService ps = mock(PatientService.class);
-        UserService us = mock(UserService.class);
-        when(Context.getAdministrationService()).thenReturn(as);
-        when(Context.getPatientService()).thenReturn(ps);
-        when(Context.getUserService()).thenReturn(us);
-        when(as.getGlobalProperty(Mockito.eq(EmrApiConstants.UNKNOWN_PATIENT_PERSON_ATTRIBUTE_TYPE_NAME))).thenReturn("");
-        when(ps.getPatient(eq(2))).thenReturn(new Patient(2));
-        when(ps.getPatient(eq(3))).thenReturn(new Patient(3));
-        when(ps.getPatient(eq(999))).thenReturn(voided);
-        when(us.getUser(eq(user.getId()))).thenReturn(user);
-
-        List<Patient> lastViewed = GeneralUtils.getLastViewedPatients(user);
-        Assert.assertEquals(2, lastViewed.size());
-        Assert.assertEquals(3, lastViewed.get(0).getId().intValue());
-        Assert.assertEquals(2, lastViewed.get(1).getId().intValue());
+    public void getLastViewedPatients_shouldReturnAnEmptyListForNoUser() throws Exception {
+        Assert.assertEquals(0, GeneralUtils.getLastViewedPatients(null).size());
     }
 
 }
@@ -0,0 +1,78 @@
+package org.openmrs.module.emrapi.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class SerialDaemonExecutorTest {
+
+    private List<Runnable> startedWorkers;
+
+    private List<String> ran;
+
+    private SerialDaemonExecutor executor;
+
+    @Before
+    public void setUp() throws Exception {
+        startedWorkers = new ArrayList<Runnable>();
+        ran = new ArrayList<String>();
+        executor = new SerialDaemonExecutor(null) {
+            @Override
+            protected void startWorker(Runnable worker) {
+                startedWorkers.add(worker);
+            }
+
+            @Override
+            protected void clearSession() {
+            }
+        };
+    }
+
+    @Test
+    public void shouldRunTasksInOrderOnOneWorkerUntilItRunsOut() throws Exception {
+        executor.execute(task("first"));
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("failing task");
+            }
+        });
+        executor.execute(task("second"));
+        assertThat(startedWorkers.size(), is(1));
+
+        startedWorkers.get(0).run();
+        assertThat(ran, is(asList("first", "second")));
+
+        executor.execute(task("third"));
+        assertThat(startedWorkers.size(), is(2));
+        startedWorkers.get(1).run();
+        assertThat(ran, is(asList("first", "second", "third")));
+    }
+
+    @Test
+    public void shutdown_shouldDiscardTasksThatHaveNotStarted() throws Exception {
+        executor.execute(task("first"));
+        executor.shutdown();
+        executor.execute(task("second"));
+
+        startedWorkers.get(0).run();
+        assertThat(startedWorkers.size(), is(1));
+        assertThat(ran.isEmpty(), is(true));
+    }
+
+    private Runnable task(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ran.add(name);
+            }
+        };
+    }
+
+}
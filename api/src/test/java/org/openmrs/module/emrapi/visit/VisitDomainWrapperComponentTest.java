@@ -59,6 +59,23 @@ public class VisitDomainWrapperComponentTest extends BaseModuleContextSensitiveT
         assertThat(visitDomainWrapper.emrApiProperties, notNullValue());
     }
 
+    @Test
+    public void shouldGetTheSameDependenciesWhetherOrNotEachWrapperIsAutowired() throws Exception {
+        VisitDomainWrapper prewired = factory.newVisitDomainWrapper();
+        VisitDomainWrapper autowired;
+        factory.setAutowireEveryWrapper(true);
+        try {
+            autowired = factory.newVisitDomainWrapper();
+        } finally {
+            factory.setAutowireEveryWrapper(false);
+        }
+
+        assertThat(prewired.emrApiProperties, is(autowired.emrApiProperties));
+        assertThat(prewired.dispositionService, is(autowired.dispositionService));
+        assertThat(prewired.visitQueryService, is(autowired.visitQueryService));
+        assertThat(prewired.visitQueryService, notNullValue());
+    }
+
     @Test
     public void isAwaitingAdmission_shouldReturnTrueIfVisitAwaitingAdmission() throws Exception {
 
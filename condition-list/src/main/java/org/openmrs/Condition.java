@@ -32,6 +32,12 @@ import java.util.Date;
 public class Condition extends BaseOpenmrsData implements java.io.Serializable {
 
     public static final long serialVersionUID = 2L;
+
+    /**
+     * Length of {@link #getConditionNonCodedKey()}, short enough for the key to be indexed on every database
+     */
+    public static final int NON_CODED_KEY_LENGTH = 255;
+
     protected final Log log = LogFactory.getLog(getClass());
 
     /**
@@ -57,6 +63,7 @@ public class Condition extends BaseOpenmrsData implements java.io.Serializable {
     private Status status = Status.PRESUMED;
     private Concept concept;
     private String conditionNonCoded;
+    private String conditionNonCodedKey;
     private Date onsetDate;
     private String additionalDetail;
     private Date endDate;
@@ -182,6 +189,34 @@ public class Condition extends BaseOpenmrsData implements java.io.Serializable {
         this.conditionNonCoded = conditionNonCoded;
     }
 
+    /**
+     * @return the lower case, whitespace free form of conditionNonCoded, truncated to {@link #NON_CODED_KEY_LENGTH}, as
+     * of the last save. Used to look up duplicate non-coded conditions.
+     */
+    public String getConditionNonCodedKey() {
+        return conditionNonCodedKey;
+    }
+
+    /**
+     * @param conditionNonCodedKey The conditionNonCodedKey to set.
+     * @see #toConditionNonCodedKey(String)
+     */
+    public void setConditionNonCodedKey(String conditionNonCodedKey) {
+        this.conditionNonCodedKey = conditionNonCodedKey;
+    }
+
+    /**
+     * @param conditionNonCoded
+     * @return the key under which conditionNonCoded is looked up, or null if conditionNonCoded is null
+     */
+    public static String toConditionNonCodedKey(String conditionNonCoded) {
+        if (conditionNonCoded == null) {
+            return null;
+        }
+        String key = conditionNonCoded.replaceAll("\\s", "").toLowerCase();
+        return key.length() > NON_CODED_KEY_LENGTH ? key.substring(0, NON_CODED_KEY_LENGTH) : key;
+    }
+
     /**
      * @return Returns the onsetDate.
      */
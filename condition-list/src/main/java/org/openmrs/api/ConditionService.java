@@ -20,9 +20,11 @@ import org.openmrs.Patient;
 import org.openmrs.annotation.Authorized;
 import org.openmrs.api.util.PrivilegeConstants;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public interface ConditionService extends OpenmrsService {
     @Authorized({PrivilegeConstants.EDIT_CONDITIONS})
@@ -35,8 +37,45 @@ public interface ConditionService extends OpenmrsService {
 
     List<ConditionHistory> getConditionHistory(Patient patient);
 
+    /**
+     * Like {@link #getConditionHistory(Patient)}, but only assembles a page of the histories
+     *
+     * @param patient
+     * @param start index of the first history to return, or null to start at the most recent one
+     * @param length maximum number of histories to return, or null for all of them
+     * @return the patient's condition histories, grouped by concept (or by text for non-coded conditions), most
+     * recently recorded first
+     */
+    List<ConditionHistory> getConditionHistory(Patient patient, Integer start, Integer length);
+
     @Authorized({PrivilegeConstants.GET_CONDITIONS})
     List<Condition> getActiveConditions(Patient patient);
 
+    /**
+     * Gets the active conditions of many patients at once, e.g. for reports and dashboards
+     *
+     * @param patients
+     * @return each patient's active conditions, most recent first, in the same order as patients (patients without
+     * active conditions map to an empty list)
+     */
+    @Authorized({PrivilegeConstants.GET_CONDITIONS})
+    Map<Patient, List<Condition>> getActiveConditions(Collection<Patient> patients);
+
     List<Concept> getEndReasonConcepts();
+
+    /**
+     * Cached form of {@link #getEndReasonConcepts()}, for validation. Changes to the end reason concept set are picked
+     * up within a minute.
+     *
+     * @return the ids of the end reason concepts
+     */
+    Set<Integer> getEndReasonConceptIds();
+
+    /**
+     * @param condition
+     * @return whether the patient already has another active condition with the same concept and the same
+     * conditionNonCoded, ignoring case and whitespace
+     */
+    @Authorized({PrivilegeConstants.GET_CONDITIONS})
+    boolean hasActiveDuplicate(Condition condition);
 }
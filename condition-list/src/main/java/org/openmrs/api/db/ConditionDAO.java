@@ -13,14 +13,21 @@
  */
 package org.openmrs.api.db;
 
+import org.openmrs.Concept;
 import org.openmrs.Condition;
 import org.openmrs.Patient;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public interface ConditionDAO {
     Condition saveOrUpdate(Condition condition);
     Condition getConditionByUuid(String uuid);
     List<Condition> getConditionHistory(Patient patient);
+    List<Object[]> getConditionHistoryKeys(Patient patient);
+    List<Condition> getConditions(Collection<Integer> conditionIds);
     List<Condition> getActiveConditions(Patient patient);
+    List<String> getActiveConditionsNonCoded(Patient patient, Concept concept, String conditionNonCodedKey, String excludeUuid);
+    Map<Patient, List<Condition>> getActiveConditions(Collection<Patient> patients);
 }
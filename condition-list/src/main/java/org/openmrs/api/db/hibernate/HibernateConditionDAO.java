@@ -17,16 +17,26 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.hibernate.Query;
 import org.hibernate.SessionFactory;
+import org.openmrs.Concept;
 import org.openmrs.Condition;
 import org.openmrs.Patient;
 import org.openmrs.api.db.ConditionDAO;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class HibernateConditionDAO implements ConditionDAO {
 
     protected static final Log log = LogFactory.getLog(ConditionDAO.class);
+
+    // keeps "in" lists well below the limits of any database
+    private static final int MAX_IDS_PER_QUERY = 1000;
+
     /**
      * Hibernate session factory
      */
@@ -65,6 +75,33 @@ public class HibernateConditionDAO implements ConditionDAO {
         return query.list();
     }
 
+    /**
+     * @return [conditionId, conceptId, conditionNonCoded] of the patient's non-voided conditions, most recent first,
+     * without loading the conditions themselves
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public List<Object[]> getConditionHistoryKeys(Patient patient) {
+        Query query = sessionFactory.getCurrentSession().createQuery("select con.conditionId, con.concept.conceptId, con.conditionNonCoded " +
+                "from Condition as con where con.patient.patientId = :patientId and con.voided = false " +
+                "order by con.dateCreated desc, con.conditionId desc");
+        query.setInteger("patientId", patient.getId());
+        return query.list();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<Condition> getConditions(Collection<Integer> conditionIds) {
+        List<Condition> conditions = new ArrayList<Condition>();
+        List<Integer> ids = new ArrayList<Integer>(conditionIds);
+        for (int i = 0; i < ids.size(); i += MAX_IDS_PER_QUERY) {
+            Query query = sessionFactory.getCurrentSession().createQuery("from Condition c where c.conditionId in (:conditionIds)");
+            query.setParameterList("conditionIds", ids.subList(i, Math.min(ids.size(), i + MAX_IDS_PER_QUERY)));
+            conditions.addAll((List<Condition>) query.list());
+        }
+        return conditions;
+    }
+
     @Override
     @Transactional(readOnly = true)
     public List<Condition> getActiveConditions(Patient patient) {
@@ -72,4 +109,50 @@ public class HibernateConditionDAO implements ConditionDAO {
         query.setInteger("patientId", patient.getId());
         return query.list();
     }
+
+    /**
+     * @return the conditionNonCoded of the patient's active conditions with the given concept and key, other than the
+     * one with excludeUuid (looked up through the (patient_id, condition_non_coded_key) index)
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public List<String> getActiveConditionsNonCoded(Patient patient, Concept concept, String conditionNonCodedKey, String excludeUuid) {
+        Query query = sessionFactory.getCurrentSession().createQuery("select c.conditionNonCoded from Condition c " +
+                "where c.patient.patientId = :patientId and c.conditionNonCodedKey = :conditionNonCodedKey " +
+                "and c.concept.conceptId = :conceptId and c.voided = false and c.endDate is null " +
+                (excludeUuid == null ? "" : "and c.uuid <> :excludeUuid"));
+        query.setInteger("patientId", patient.getId());
+        query.setInteger("conceptId", concept.getConceptId());
+        query.setString("conditionNonCodedKey", conditionNonCodedKey);
+        if (excludeUuid != null) {
+            query.setString("excludeUuid", excludeUuid);
+        }
+        return query.list();
+    }
+
+    /**
+     * Uses one query per {@link #MAX_IDS_PER_QUERY} patients, backed by the (patient_id, voided, end_date) index
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public Map<Patient, List<Condition>> getActiveConditions(Collection<Patient> patients) {
+        Map<Integer, List<Condition>> byPatientId = new HashMap<Integer, List<Condition>>();
+        Map<Patient, List<Condition>> activeConditions = new LinkedHashMap<Patient, List<Condition>>();
+        for (Patient patient : patients) {
+            List<Condition> conditions = new ArrayList<Condition>();
+            byPatientId.put(patient.getId(), conditions);
+            activeConditions.put(patient, conditions);
+        }
+
+        List<Integer> patientIds = new ArrayList<Integer>(byPatientId.keySet());
+        for (int i = 0; i < patientIds.size(); i += MAX_IDS_PER_QUERY) {
+            Query query = sessionFactory.getCurrentSession().createQuery("from Condition c where c.patient.patientId in (:patientIds) " +
+                    "and c.voided = false and c.endDate is null order by c.dateCreated desc");
+            query.setParameterList("patientIds", patientIds.subList(i, Math.min(patientIds.size(), i + MAX_IDS_PER_QUERY)));
+            for (Condition condition : (List<Condition>) query.list()) {
+                byPatientId.get(condition.getPatient().getPatientId()).add(condition);
+            }
+        }
+        return activeConditions;
+    }
 }
@@ -14,11 +14,15 @@
 package org.openmrs.api.impl;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.openmrs.Concept;
 import org.openmrs.Condition;
@@ -39,6 +43,14 @@ public class ConditionServiceImpl extends BaseOpenmrsService implements Conditio
     private ConceptService conceptService;
     private AdministrationService administrationService;
 
+    // how long end reason concept ids are reused before the concept set is read again
+    private static final long END_REASON_CACHE_MILLIS = 60 * 1000;
+
+    private volatile EndReasons endReasons;
+
+    // [uuid, conceptId] of the non-coded concept
+    private volatile Object[] nonCodedConcept;
+
     public ConditionServiceImpl(ConditionDAO conditionDAO, ConceptService conceptService, AdministrationService administrationService) {
         this.conditionDAO = conditionDAO;
         this.conceptService = conceptService;
@@ -50,34 +62,84 @@ public class ConditionServiceImpl extends BaseOpenmrsService implements Conditio
         if (condition.getEndReason() != null && condition.getEndDate() == null) {
             condition.setEndDate(new Date());
         }
+        condition.setConditionNonCodedKey(Condition.toConditionNonCodedKey(condition.getConditionNonCoded()));
         return conditionDAO.saveOrUpdate(condition);
     }
 
     public List<ConditionHistory> getConditionHistory(Patient patient) {
-        List<Condition> conditionList = conditionDAO.getConditionHistory(patient);
-        Map<String, ConditionHistory> allConditions = new LinkedHashMap<String, ConditionHistory>();
-        for (Condition condition : conditionList) {
-            Concept concept = condition.getConcept();
-            
-            String nonCodedConceptUuid = administrationService.getGlobalProperty(ConditionListConstants.GLOBAL_PROPERTY_NON_CODED_UUID);
-            
-            String key = concept.getUuid().equals(nonCodedConceptUuid) ? condition.getConditionNonCoded() : concept.getUuid();
-            ConditionHistory conditionHistory = allConditions.get(key);
-            if (conditionHistory != null) {
-                conditionHistory.getConditions().add(condition);
-            } else {
-                conditionHistory = new ConditionHistory();
-                List<Condition> conditions = new ArrayList<Condition>();
-                conditions.add(condition);
-                conditionHistory.setConditions(conditions);
-                conditionHistory.setCondition(condition.getConcept());
-                if (concept.getUuid().equals(nonCodedConceptUuid)) {
-                    conditionHistory.setNonCodedCondition(condition.getConditionNonCoded());
-                }
+        return getConditionHistory(patient, null, null);
+    }
+
+    /**
+     * Groups the patient's conditions in a single pass over their keys, and then only loads the conditions of the
+     * requested page of groups
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public List<ConditionHistory> getConditionHistory(Patient patient, Integer start, Integer length) {
+        Integer nonCodedConceptId = getNonCodedConceptId();
+
+        // most recently recorded group first, and most recent condition first within each group
+        Map<String, List<Integer>> conditionIdsByKey = new LinkedHashMap<String, List<Integer>>();
+        for (Object[] row : conditionDAO.getConditionHistoryKeys(patient)) {
+            Integer conceptId = (Integer) row[1];
+            String key = conceptId.equals(nonCodedConceptId) ? "nonCoded:" + row[2] : "concept:" + conceptId;
+            List<Integer> conditionIds = conditionIdsByKey.get(key);
+            if (conditionIds == null) {
+                conditionIds = new ArrayList<Integer>();
+                conditionIdsByKey.put(key, conditionIds);
+            }
+            conditionIds.add((Integer) row[0]);
+        }
+
+        List<List<Integer>> groups = new ArrayList<List<Integer>>(conditionIdsByKey.values());
+        int from = start == null ? 0 : Math.min(Math.max(start, 0), groups.size());
+        int to = length == null ? groups.size() : Math.min(groups.size(), from + Math.max(length, 0));
+        groups = groups.subList(from, to);
+
+        List<Integer> pageConditionIds = new ArrayList<Integer>();
+        for (List<Integer> group : groups) {
+            pageConditionIds.addAll(group);
+        }
+        Map<Integer, Condition> conditionsById = new HashMap<Integer, Condition>();
+        for (Condition condition : conditionDAO.getConditions(pageConditionIds)) {
+            conditionsById.put(condition.getConditionId(), condition);
+        }
+
+        List<ConditionHistory> histories = new ArrayList<ConditionHistory>(groups.size());
+        for (List<Integer> group : groups) {
+            List<Condition> conditions = new ArrayList<Condition>(group.size());
+            for (Integer conditionId : group) {
+                conditions.add(conditionsById.get(conditionId));
+            }
+            Condition mostRecent = conditions.get(0);
+            ConditionHistory conditionHistory = new ConditionHistory();
+            conditionHistory.setConditions(conditions);
+            conditionHistory.setCondition(mostRecent.getConcept());
+            if (mostRecent.getConcept().getConceptId().equals(nonCodedConceptId)) {
+                conditionHistory.setNonCodedCondition(mostRecent.getConditionNonCoded());
             }
-            allConditions.put(key,conditionHistory);
+            histories.add(conditionHistory);
         }
-        return new ArrayList<ConditionHistory>(allConditions.values());
+        return histories;
+    }
+
+    /**
+     * @return the id of the concept configured for non-coded conditions, or null if there isn't one
+     */
+    private Integer getNonCodedConceptId() {
+        String uuid = administrationService.getGlobalProperty(ConditionListConstants.GLOBAL_PROPERTY_NON_CODED_UUID);
+        if (uuid == null) {
+            return null;
+        }
+        // concept ids never change, so only the uuid -> id mapping for the current setting is kept
+        Object[] cached = nonCodedConcept;
+        if (cached == null || !uuid.equals(cached[0])) {
+            Concept concept = conceptService.getConceptByUuid(uuid);
+            cached = new Object[] { uuid, concept == null ? null : concept.getConceptId() };
+            nonCodedConcept = cached;
+        }
+        return (Integer) cached[1];
     }
 
     @Override
@@ -85,6 +147,7 @@ public class ConditionServiceImpl extends BaseOpenmrsService implements Conditio
         if (!StringUtils.hasLength(voidReason)) {
             throw new IllegalArgumentException("voidReason cannot be empty or null");
         }
+        condition.setConditionNonCodedKey(Condition.toConditionNonCodedKey(condition.getConditionNonCoded()));
         return conditionDAO.saveOrUpdate(condition);
     }
 
@@ -98,12 +161,54 @@ public class ConditionServiceImpl extends BaseOpenmrsService implements Conditio
         return conditionDAO.getActiveConditions(patient);
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public Map<Patient, List<Condition>> getActiveConditions(Collection<Patient> patients) {
+        return conditionDAO.getActiveConditions(patients);
+    }
+
     @Override
     @Transactional(readOnly = true)
     public List<Concept> getEndReasonConcepts() {
         return getSetMembersOfConceptSetFromGP(ConditionListConstants.GP_END_REASON_CONCEPT_SET_UUID);
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public Set<Integer> getEndReasonConceptIds() {
+        EndReasons cached = endReasons;
+        long now = System.currentTimeMillis();
+        if (cached == null || now - cached.loadedAt > END_REASON_CACHE_MILLIS) {
+            Set<Integer> conceptIds = new HashSet<Integer>();
+            for (Concept concept : getEndReasonConcepts()) {
+                conceptIds.add(concept.getConceptId());
+            }
+            cached = new EndReasons(Collections.unmodifiableSet(conceptIds), now);
+            endReasons = cached;
+        }
+        return cached.conceptIds;
+    }
+
+    /**
+     * Uses one indexed query on the normalized key, and then compares the full text in case the keys were truncated
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public boolean hasActiveDuplicate(Condition condition) {
+        if (condition.getConditionNonCoded() == null || condition.getPatient() == null || condition.getConcept() == null) {
+            return false;
+        }
+        String key = Condition.toConditionNonCodedKey(condition.getConditionNonCoded());
+        String normalized = condition.getConditionNonCoded().replaceAll("\\s", "");
+        for (String other : conditionDAO.getActiveConditionsNonCoded(condition.getPatient(), condition.getConcept(), key,
+                condition.getUuid())) {
+            if (other.replaceAll("\\s", "").equalsIgnoreCase(normalized)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private List<Concept> getSetMembersOfConceptSetFromGP(String globalProperty) {
         String conceptUuid = administrationService.getGlobalProperty(globalProperty);
         Concept concept = conceptService.getConceptByUuid(conceptUuid);
@@ -112,4 +217,16 @@ public class ConditionServiceImpl extends BaseOpenmrsService implements Conditio
         }
         return Collections.emptyList();
     }
+
+    private static class EndReasons {
+
+        private final Set<Integer> conceptIds;
+
+        private final long loadedAt;
+
+        private EndReasons(Set<Integer> conceptIds, long loadedAt) {
+            this.conceptIds = conceptIds;
+            this.loadedAt = loadedAt;
+        }
+    }
 }
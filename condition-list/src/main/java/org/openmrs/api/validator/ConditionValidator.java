@@ -16,7 +16,6 @@ package org.openmrs.api.validator;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.openmrs.Concept;
 import org.openmrs.Condition;
 import org.openmrs.annotation.Handler;
 import org.openmrs.api.AdministrationService;
@@ -26,8 +25,6 @@ import org.springframework.validation.Errors;
 import org.springframework.validation.ValidationUtils;
 import org.springframework.validation.Validator;
 
-import java.util.List;
-
 @Handler(supports = {Condition.class})
 public class ConditionValidator implements Validator {
     /**
@@ -80,24 +77,14 @@ public class ConditionValidator implements Validator {
             if (condition.getEndDate() != null) {
                 errors.rejectValue("endReason", "Condition.error.endReasonIsMandatory");
             }
-        } else {
-            List<Concept> endReasonConcepts = conditionService.getEndReasonConcepts();
-            if (!endReasonConcepts.contains(condition.getEndReason())) {
-                errors.rejectValue("endReason", "Condition.error.notAmongAllowedConcepts");
-            }
+        } else if (!conditionService.getEndReasonConceptIds().contains(condition.getEndReason().getConceptId())) {
+            errors.rejectValue("endReason", "Condition.error.notAmongAllowedConcepts");
         }
     }
 
-
     private void validateDuplicateConditions(Condition condition, Errors errors) {
-        List<Condition> conditionsForPatient = conditionService.getActiveConditions(condition.getPatient());
-        if (condition.getConditionNonCoded() != null) {
-            for (Condition eachCondition : conditionsForPatient) {
-                if (eachCondition.getConcept().equals(condition.getConcept())
-                        && eachCondition.getConditionNonCoded().equalsIgnoreCase(condition.getConditionNonCoded().replaceAll("\\s", "")) && !eachCondition.getUuid().equals(condition.getUuid())) {
-                    errors.rejectValue("concept", "Condition.error.duplicatesNotAllowed");
-                }
-            }
+        if (conditionService.hasActiveDuplicate(condition)) {
+            errors.rejectValue("concept", "Condition.error.duplicatesNotAllowed");
         }
     }
 
@@ -24,7 +24,10 @@ import org.openmrs.api.PatientService;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 
@@ -78,6 +81,20 @@ public class ConditionDAOIT extends BaseModuleContextSensitiveTest {
         assertEquals("p8ri8o0s-2m46-11e4-5df4-a6p5e4dh2fb7", activeConditions.get(1).getUuid());
         assertEquals("c84i8o0e-2n46-11e4-58f4-a6i5e4d22fb7", activeConditions.get(2).getUuid());
     }
+    @Test
+    public void shouldGetActiveConditionsForManyPatientsInOneCall() {
+        Patient patient1 = patientService.getPatient(1);
+        Patient patient3 = patientService.getPatient(3);
+        Patient patientWithoutConditions = new Patient(999);
+
+        Map<Patient, List<Condition>> activeConditions = conditionDao.getActiveConditions(Arrays.asList(patient3, patientWithoutConditions, patient1));
+
+        assertEquals(Arrays.asList(patient3, patientWithoutConditions, patient1), new ArrayList<Patient>(activeConditions.keySet()));
+        assertEquals(conditionDao.getActiveConditions(patient3), activeConditions.get(patient3));
+        assertEquals(conditionDao.getActiveConditions(patient1), activeConditions.get(patient1));
+        assertEquals(0, activeConditions.get(patientWithoutConditions).size());
+    }
+
     @Test
     public void shouldThrowErrorWhenChangingConcept(){
         Condition condition = conditionDao.getConditionByUuid("2cc6880e-2c46-11e4-9038-a6c5e4d22fb7");
@@ -142,6 +142,16 @@ public class ConditionServiceImplIT extends BaseModuleContextSensitiveTest {
         	new ConditionHistoryMatcher("pain", 1), new ConditionHistoryMatcher("Angina", 1), 
         	new ConditionHistoryMatcher("Tuberculosis", 1)));
     }
+
+    @Test
+    public void shouldGetPageOfConditionHistoryForPatient() {
+        Patient patient = patientService.getPatient(3);
+
+        assertThat(conditionService.getConditionHistory(patient, 1, 2), contains(new ConditionHistoryMatcher("pain", 1),
+                new ConditionHistoryMatcher("Angina", 1)));
+        assertThat(conditionService.getConditionHistory(patient, 3, 10), contains(new ConditionHistoryMatcher("Tuberculosis", 1)));
+        assertTrue(conditionService.getConditionHistory(patient, 4, 10).isEmpty());
+    }
     
     public static class ConditionHistoryMatcher extends TypeSafeMatcher<ConditionHistory> {
     	private final String name;
@@ -87,6 +87,24 @@ public class ConditionValidatorIT extends BaseModuleContextSensitiveTest {
         Assert.assertEquals("Condition.error.duplicatesNotAllowed", ((List<ObjectError>) errors.getAllErrors()).get(0).getCode());
     }
 
+    @Test
+    public void shouldNotAllowDuplicateOfConditionSavedWithDifferentWhiteSpaces() {
+        conditionService.save(createCondition(Condition.Status.PRESUMED, "OTHER, NON-CODED", 1, "4584c584-c291-46c8-8584-96dc33d19584", "Back  Pain"));
+
+        Condition condition = createCondition(Condition.Status.CONFIRMED, "OTHER, NON-CODED", 1, "5584c584-c291-46c8-8584-96dc33d19584", "back pain");
+        Errors errors = new BindException(condition, "condition");
+        conditionValidator.validate(condition, errors);
+        Assert.assertEquals("Condition.error.duplicatesNotAllowed", ((List<ObjectError>) errors.getAllErrors()).get(0).getCode());
+    }
+
+    @Test
+    public void shouldAllowNonCodedConditionWithDifferentValue() {
+        Condition condition = createCondition(Condition.Status.PRESUMED, "OTHER, NON-CODED", 2, "3584c584-c291-46c8-8584-96dc33d19584", "pains");
+        Errors errors = new BindException(condition, "condition");
+        conditionValidator.validate(condition, errors);
+        Assert.assertFalse(errors.hasErrors());
+    }
+
 
     @Test
     public void shouldNotAllowInValidEndReasonConcept() {
@@ -35,6 +35,7 @@ public class PatientProfileResource extends DelegatingCrudResource<PatientProfil
         DelegatingResourceDescription description = new DelegatingResourceDescription();
         description.addProperty("patient", Representation.FULL);
         description.addProperty("image");
+        description.addProperty("imageStatus");
         return description;
     }
 
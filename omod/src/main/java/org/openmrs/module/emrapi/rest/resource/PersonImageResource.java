@@ -4,6 +4,7 @@ import org.openmrs.Person;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.emrapi.person.image.EmrPersonImageService;
 import org.openmrs.module.emrapi.person.image.PersonImage;
+import org.openmrs.module.emrapi.person.image.PersonImageStore;
 import org.openmrs.module.emrapi.rest.exception.PersonNotFoundException;
 import org.openmrs.module.webservices.rest.web.RequestContext;
 import org.openmrs.module.webservices.rest.web.RestConstants;
@@ -12,15 +13,20 @@ import org.openmrs.module.webservices.rest.web.representation.Representation;
 import org.openmrs.module.webservices.rest.web.resource.impl.DelegatingCrudResource;
 import org.openmrs.module.webservices.rest.web.resource.impl.DelegatingResourceDescription;
 import org.openmrs.module.webservices.rest.web.response.GenericRestException;
+import org.openmrs.module.webservices.rest.web.response.IllegalRequestException;
 import org.openmrs.module.webservices.rest.web.response.ObjectNotFoundException;
 import org.openmrs.module.webservices.rest.web.response.ResourceDoesNotSupportOperationException;
 import org.openmrs.module.webservices.rest.web.response.ResponseException;
-import org.openmrs.util.OpenmrsUtil;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
 import java.util.List;
 
@@ -66,13 +72,50 @@ public class PersonImageResource extends DelegatingCrudResource<PersonImage> {
 
     @Override
     public Object retrieve(String uuid, RequestContext context) throws ResponseException {
-        PersonImage personImage = getByUniqueId(uuid);
-        InputStream inputStream;
+        EmrPersonImageService emrPersonImageService = Context.getService(EmrPersonImageService.class);
+        PersonImageStore.Rendition rendition;
+        try {
+            rendition = PersonImageStore.Rendition.parse(context.getRequest().getParameter("size"));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalRequestException("size must be one of small, medium or full");
+        }
+        Person person = Context.getPersonService().getPersonByUuid(uuid);
+        if (person == null) {
+            throw new PersonNotFoundException(String.format("Person with UUID:%s not found.", uuid));
+        }
+        PersonImage personImage = emrPersonImageService.getCurrentPersonImage(person, rendition);
+        File file = personImage.getSavedImage();
+        if (file == null || !file.isFile()) {
+            throw new ObjectNotFoundException();
+        }
 
+        HttpServletRequest request = context.getRequest();
+        HttpServletResponse response = context.getResponse();
         try {
-            inputStream = new FileInputStream(personImage.getSavedImage());
-            OpenmrsUtil.copyFile(inputStream, context.getResponse().getOutputStream());
-            context.getResponse().flushBuffer();
+            String etag = "\"" + emrPersonImageService.getContentHash(personImage) + "\"";
+            long lastModified = file.lastModified();
+
+            response.setHeader("ETag", etag);
+            response.setDateHeader("Last-Modified", lastModified);
+            response.setHeader("Cache-Control", "private, max-age=0, must-revalidate");
+            if (isNotModified(request, etag, lastModified)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return null;
+            }
+
+            response.setContentType("image/" + PersonImageStore.IMAGE_FORMAT);
+            response.setContentLength((int) file.length());
+            FileChannel in = new FileInputStream(file).getChannel();
+            try {
+                WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+                long size = in.size();
+                for (long position = 0; position < size; ) {
+                    position += in.transferTo(position, size - position, out);
+                }
+            } finally {
+                in.close();
+            }
+            response.flushBuffer();
         } catch (FileNotFoundException e) {
             throw new ObjectNotFoundException();
         } catch (IOException e) {
@@ -81,6 +124,27 @@ public class PersonImageResource extends DelegatingCrudResource<PersonImage> {
         return null;
     }
 
+    private boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                candidate = candidate.trim();
+                if (candidate.equals("*") || candidate.equals(etag) || candidate.equals("W/" + etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        long ifModifiedSince;
+        try {
+            ifModifiedSince = request.getDateHeader("If-Modified-Since");
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        // http dates only have a precision of seconds
+        return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
     @Override
     protected void delete(PersonImage delegate, String reason, RequestContext context) throws ResponseException {
         throw new ResourceDoesNotSupportOperationException("delete of person image not supported");
@@ -22,11 +22,12 @@ import org.openmrs.module.webservices.rest.web.resource.api.PageableResult;
 import org.openmrs.module.webservices.rest.web.resource.api.SearchConfig;
 import org.openmrs.module.webservices.rest.web.resource.api.SearchHandler;
 import org.openmrs.module.webservices.rest.web.resource.api.SearchQuery;
-import org.openmrs.module.webservices.rest.web.resource.impl.NeedsPaging;
+import org.openmrs.module.webservices.rest.web.resource.impl.AlreadyPaged;
 import org.openmrs.module.webservices.rest.web.response.ResponseException;
 import org.springframework.stereotype.Component;
-import org.openmrs.module.emrapi.utils.GeneralUtils;
+import org.openmrs.module.emrapi.patient.EmrPatientService;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -54,8 +55,14 @@ public class LastViewedPatientsSearchHandler implements SearchHandler {
 
         User user = Context.getAuthenticatedUser();
 
-        List<Patient> lastViewedPatients = GeneralUtils.getLastViewedPatients(user);
+        // fetch one extra patient to find out whether there are more
+        List<Patient> lastViewedPatients = Context.getService(EmrPatientService.class).getLastViewedPatients(user,
+                context.getStartIndex(), context.getLimit() + 1);
+        boolean hasMoreResults = lastViewedPatients.size() > context.getLimit();
+        if (hasMoreResults) {
+            lastViewedPatients = new ArrayList<Patient>(lastViewedPatients.subList(0, context.getLimit()));
+        }
 
-        return new NeedsPaging<Patient>(lastViewedPatients, context);
+        return new AlreadyPaged<Patient>(context, lastViewedPatients, hasMoreResults);
     }
 }
@@ -37,6 +37,7 @@ public class PatientProfileResource_1_9_Test extends BaseModuleWebContextSensiti
         patientProfileCreateObject.putAll(new ObjectMapper().readValue(getClass().getClassLoader().getResourceAsStream("create_patient_profile.json"), HashMap.class));
         SimpleObject created = (SimpleObject) resource.create(patientProfileCreateObject, new RequestContext());
         Assert.assertEquals("id-B - Ram Kabir", ((Map) created.get("patient")).get("display"));
+        Assert.assertEquals("QUEUED", created.get("imageStatus"));
     }
 
     @Test